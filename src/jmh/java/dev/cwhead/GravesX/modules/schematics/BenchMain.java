@@ -0,0 +1,32 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler attached, so every result comes with its allocation rate.
+ * <p>Usage: <code>mvn -P bench test-compile exec:exec</code>. Extra JMH options can be passed with
+ * <code>-Dbench.args="..."</code>, for example <code>-Dbench.args="GravePathBench.paste -p size=32"</code>.</p>
+ */
+public final class BenchMain {
+
+    private BenchMain() {
+    }
+
+    /**
+     * Entry point.
+     *
+     * @param args JMH command line options
+     * @throws Exception if the run fails
+     */
+    public static void main(String[] args) throws Exception {
+        Options cli = new CommandLineOptions(args);
+        ChainedOptionsBuilder opts = new OptionsBuilder().parent(cli).addProfiler(GCProfiler.class);
+        if (cli.getIncludes().isEmpty()) opts.include(GravePathBench.class.getSimpleName());
+        new Runner(opts.build()).run();
+    }
+}
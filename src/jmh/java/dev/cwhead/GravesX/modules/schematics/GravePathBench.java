@@ -0,0 +1,180 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot paths of the provider against synthetic grave clipboards of several sizes.
+ * <p>Covers reading a <code>.schem</code> from disk, compiling it into a {@link PastePlan}, encoding a
+ * captured region with both snapshot codecs, the region math done for every grave, and pasting a plan, as saved
+ * and rotated, into an in-memory extent. Run through {@link BenchMain} to get allocation rates next to throughput.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GravePathBench {
+
+    /** Clipboard edge length. */
+    @Param({"5", "16", "32"})
+    public int size;
+
+    /** Synthetic grave. */
+    private Clipboard clip;
+    /** Same grave written as a Sponge schematic. */
+    private File schem;
+    /** Plan compiled from {@link #clip}. */
+    private PastePlan plan;
+    /** {@link #plan} turned a quarter clockwise. */
+    private PastePlan rotated;
+    /** Same grave with its rotations precompiled. */
+    private LoadedSchematic loaded;
+    /** Binary snapshot codec with deflate. */
+    private SnapshotCodec binary;
+    /** Sponge snapshot codec. */
+    private SnapshotCodec sponge;
+    /** Reused encode sink. */
+    private ByteArrayOutputStream sink;
+    /** Extent pasted into. */
+    private Clipboard target;
+    /** Paste anchor inside {@link #target}. */
+    private BlockVector3 anchor;
+
+    /**
+     * Builds the clipboard, its schematic file and the paste target.
+     *
+     * @throws Exception if setup fails
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchPlatform.start();
+        clip = BenchPlatform.graveClipboard(size);
+        schem = Files.createTempFile("gravesx-bench", ".schem").toFile();
+        BenchPlatform.write(clip, schem);
+        plan = PastePlan.compile(clip, true);
+        loaded = new LoadedSchematic(clip, plan, true);
+        rotated = loaded.plan(1);
+        binary = new SnapshotCodecs("binary", true).writer(false);
+        sponge = new SnapshotCodecs("sponge", false).writer(false);
+        sink = new ByteArrayOutputStream(1 << 16);
+        target = BenchPlatform.target(size);
+        anchor = BenchPlatform.pasteAnchor(size);
+    }
+
+    /** Deletes the schematic file. */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        schem.delete();
+    }
+
+    /**
+     * Reads the schematic through WorldEdit's format detection.
+     *
+     * @return loaded clipboard
+     * @throws Exception if reading fails
+     */
+    @Benchmark
+    public Clipboard loadClipboard() throws Exception {
+        return SnapshotIO.readClipboard(schem);
+    }
+
+    /**
+     * Reads the schematic and compiles its paste plan and rotations, as a cache miss does.
+     *
+     * @return loaded schematic
+     * @throws Exception if reading fails
+     */
+    @Benchmark
+    public LoadedSchematic loadSchematic() throws Exception {
+        return LoadedSchematic.load(schem, true, true);
+    }
+
+    /** @return plan compiled from the in-memory clipboard */
+    @Benchmark
+    public PastePlan compilePlan() {
+        return PastePlan.compile(clip, true);
+    }
+
+    /**
+     * Encodes the clipboard as a full snapshot with the binary codec.
+     *
+     * @return encoded size
+     * @throws Exception if encoding fails
+     */
+    @Benchmark
+    public int encodeBinary() throws Exception {
+        sink.reset();
+        binary.encode(new ClipboardSnapshot(clip), sink);
+        return sink.size();
+    }
+
+    /**
+     * Encodes the clipboard as a full snapshot with the Sponge codec.
+     *
+     * @return encoded size
+     * @throws Exception if encoding fails
+     */
+    @Benchmark
+    public int encodeSponge() throws Exception {
+        sink.reset();
+        sponge.encode(new ClipboardSnapshot(clip), sink);
+        return sink.size();
+    }
+
+    /** @return paste region of a quarter-turned grave, from the precomputed bounds */
+    @Benchmark
+    public CuboidRegion rotatedRegion() {
+        return loaded.region(1, anchor);
+    }
+
+    /** @return fixed snapshot box at the anchor */
+    @Benchmark
+    public CuboidRegion regionFromBoxAt() {
+        return WorldEditSnapshotProvider.regionFromBoxAt(anchor, size, size, size);
+    }
+
+    /**
+     * Pastes the compiled plan into the in-memory target.
+     *
+     * @return blocks written
+     * @throws Exception if the paste fails
+     */
+    @Benchmark
+    public int paste() throws Exception {
+        plan.apply(target, anchor);
+        return plan.size();
+    }
+
+    /**
+     * Pastes the precompiled quarter-turned plan; should match {@link #paste()}.
+     *
+     * @return blocks written
+     * @throws Exception if the paste fails
+     */
+    @Benchmark
+    public int pasteRotated() throws Exception {
+        rotated.apply(target, anchor);
+        return rotated.size();
+    }
+}
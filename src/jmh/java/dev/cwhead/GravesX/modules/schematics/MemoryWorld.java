@@ -0,0 +1,121 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.util.SideEffectSet;
+import com.sk89q.worldedit.world.NullWorld;
+import com.sk89q.worldedit.world.block.BaseBlock;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockStateHolder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * WorldEdit world held in a map, for the soak harness.
+ * <p>Only non-air blocks are stored, so the map size is the world's block count. Edit sessions, snapshot
+ * captures and restores run against it exactly as against a server world, minus lighting and physics,
+ * which makes it possible to compare the terrain before and after a run block by block.</p>
+ */
+final class MemoryWorld extends NullWorld {
+
+    /** World name. */
+    private final String name;
+    /** Default air state, returned for every unset position. */
+    private final BlockState air;
+    /** Non-air blocks by position. */
+    private final Map<BlockVector3, BaseBlock> blocks = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an empty world.
+     *
+     * @param name world name
+     * @param air  default air state
+     */
+    MemoryWorld(String name, BlockState air) {
+        this.name = name;
+        this.air = air;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <B extends BlockStateHolder<B>> boolean setBlock(BlockVector3 position, B block, SideEffectSet sideEffects) {
+        BaseBlock b = block.toBaseBlock();
+        BaseBlock old = b.getBlockType().getMaterial().isAir() ? blocks.remove(position) : blocks.put(position, b);
+        return !Objects.equals(old, b);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public BlockState getBlock(BlockVector3 position) {
+        BaseBlock b = blocks.get(position);
+        return b != null ? b.toImmutableState() : air;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public BaseBlock getFullBlock(BlockVector3 position) {
+        BaseBlock b = blocks.get(position);
+        return b != null ? b : air.toBaseBlock();
+    }
+
+    /**
+     * Fills a box with layered terrain: stone with scattered cobblestone and air pockets below the surface,
+     * a dirt cap, and air above.
+     *
+     * @param min     minimum corner
+     * @param max     maximum corner
+     * @param surface Y of the top dirt layer
+     * @param seed    random seed for the scattered blocks
+     */
+    void terrain(BlockVector3 min, BlockVector3 max, int surface, long seed) {
+        Random rnd = new Random(seed);
+        BlockState stone = BenchPlatform.state("minecraft:stone");
+        BlockState cobble = BenchPlatform.state("minecraft:cobblestone");
+        BlockState dirt = BenchPlatform.state("minecraft:dirt");
+        for (int y = min.y(); y <= Math.min(max.y(), surface); y++) {
+            for (int z = min.z(); z <= max.z(); z++) {
+                for (int x = min.x(); x <= max.x(); x++) {
+                    int r = rnd.nextInt(16);
+                    BlockState b = y > surface - 3 ? dirt : r == 0 ? cobble : r == 1 ? air : stone;
+                    setBlock(BlockVector3.at(x, y, z), b, SideEffectSet.none());
+                }
+            }
+        }
+    }
+
+    /** @return number of non-air blocks */
+    int size() {
+        return blocks.size();
+    }
+
+    /** @return copy of every non-air block */
+    Map<BlockVector3, BaseBlock> copy() {
+        return new HashMap<>(blocks);
+    }
+
+    /**
+     * Counts positions whose block differs from an earlier {@link #copy()}.
+     *
+     * @param before earlier copy
+     * @return differing positions
+     */
+    int diff(Map<BlockVector3, BaseBlock> before) {
+        int n = 0;
+        for (Map.Entry<BlockVector3, BaseBlock> e : before.entrySet()) {
+            if (!e.getValue().equals(blocks.get(e.getKey()))) n++;
+        }
+        for (BlockVector3 pos : blocks.keySet()) {
+            if (!before.containsKey(pos)) n++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,453 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import com.ranull.graves.type.Grave;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.util.SideEffectSet;
+import com.sk89q.worldedit.world.block.BaseBlock;
+import dev.cwhead.GravesX.module.ModuleContext;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Headless place/remove soak test of {@link WorldEditSnapshotProvider}.
+ * <p>Drives the real provider, with its scheduler, snapshot writer, store, index, groups and journal, against
+ * a {@link MemoryWorld} and a {@link SoakServer} whose ticks run back to back. Graves are placed at random
+ * overlapping positions in three height bands that select different schematics through Y-band rules and
+ * weighted variants, facing random directions, and removed in random order while a fixed number stay live.
+ * Biome rules are not exercised: resolving biome keys needs Paper's registry, which is not available
+ * without a server.</p>
+ * <p>Reports latency distributions of the server-thread calls and of whole places and removals (until the
+ * anchor is set or cleared), tick times, backups-directory size and heap over the run, the provider's own
+ * phase timings, and, after every grave is gone and the provider is shut down, snapshots still in the store
+ * and terrain blocks that differ from before the run. Exits with status 1 on leaked snapshots, terrain drift,
+ * logged failures or operations that never finish.</p>
+ * <p>Usage: <code>mvn -P bench,soak verify</code>, with options as <code>-Dsoak.args="cycles=2000 mode=delta"</code>:
+ * <code>cycles</code>, <code>live</code>, <code>ops-per-tick</code>, <code>seed</code>, <code>mode</code>
+ * (full or delta), <code>store</code> (files or segments), <code>sample</code> (operations between samples)
+ * and <code>keep</code> (leave the data folder behind).</p>
+ */
+public final class SoakHarness {
+
+    /** Half the edge of the square graves are placed in. */
+    private static final int AREA = 20;
+    /** Surface heights of the three bands: deep, default and high. */
+    private static final int[] BANDS = {36, 64, 96};
+    /** Ticks to wait for outstanding work after the last removal. */
+    private static final long DRAIN_TICKS = 20L * 60L * 5L;
+
+    /** Run options. */
+    private final Map<String, String> opts;
+    /** Logger handed to the provider; counts failures. */
+    private final Logger logger = Logger.getLogger("GravesX-Soak");
+    /** Warnings logged by the provider. */
+    private final AtomicInteger warnings = new AtomicInteger();
+    /** Places waiting for their anchor, by packed anchor position: start time in nanos. */
+    private final Map<Long, Long> placing = new ConcurrentHashMap<>();
+    /** Removals waiting for their anchor to clear, by packed anchor position: start time in nanos. */
+    private final Map<Long, Long> removing = new ConcurrentHashMap<>();
+    /** Graves GravesX would still know about. */
+    private final Map<UUID, Grave> graveMap = new ConcurrentHashMap<>();
+    /** Packed anchor positions of graves placed and not yet fully removed. */
+    private final Set<Long> anchors = ConcurrentHashMap.newKeySet();
+
+    /** Server-thread cost of {@code place()}. */
+    private final Distribution placeCall = new Distribution();
+    /** Server-thread cost of {@code remove()}. */
+    private final Distribution removeCall = new Distribution();
+    /** From {@code place()} until the anchor is set. */
+    private final Distribution placeDone = new Distribution();
+    /** From {@code remove()} until the anchor is cleared. */
+    private final Distribution removeDone = new Distribution();
+    /** Duration of each tick. */
+    private final Distribution tickTime = new Distribution();
+
+    /**
+     * Creates the harness.
+     *
+     * @param opts run options
+     */
+    private SoakHarness(Map<String, String> opts) {
+        this.opts = opts;
+    }
+
+    /**
+     * Entry point.
+     *
+     * @param args options as <code>key=value</code>
+     * @throws Exception if setup fails
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            if (eq > 0) opts.put(a.substring(0, eq).trim().toLowerCase(Locale.ROOT), a.substring(eq + 1).trim());
+        }
+        boolean ok = new SoakHarness(opts).run();
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * Runs the soak and prints the report.
+     *
+     * @return true if nothing leaked, drifted, failed or hung
+     * @throws Exception if setup fails
+     */
+    private boolean run() throws Exception {
+        int cycles = Integer.parseInt(opts.getOrDefault("cycles", "10000"));
+        int liveTarget = Math.max(1, Integer.parseInt(opts.getOrDefault("live", "64")));
+        int opsPerTick = Math.max(1, Integer.parseInt(opts.getOrDefault("ops-per-tick", "4")));
+        int sampleEvery = Math.max(1, Integer.parseInt(opts.getOrDefault("sample", "500")));
+        Random rnd = new Random(Long.parseLong(opts.getOrDefault("seed", "1")));
+
+        logger.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord r) {
+                if (r.getLevel().intValue() >= Level.WARNING.intValue()) warnings.incrementAndGet();
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+
+        BenchPlatform.start();
+        MemoryWorld world = new MemoryWorld("soak", BenchPlatform.state("minecraft:air"));
+        SoakServer server = new SoakServer(logger, "soak", this::anchorChanged);
+        for (int i = 0; i < BANDS.length; i++) {
+            world.terrain(BlockVector3.at(-AREA - 8, BANDS[i] - 4, -AREA - 8),
+                    BlockVector3.at(AREA + 8, BANDS[i] + 8, AREA + 8), BANDS[i], i);
+        }
+        Map<BlockVector3, BaseBlock> before = world.copy();
+
+        File data = Files.createTempDirectory("gravesx-soak").toFile();
+        YamlConfiguration config = config(data);
+        ModuleContext ctx = mock(ModuleContext.class, RETURNS_DEEP_STUBS);
+        doReturn(config).when(ctx).getConfig();
+        doReturn(logger).when(ctx).getLogger();
+        doReturn(data).when(ctx).getDataFolder();
+        doReturn(graveMap).when(ctx.getPlugin().getCacheManager()).getGraveMap();
+
+        EditBackend backend = new WorldEditBackend(SideEffectSet.none()) {
+            @Override
+            public com.sk89q.worldedit.world.World adapt(org.bukkit.World w) {
+                return world;
+            }
+        };
+        WorldEditSnapshotProvider provider = new WorldEditSnapshotProvider(ctx, backend);
+        File backups = new File(data, config.getString("snapshot.dir", "backups"));
+
+        System.out.printf(Locale.ROOT, "Soak: %d cycles, %d live, %d ops/tick, snapshot %s, store %s%n", cycles,
+                liveTarget, opsPerTick, config.getString("snapshot.mode"), config.getString("snapshot.store.type"));
+        System.out.println("     ops   live   files   backups KiB   heap MiB   tick");
+
+        List<Grave> live = new ArrayList<>();
+        int placedCount = 0, ops = 0;
+        long heapStart = -1L, heapMax = 0L, backupsMax = 0L;
+        while (placedCount < cycles || !live.isEmpty()) {
+            for (int k = 0; k < opsPerTick && (placedCount < cycles || !live.isEmpty()); k++) {
+                boolean place = placedCount < cycles && (live.size() < liveTarget || rnd.nextBoolean() && live.size() < 2 * liveTarget);
+                if (place) {
+                    Grave g = newGrave(server, rnd);
+                    graveMap.put(g.getUUID(), g);
+                    live.add(g);
+                    Location l = g.getLocationDeath();
+                    long t0 = System.nanoTime();
+                    placing.put(SoakServer.pack(l.getBlockX(), l.getBlockY(), l.getBlockZ()), t0);
+                    provider.place(l, g);
+                    placeCall.add(System.nanoTime() - t0);
+                    placedCount++;
+                } else {
+                    Grave g = live.remove(rnd.nextInt(live.size()));
+                    graveMap.remove(g.getUUID());
+                    Location l = g.getLocationDeath();
+                    long pos = SoakServer.pack(l.getBlockX(), l.getBlockY(), l.getBlockZ());
+                    long t0 = System.nanoTime();
+                    removing.put(pos, t0);
+                    provider.remove(g);
+                    removeCall.add(System.nanoTime() - t0);
+                }
+                if (++ops % sampleEvery == 0) {
+                    long heap = usedHeap();
+                    long size = size(backups);
+                    if (heapStart < 0L) heapStart = heap;
+                    heapMax = Math.max(heapMax, heap);
+                    backupsMax = Math.max(backupsMax, size);
+                    System.out.printf(Locale.ROOT, "%8d %6d %7d %13d %10d %6d%n", ops, live.size(), files(backups),
+                            size / 1024L, heap >> 20, server.ticks());
+                }
+            }
+            tick(server);
+        }
+
+        long waited = 0L;
+        while ((!placing.isEmpty() || !removing.isEmpty() || provider.scheduler().queueDepth() > 0) && waited++ < DRAIN_TICKS) {
+            tick(server);
+            if (waited % 20L == 0L) Thread.sleep(1L);
+        }
+        int hung = placing.size() + removing.size();
+
+        List<String> stats = provider.stats();
+        provider.shutdown();
+        List<UUID> leaked = stored(backups, config);
+        int drift = world.diff(before);
+        long heapEnd = usedHeap();
+
+        System.out.println();
+        System.out.println("Latency (ms)          count      p50      p90      p99      max");
+        placeCall.print("place() call");
+        removeCall.print("remove() call");
+        placeDone.print("place to anchor");
+        removeDone.print("remove to cleared");
+        tickTime.print("tick");
+        System.out.println();
+        for (String line : stats) System.out.println(line);
+        System.out.println();
+        System.out.printf(Locale.ROOT, "Backups: peak %d KiB; heap: %d MiB at first sample, %d MiB peak, %d MiB at end%n",
+                backupsMax / 1024L, Math.max(0L, heapStart) >> 20, heapMax >> 20, heapEnd >> 20);
+        System.out.printf(Locale.ROOT, "Leaked snapshots: %d (%d files left in backups); terrain drift: %d blocks; "
+                + "warnings: %d; unfinished: %d%n", leaked.size(), files(backups), drift, warnings.get(), hung);
+        for (UUID id : leaked.subList(0, Math.min(10, leaked.size()))) System.out.println("  leaked " + id);
+
+        if (!Boolean.parseBoolean(opts.getOrDefault("keep", "false"))) delete(data);
+        else System.out.println("Data folder kept at " + data);
+        return leaked.isEmpty() && drift == 0 && warnings.get() == 0 && hung == 0;
+    }
+
+    /**
+     * Runs one server tick and records its duration.
+     *
+     * @param server stand-in server
+     */
+    private void tick(SoakServer server) {
+        long t0 = System.nanoTime();
+        server.tick();
+        tickTime.add(System.nanoTime() - t0);
+    }
+
+    /**
+     * Records the end of a place or removal when its anchor changes.
+     *
+     * @param pos packed anchor position
+     * @param to  new material
+     */
+    private void anchorChanged(long pos, Material to) {
+        long now = System.nanoTime();
+        Long t0 = to == Material.AIR ? removing.remove(pos) : placing.remove(pos);
+        if (to == Material.AIR) anchors.remove(pos);
+        if (t0 != null) (to == Material.AIR ? removeDone : placeDone).add(now - t0);
+    }
+
+    /**
+     * Creates a grave at a random position and facing, on an anchor position no other grave holds until its
+     * removal finished, so every anchor change maps to exactly one grave.
+     *
+     * @param server stand-in server
+     * @param rnd    random source
+     * @return grave
+     */
+    private Grave newGrave(SoakServer server, Random rnd) {
+        UUID id = new UUID(rnd.nextLong(), rnd.nextLong());
+        int x, y, z;
+        long pos;
+        do {
+            x = rnd.nextInt(2 * AREA + 1) - AREA;
+            y = BANDS[rnd.nextInt(BANDS.length)] - 1;
+            z = rnd.nextInt(2 * AREA + 1) - AREA;
+            pos = SoakServer.pack(x, y, z);
+        } while (!anchors.add(pos));
+
+        Location loc = new Location(server.world(), x + 0.5D, y, z + 0.5D, rnd.nextFloat() * 360.0F - 180.0F, 0.0F);
+        Grave g = mock(Grave.class, withSettings().stubOnly());
+        when(g.getUUID()).thenReturn(id);
+        when(g.getLocationDeath()).thenReturn(loc);
+        return g;
+    }
+
+    /**
+     * Builds the module config: the shipped defaults, with chunk preloading, deferred removals, the sweeper
+     * and batched lighting off, none of which has a server to talk to, load degradation off so every grave
+     * takes the full path being measured, and the schematics the run uses.
+     *
+     * @param data data folder the schematics are written to
+     * @return config
+     * @throws Exception if the defaults or a schematic cannot be written or read
+     */
+    private YamlConfiguration config(File data) throws Exception {
+        YamlConfiguration cfg;
+        try (Reader in = new InputStreamReader(SoakHarness.class.getResourceAsStream("/config.yml"), StandardCharsets.UTF_8)) {
+            cfg = YamlConfiguration.loadConfiguration(in);
+        }
+        File dir = new File(data, "schematics");
+        dir.mkdirs();
+        BenchPlatform.write(BenchPlatform.graveClipboard(5, 4, 5), new File(dir, "grave.schem"));
+        BenchPlatform.write(BenchPlatform.graveClipboard(7, 4, 3), new File(dir, "grave_wide.schem"));
+        BenchPlatform.write(BenchPlatform.graveClipboard(3, 5, 5), new File(dir, "grave_deep.schem"));
+        BenchPlatform.write(BenchPlatform.graveClipboard(5, 6, 7), new File(dir, "grave_high.schem"));
+
+        cfg.set("schematic.variants", List.of(Map.of("schematic", "schematics/grave_wide.schem", "weight", 2)));
+        cfg.set("schematic.override.biomes", List.of());
+        cfg.set("schematic.rules", List.of(
+                Map.of("schematic", "schematics/grave_deep.schem", "y-max", BANDS[0] + 8),
+                Map.of("schematic", List.of("schematics/grave_high.schem", "schematics/grave.schem"), "y-min", BANDS[2] - 8)));
+        cfg.set("snapshot.mode", opts.getOrDefault("mode", "full"));
+        cfg.set("snapshot.store.type", opts.getOrDefault("store", "files"));
+        cfg.set("chunks.preload", false);
+        cfg.set("deferred.enabled", false);
+        cfg.set("gc.enabled", false);
+        cfg.set("side-effects.lighting", "off");
+        cfg.set("reload.watch", false);
+        cfg.set("load.enabled", false);
+        return cfg;
+    }
+
+    /**
+     * Opens the snapshot store the provider used, after it was closed, and lists what is left in it.
+     *
+     * @param backups snapshot directory
+     * @param cfg     module config
+     * @return graves that still have a stored snapshot
+     * @throws IOException if the segment store cannot be opened
+     */
+    private List<UUID> stored(File backups, YamlConfiguration cfg) throws IOException {
+        SnapshotStore store = new FileSnapshotStore(backups,
+                new SnapshotCodecs(cfg.getString("snapshot.format"), cfg.getBoolean("snapshot.compress")).extensions());
+        if ("segments".equalsIgnoreCase(cfg.getString("snapshot.store.type"))) {
+            store = new SegmentSnapshotStore(logger, new File(backups, "segments"), 64L * 1024L * 1024L, 0.5D, 10L, false, store);
+        }
+        try {
+            List<UUID> out = new ArrayList<>();
+            for (SnapshotStore.Stored st : store.list()) out.add(st.id);
+            return out;
+        } finally {
+            store.close();
+        }
+    }
+
+    /** @return heap in use after a full collection */
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /**
+     * Collects the regular files below a directory. Files the snapshot writer deletes mid-walk are skipped.
+     *
+     * @param dir directory
+     * @param out receives the files
+     * @return {@code out}
+     */
+    private static List<File> list(File dir, List<File> out) {
+        File[] children = dir.listFiles();
+        if (children == null) return out;
+        for (File f : children) {
+            if (f.isDirectory()) list(f, out);
+            else if (f.isFile()) out.add(f);
+        }
+        return out;
+    }
+
+    /**
+     * @param dir directory
+     * @return number of regular files below it
+     */
+    private static int files(File dir) {
+        return list(dir, new ArrayList<>()).size();
+    }
+
+    /**
+     * @param dir directory
+     * @return total size of the regular files below it
+     */
+    private static long size(File dir) {
+        long n = 0L;
+        for (File f : list(dir, new ArrayList<>())) n += f.length();
+        return n;
+    }
+
+    /**
+     * Deletes a directory tree.
+     *
+     * @param dir directory
+     */
+    private static void delete(File dir) {
+        File[] children = dir.listFiles();
+        if (children != null) for (File f : children) delete(f);
+        dir.delete();
+    }
+
+    /** Latency samples in nanos, reported as percentiles in milliseconds. */
+    private static final class Distribution {
+        /** Samples. */
+        private long[] samples = new long[1024];
+        /** Samples recorded. */
+        private int count;
+
+        /**
+         * Records a sample.
+         *
+         * @param nanos duration
+         */
+        void add(long nanos) {
+            if (count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+            samples[count++] = nanos;
+        }
+
+        /**
+         * Prints one report row.
+         *
+         * @param label row label
+         */
+        void print(String label) {
+            long[] s = Arrays.copyOf(samples, count);
+            Arrays.sort(s);
+            System.out.printf(Locale.ROOT, "%-20s %7d %8.3f %8.3f %8.3f %8.3f%n", label, count,
+                    ms(s, 0.50D), ms(s, 0.90D), ms(s, 0.99D), ms(s, 1.0D));
+        }
+
+        /**
+         * @param sorted sorted samples
+         * @param q      quantile
+         * @return sample at the quantile in milliseconds, or 0 without samples
+         */
+        private static double ms(long[] sorted, double q) {
+            if (sorted.length == 0) return 0.0D;
+            int i = Math.min(sorted.length - 1, (int) Math.ceil(q * sorted.length) - 1);
+            return sorted[Math.max(0, i)] / (double) TimeUnit.MILLISECONDS.toNanos(1L);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Stand-in Bukkit server for the soak harness.
+ * <p>Installs a mocked {@link Server} whose scheduler only collects tasks; the harness runs them by calling
+ * {@link #tick()}, so a tick is exactly one pass over the due tasks with no wall-clock pacing. One world is
+ * provided, with every chunk loaded. Its blocks only remember their material, which is all the provider's
+ * anchor handling reads, and every material change is reported to a listener.</p>
+ */
+final class SoakServer {
+
+    /** Receives anchor material changes. */
+    interface BlockListener {
+        /**
+         * Called after a block's material changed.
+         *
+         * @param pos packed position, see {@link #pack(int, int, int)}
+         * @param to  new material
+         */
+        void changed(long pos, Material to);
+    }
+
+    /** Scheduled tasks, in submission order. */
+    private final List<Task> tasks = new CopyOnWriteArrayList<>();
+    /** Non-air materials by packed position. */
+    private final Map<Long, Material> materials = new ConcurrentHashMap<>();
+    /** The one world. */
+    private final World world;
+    /** Material change listener. */
+    private final BlockListener listener;
+    /** Ticks run so far. */
+    private long tick;
+
+    /**
+     * Installs the server. Bukkit's server singleton can be set once per JVM.
+     *
+     * @param logger   server logger
+     * @param name     world name
+     * @param listener material change listener
+     */
+    SoakServer(Logger logger, String name, BlockListener listener) {
+        this.listener = listener;
+
+        World w = mock(World.class, withSettings().stubOnly());
+        UUID uid = UUID.nameUUIDFromBytes(name.getBytes());
+        when(w.getUID()).thenReturn(uid);
+        when(w.getName()).thenReturn(name);
+        when(w.getMinHeight()).thenReturn(-64);
+        when(w.getMaxHeight()).thenReturn(320);
+        when(w.getEnvironment()).thenReturn(World.Environment.NORMAL);
+        when(w.isChunkLoaded(anyInt(), anyInt())).thenReturn(true);
+        when(w.getBlockAt(anyInt(), anyInt(), anyInt())).thenAnswer(inv ->
+                block(inv.getArgument(0), inv.getArgument(1), inv.getArgument(2)));
+        this.world = w;
+
+        BukkitScheduler scheduler = mock(BukkitScheduler.class, withSettings().stubOnly());
+        when(scheduler.runTaskTimer(any(), any(Runnable.class), anyLong(), anyLong())).thenAnswer(inv ->
+                schedule(inv.getArgument(1), inv.getArgument(2), inv.getArgument(3)));
+        when(scheduler.runTask(any(), any(Runnable.class))).thenAnswer(inv ->
+                schedule(inv.getArgument(1), 0L, -1L));
+
+        Server server = mock(Server.class, withSettings().stubOnly());
+        when(server.getLogger()).thenReturn(logger);
+        when(server.getScheduler()).thenReturn(scheduler);
+        when(server.getPluginManager()).thenReturn(mock(PluginManager.class, withSettings().stubOnly()));
+        when(server.getWorld(uid)).thenReturn(w);
+        when(server.getWorld(name)).thenReturn(w);
+        Bukkit.setServer(server);
+    }
+
+    /** @return the server's world */
+    World world() {
+        return world;
+    }
+
+    /** @return ticks run so far */
+    long ticks() {
+        return tick;
+    }
+
+    /** Runs one tick: every task due now, in submission order. Harness thread only. */
+    void tick() {
+        tick++;
+        for (Task t : tasks) {
+            if (t.cancelled || tick < t.next) continue;
+            if (t.period < 0L) {
+                t.cancelled = true;
+                tasks.remove(t);
+            } else {
+                t.next = tick + Math.max(1L, t.period);
+            }
+            t.run.run();
+        }
+    }
+
+    /**
+     * Packs block coordinates into one long.
+     *
+     * @param x block X
+     * @param y block Y
+     * @param z block Z
+     * @return packed position
+     */
+    static long pack(int x, int y, int z) {
+        return ((long) x & 0x3FFFFFFL) << 38 | ((long) z & 0x3FFFFFFL) << 12 | (y & 0xFFFL);
+    }
+
+    /**
+     * Schedules a task.
+     *
+     * @param run    task body
+     * @param delay  ticks before the first run
+     * @param period ticks between runs, or negative to run once
+     * @return handle that cancels the task
+     */
+    private BukkitTask schedule(Runnable run, long delay, long period) {
+        Task t = new Task(run, tick + Math.max(1L, delay), period);
+        tasks.add(t);
+        BukkitTask handle = mock(BukkitTask.class, withSettings().stubOnly());
+        doAnswer(inv -> {
+            t.cancelled = true;
+            tasks.remove(t);
+            return null;
+        }).when(handle).cancel();
+        when(handle.isCancelled()).thenAnswer(inv -> t.cancelled);
+        return handle;
+    }
+
+    /**
+     * Returns a block backed by {@link #materials}. Only position, world and type access are implemented;
+     * anything else answers a zero value.
+     *
+     * @param x block X
+     * @param y block Y
+     * @param z block Z
+     * @return block
+     */
+    private Block block(int x, int y, int z) {
+        long pos = pack(x, y, z);
+        return (Block) Proxy.newProxyInstance(Block.class.getClassLoader(), new Class<?>[]{Block.class}, (proxy, m, args) -> {
+            String name = m.getName();
+            if ("getType".equals(name)) return materials.getOrDefault(pos, Material.AIR);
+            if ("setType".equals(name)) {
+                Material to = (Material) args[0];
+                if (to == Material.AIR) materials.remove(pos);
+                else materials.put(pos, to);
+                listener.changed(pos, to);
+                return null;
+            }
+            if ("getX".equals(name)) return x;
+            if ("getY".equals(name)) return y;
+            if ("getZ".equals(name)) return z;
+            if ("getWorld".equals(name)) return world;
+            if ("hashCode".equals(name)) return Long.hashCode(pos);
+            if ("equals".equals(name)) return proxy == args[0];
+            if ("toString".equals(name)) return "SoakBlock[" + x + "," + y + "," + z + "]";
+            return zero(m.getReturnType());
+        });
+    }
+
+    /**
+     * @param type return type
+     * @return the zero value of a primitive type, or {@code null}
+     */
+    private static Object zero(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) return null;
+        if (type == boolean.class) return false;
+        if (type == char.class) return '\0';
+        if (type == long.class) return 0L;
+        if (type == float.class) return 0.0F;
+        if (type == double.class) return 0.0D;
+        if (type == byte.class) return (byte) 0;
+        if (type == short.class) return (short) 0;
+        return 0;
+    }
+
+    /** A scheduled task. */
+    private static final class Task {
+        /** Task body. */
+        final Runnable run;
+        /** Ticks between runs, negative for a one-shot task. */
+        final long period;
+        /** Tick of the next run. */
+        long next;
+        /** Set once cancelled or, for one-shot tasks, run. */
+        volatile boolean cancelled;
+
+        Task(Runnable run, long next, long period) {
+            this.run = run;
+            this.next = next;
+            this.period = period;
+        }
+    }
+}
@@ -0,0 +1,542 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import com.sk89q.worldedit.WorldEdit;
+import com.sk89q.worldedit.entity.BaseEntity;
+import com.sk89q.worldedit.entity.Entity;
+import com.sk89q.worldedit.extension.input.ParserContext;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.math.Vector3;
+import com.sk89q.worldedit.util.Location;
+import com.sk89q.worldedit.util.concurrency.LazyReference;
+import com.sk89q.worldedit.world.biome.BiomeType;
+import com.sk89q.worldedit.world.block.BaseBlock;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.entity.EntityType;
+import org.enginehub.linbus.stream.LinBinaryIO;
+import org.enginehub.linbus.tree.LinCompoundTag;
+import org.enginehub.linbus.tree.LinRootEntry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compact write-once/read-once snapshot format.
+ * <p>Layout: an uncompressed header (magic <code>GXSN</code>, version, compression flag, origin x/y/z)
+ * followed by the payload, optionally raw-deflated at {@link Deflater#BEST_SPEED}. The payload stores block
+ * states and biomes as string palettes referenced by varints, with single-entry palettes collapsing to no
+ * per-cell data, and block-entity and entity NBT only where present.</p>
+ * <p>Every position in the payload is relative to the header origin, so two captures of identical terrain
+ * at different places have identical payloads; {@link DedupSnapshotStore} stores such payloads once and
+ * moves them by rewriting the header.</p>
+ */
+final class BinarySnapshotCodec implements SnapshotCodec {
+
+    /** Config name. */
+    static final String ID = "binary";
+    /** Header magic, "GXSN". */
+    static final int MAGIC = 0x4758534E;
+    /** Format version written. */
+    private static final int VERSION = 2;
+    /** Header size: magic, version, compression flag, origin x/y/z. */
+    static final int HEADER = 4 + 1 + 1 + 12;
+    /** Compression flag: payload stored as-is. */
+    private static final int COMPRESSION_NONE = 0;
+    /** Compression flag: payload raw-deflated. */
+    private static final int COMPRESSION_DEFLATE = 1;
+    /** Payload kind: full cuboid. */
+    private static final int KIND_DENSE = 0;
+    /** Payload kind: delta positions. */
+    private static final int KIND_SPARSE = 1;
+
+    /** If true, the payload is deflated. */
+    private final boolean compress;
+
+    /**
+     * Creates the codec.
+     *
+     * @param compress deflate the payload at the fastest level
+     */
+    BinarySnapshotCodec(boolean compress) {
+        this.compress = compress;
+    }
+
+    /** {@inheritDoc} */
+    @Override public String id() {
+        return ID;
+    }
+
+    /** {@inheritDoc} */
+    @Override public String extension() {
+        return "gsnap";
+    }
+
+    /** {@inheritDoc} */
+    @Override public boolean supports(GraveSnapshot snapshot) {
+        return snapshot instanceof ClipboardSnapshot || snapshot instanceof SparseSnapshot;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void encode(GraveSnapshot snapshot, OutputStream raw) throws Exception {
+        writeHeader(raw, origin(snapshot));
+
+        Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED, true) : null;
+        try {
+            DeflaterOutputStream def = deflater != null ? new DeflaterOutputStream(raw, deflater, 8192) : null;
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(def != null ? def : raw, 8192));
+            writeBody(snapshot, out);
+            out.flush();
+            if (def != null) def.finish();
+        } finally {
+            if (deflater != null) deflater.end();
+        }
+    }
+
+    /**
+     * Serializes a snapshot's payload without header or compression. Identical terrain gives identical
+     * bytes wherever it was captured.
+     *
+     * @param snapshot snapshot to serialize
+     * @return uncompressed payload
+     * @throws IOException on write failure
+     */
+    byte[] body(GraveSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.min(1 << 20, Math.max(256, snapshot.blockCount())));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(bytes, 8192));
+        writeBody(snapshot, out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Puts a header in front of a payload from {@link #body(GraveSnapshot)}, deflating it if the codec
+     * compresses. The result decodes like the output of {@link #encode}.
+     *
+     * @param body   uncompressed payload
+     * @param origin origin written to the header
+     * @return encoded snapshot
+     * @throws IOException on write failure
+     */
+    byte[] frame(byte[] body, BlockVector3 origin) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER + (compress ? body.length / 4 : body.length) + 64);
+        writeHeader(bytes, origin);
+        if (!compress) {
+            bytes.write(body);
+            return bytes.toByteArray();
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            DeflaterOutputStream def = new DeflaterOutputStream(bytes, deflater, 8192);
+            def.write(body);
+            def.finish();
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Rewrites the origin in a header read from an encoded snapshot, moving the snapshot without touching
+     * its payload.
+     *
+     * @param header first {@link #HEADER} bytes of a version 2 snapshot; modified in place
+     * @param origin new origin
+     * @throws IOException if the bytes are not a version 2 header
+     */
+    static void relocate(byte[] header, BlockVector3 origin) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(header);
+        if (header.length < HEADER || buf.getInt(0) != MAGIC || (header[4] & 0xFF) != VERSION) {
+            throw new IOException("Not a relocatable grave snapshot");
+        }
+        buf.putInt(6, origin.x()).putInt(10, origin.y()).putInt(14, origin.z());
+    }
+
+    /**
+     * Returns the position a snapshot's payload is relative to.
+     *
+     * @param snapshot snapshot this codec supports
+     * @return cuboid minimum for full snapshots, paste anchor for delta snapshots
+     */
+    static BlockVector3 origin(GraveSnapshot snapshot) {
+        return snapshot instanceof SparseSnapshot
+                ? ((SparseSnapshot) snapshot).anchor()
+                : ((ClipboardSnapshot) snapshot).clipboard().getRegion().getMinimumPoint();
+    }
+
+    /**
+     * Writes the uncompressed header.
+     *
+     * @param raw    destination
+     * @param origin snapshot origin
+     * @throws IOException on write failure
+     */
+    private void writeHeader(OutputStream raw, BlockVector3 origin) throws IOException {
+        DataOutputStream header = new DataOutputStream(raw);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeByte(compress ? COMPRESSION_DEFLATE : COMPRESSION_NONE);
+        header.writeInt(origin.x());
+        header.writeInt(origin.y());
+        header.writeInt(origin.z());
+        header.flush();
+    }
+
+    /**
+     * Writes the payload kind and data.
+     *
+     * @param snapshot snapshot
+     * @param out      destination
+     * @throws IOException on write failure
+     */
+    private static void writeBody(GraveSnapshot snapshot, DataOutputStream out) throws IOException {
+        if (snapshot instanceof SparseSnapshot) {
+            out.writeByte(KIND_SPARSE);
+            writeSparse((SparseSnapshot) snapshot, out);
+        } else {
+            out.writeByte(KIND_DENSE);
+            writeDense(((ClipboardSnapshot) snapshot).clipboard(), out);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public GraveSnapshot decode(InputStream raw) throws Exception {
+        DataInputStream header = new DataInputStream(raw);
+        if (header.readInt() != MAGIC) throw new IOException("Not a binary grave snapshot");
+        int version = header.readUnsignedByte();
+        if (version != VERSION) throw new IOException("Unsupported snapshot version " + version);
+        int compression = header.readUnsignedByte();
+        BlockVector3 origin = BlockVector3.at(header.readInt(), header.readInt(), header.readInt());
+
+        Inflater inflater = compression == COMPRESSION_DEFLATE ? new Inflater(true) : null;
+        try {
+            InputStream body = inflater != null ? new InflaterInputStream(raw, inflater, 8192) : raw;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(body, 8192));
+            int kind = in.readUnsignedByte();
+            if (kind == KIND_SPARSE) return readSparse(in, origin);
+            if (kind == KIND_DENSE) return readDense(in, origin);
+            throw new IOException("Unknown snapshot kind " + kind);
+        } finally {
+            if (inflater != null) inflater.end();
+        }
+    }
+
+    /**
+     * Writes a full cuboid from a captured clipboard, relative to the cuboid minimum.
+     *
+     * @param clip clipboard whose origin is the cuboid minimum
+     * @param out  destination
+     * @throws IOException on write failure
+     */
+    private static void writeDense(Clipboard clip, DataOutputStream out) throws IOException {
+        BlockVector3 min = clip.getRegion().getMinimumPoint();
+        BlockVector3 max = clip.getRegion().getMaximumPoint();
+        int sx = max.x() - min.x() + 1, sy = max.y() - min.y() + 1, sz = max.z() - min.z() + 1;
+        int cells = sx * sy * sz;
+
+        writeVarInt(out, sx);
+        writeVarInt(out, sy);
+        writeVarInt(out, sz);
+
+        Palette<BlockState> blocks = new Palette<>();
+        Palette<BiomeType> biomes = new Palette<>();
+        int[] ids = new int[cells];
+        int[] biomeIds = new int[cells];
+        List<Integer> nbtCells = new ArrayList<>();
+        List<LinCompoundTag> nbt = new ArrayList<>();
+
+        int cell = 0;
+        for (int y = 0; y < sy; y++) {
+            for (int z = 0; z < sz; z++) {
+                for (int x = 0; x < sx; x++, cell++) {
+                    BlockVector3 pos = min.add(x, y, z);
+                    BaseBlock block = clip.getFullBlock(pos);
+                    ids[cell] = blocks.id(block.toImmutableState());
+                    LinCompoundTag tag = block.getNbt();
+                    if (tag != null) {
+                        nbtCells.add(cell);
+                        nbt.add(tag);
+                    }
+                    BiomeType biome = clip.getBiome(pos);
+                    biomeIds[cell] = biome != null ? biomes.id(biome) : 0;
+                }
+            }
+        }
+
+        writeVarInt(out, blocks.size());
+        for (BlockState state : blocks.values) out.writeUTF(state.getAsString());
+        if (blocks.size() > 1) for (int id : ids) writeVarInt(out, id);
+
+        writeVarInt(out, nbtCells.size());
+        for (int i = 0; i < nbtCells.size(); i++) {
+            writeVarInt(out, nbtCells.get(i));
+            writeNbt(out, nbt.get(i));
+        }
+
+        writeVarInt(out, biomes.size());
+        for (BiomeType biome : biomes.values) out.writeUTF(biome.getId());
+        if (biomes.size() > 1) for (int id : biomeIds) writeVarInt(out, id);
+
+        List<? extends Entity> entities = clip.getEntities();
+        List<BaseEntity> states = new ArrayList<>();
+        List<Location> locations = new ArrayList<>();
+        for (Entity entity : entities) {
+            BaseEntity state = entity.getState();
+            if (state == null) continue;
+            states.add(state);
+            locations.add(entity.getLocation());
+        }
+        writeVarInt(out, states.size());
+        Vector3 base = min.toVector3();
+        for (int i = 0; i < states.size(); i++) {
+            BaseEntity state = states.get(i);
+            Location loc = locations.get(i);
+            Vector3 rel = loc.toVector().subtract(base);
+            out.writeUTF(state.getType().getId());
+            out.writeDouble(rel.x());
+            out.writeDouble(rel.y());
+            out.writeDouble(rel.z());
+            out.writeFloat(loc.getYaw());
+            out.writeFloat(loc.getPitch());
+            LinCompoundTag tag = state.getNbt();
+            out.writeBoolean(tag != null);
+            if (tag != null) writeNbt(out, tag);
+        }
+    }
+
+    /**
+     * Reads a full cuboid.
+     *
+     * @param in     source
+     * @param min    cuboid minimum from the header
+     * @return decoded snapshot
+     * @throws IOException if the payload is malformed
+     */
+    private static DenseSnapshot readDense(DataInputStream in, BlockVector3 min) throws IOException {
+        int sx = readVarInt(in), sy = readVarInt(in), sz = readVarInt(in);
+        int cells = sx * sy * sz;
+
+        BlockState[] palette = new BlockState[readVarInt(in)];
+        for (int i = 0; i < palette.length; i++) palette[i] = parseState(in.readUTF());
+        int[] ids = palette.length > 1 ? readIds(in, cells, palette.length) : null;
+
+        int nbtCount = readVarInt(in);
+        int[] nbtCells = new int[nbtCount];
+        LinCompoundTag[] nbt = new LinCompoundTag[nbtCount];
+        for (int i = 0; i < nbtCount; i++) {
+            nbtCells[i] = readVarInt(in);
+            nbt[i] = readNbt(in);
+        }
+
+        BiomeType[] biomePalette = new BiomeType[readVarInt(in)];
+        for (int i = 0; i < biomePalette.length; i++) {
+            String id = in.readUTF();
+            biomePalette[i] = BiomeType.REGISTRY.get(id);
+            if (biomePalette[i] == null) throw new IOException("Unknown biome: " + id);
+        }
+        int[] biomeIds = biomePalette.length > 1 ? readIds(in, cells, biomePalette.length) : null;
+
+        DenseSnapshot.EntityEntry[] entities = new DenseSnapshot.EntityEntry[readVarInt(in)];
+        for (int i = 0; i < entities.length; i++) {
+            String typeId = in.readUTF();
+            EntityType type = EntityType.REGISTRY.get(typeId);
+            Vector3 offset = Vector3.at(in.readDouble(), in.readDouble(), in.readDouble());
+            float yaw = in.readFloat();
+            float pitch = in.readFloat();
+            LinCompoundTag tag = in.readBoolean() ? readNbt(in) : null;
+            if (type == null) throw new IOException("Unknown entity type: " + typeId);
+            BaseEntity entity = tag != null ? new BaseEntity(type, LazyReference.computed(tag)) : new BaseEntity(type);
+            entities[i] = new DenseSnapshot.EntityEntry(entity, offset, yaw, pitch);
+        }
+
+        return new DenseSnapshot(min, sx, sy, sz, palette, ids, nbtCells, nbt, biomePalette, biomeIds, entities);
+    }
+
+    /**
+     * Writes a delta snapshot; its offsets are already relative to the anchor.
+     *
+     * @param snap snapshot
+     * @param out  destination
+     * @throws IOException on write failure
+     */
+    private static void writeSparse(SparseSnapshot snap, DataOutputStream out) throws IOException {
+        int[] offsets = snap.offsets();
+        BaseBlock[] blocks = snap.blocks();
+
+        writeVarInt(out, blocks.length);
+
+        Palette<BlockState> palette = new Palette<>();
+        int[] ids = new int[blocks.length];
+        for (int i = 0; i < blocks.length; i++) ids[i] = palette.id(blocks[i].toImmutableState());
+        writeVarInt(out, palette.size());
+        for (BlockState state : palette.values) out.writeUTF(state.getAsString());
+
+        for (int i = 0, o = 0; i < blocks.length; i++, o += 3) {
+            writeVarInt(out, zigZag(offsets[o]));
+            writeVarInt(out, zigZag(offsets[o + 1]));
+            writeVarInt(out, zigZag(offsets[o + 2]));
+            writeVarInt(out, ids[i]);
+            LinCompoundTag tag = blocks[i].getNbt();
+            out.writeBoolean(tag != null);
+            if (tag != null) writeNbt(out, tag);
+        }
+    }
+
+    /**
+     * Reads a delta snapshot.
+     *
+     * @param in     source
+     * @param anchor paste anchor from the header
+     * @return decoded snapshot
+     * @throws IOException if the payload is malformed
+     */
+    private static SparseSnapshot readSparse(DataInputStream in, BlockVector3 anchor) throws IOException {
+        int count = readVarInt(in);
+
+        BlockState[] palette = new BlockState[readVarInt(in)];
+        for (int i = 0; i < palette.length; i++) palette[i] = parseState(in.readUTF());
+
+        int[] offsets = new int[count * 3];
+        BaseBlock[] blocks = new BaseBlock[count];
+        for (int i = 0, o = 0; i < count; i++, o += 3) {
+            offsets[o] = unZigZag(readVarInt(in));
+            offsets[o + 1] = unZigZag(readVarInt(in));
+            offsets[o + 2] = unZigZag(readVarInt(in));
+            BlockState state = palette[checkId(readVarInt(in), palette.length)];
+            blocks[i] = in.readBoolean() ? state.toBaseBlock(readNbt(in)) : state.toBaseBlock();
+        }
+        return new SparseSnapshot(anchor, offsets, blocks);
+    }
+
+    /**
+     * Reads one palette index per cell.
+     *
+     * @param in    source
+     * @param cells cell count
+     * @param size  palette size for bounds checking
+     * @return indices
+     * @throws IOException if an index is out of range
+     */
+    private static int[] readIds(DataInputStream in, int cells, int size) throws IOException {
+        int[] ids = new int[cells];
+        for (int i = 0; i < cells; i++) ids[i] = checkId(readVarInt(in), size);
+        return ids;
+    }
+
+    /** @return {@code id} if it is a valid palette index, otherwise throws */
+    private static int checkId(int id, int size) throws IOException {
+        if (id < 0 || id >= size) throw new IOException("Palette index out of range: " + id);
+        return id;
+    }
+
+    /**
+     * Parses a block state string the same way WorldEdit's schematic readers do.
+     *
+     * @param raw state string such as {@code minecraft:oak_stairs[facing=north]}
+     * @return parsed state
+     * @throws IOException if the state is unknown
+     */
+    static BlockState parseState(String raw) throws IOException {
+        ParserContext pc = new ParserContext();
+        pc.setRestricted(false);
+        pc.setTryLegacy(false);
+        pc.setPreferringWildcard(false);
+        try {
+            return WorldEdit.getInstance().getBlockFactory().parseFromInput(raw, pc).toImmutableState();
+        } catch (Exception e) {
+            throw new IOException("Unknown block state: " + raw, e);
+        }
+    }
+
+    /** Writes an unnamed NBT compound. */
+    private static void writeNbt(DataOutputStream out, LinCompoundTag tag) throws IOException {
+        LinBinaryIO.write(out, new LinRootEntry("", tag));
+    }
+
+    /** Reads an unnamed NBT compound. */
+    private static LinCompoundTag readNbt(DataInputStream in) throws IOException {
+        return LinBinaryIO.readUsing(in, LinRootEntry::readFrom).value();
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint.
+     *
+     * @param out   destination
+     * @param value value to write
+     * @throws IOException on write failure
+     */
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint.
+     *
+     * @param in source
+     * @return decoded value
+     * @throws IOException if the varint is malformed
+     */
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("VarInt too long");
+    }
+
+    /** @return zig-zag encoding of a signed int */
+    static int zigZag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    /** @return signed int from its zig-zag encoding */
+    static int unZigZag(int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /** Insertion-ordered value-to-index palette. */
+    private static final class Palette<T> {
+        /** Index by value. */
+        final Map<T, Integer> index = new HashMap<>();
+        /** Values in index order. */
+        final List<T> values = new ArrayList<>();
+
+        /** @return index of {@code value}, adding it if new */
+        int id(T value) {
+            Integer id = index.get(value);
+            if (id == null) {
+                id = values.size();
+                index.put(value, id);
+                values.add(value);
+            }
+            return id;
+        }
+
+        /** @return number of distinct values */
+        int size() {
+            return values.size();
+        }
+    }
+}
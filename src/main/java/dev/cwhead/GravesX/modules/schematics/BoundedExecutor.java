@@ -0,0 +1,90 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Worker pool with a hard-capped queue that never runs work on the submitting thread.
+ * <p>{@link #execute} rejects a job once the queue is full and the caller decides what happens to it.
+ * Work a grave's lane is blocked on goes through {@link #supplyWhenFree}, which retries once a tick until a
+ * worker has room: such a job is already held by its lane, at most one per grave, so waiting adds nothing to
+ * the heap. Fire-and-forget work, which nothing else bounds, is refused instead.</p>
+ */
+final class BoundedExecutor extends ThreadPoolExecutor {
+
+    /** Delay between attempts of {@link #supplyWhenFree} while the queue is full: one tick. */
+    private static final long RETRY_MILLIS = 50L;
+
+    /**
+     * Creates the pool; idle workers time out after 30 seconds.
+     *
+     * @param threads       worker thread count
+     * @param queueCapacity jobs the queue holds before further ones are rejected
+     * @param factory       thread factory
+     */
+    BoundedExecutor(int threads, int queueCapacity, ThreadFactory factory) {
+        super(threads, threads, 30L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), factory, new AbortPolicy());
+        allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs a job on a worker, waiting off-thread for room in the queue if it is full.
+     *
+     * @param task job
+     * @param <T>  result type
+     * @return future holding the job's result; fails if the job throws or the pool shuts down first
+     */
+    <T> CompletableFuture<T> supplyWhenFree(Supplier<T> task) {
+        CompletableFuture<T> out = new CompletableFuture<>();
+        offer(task, out);
+        return out;
+    }
+
+    /**
+     * Runs a job on a worker, waiting off-thread for room in the queue if it is full.
+     *
+     * @param task job
+     * @return future completing once the job ran
+     */
+    CompletableFuture<Void> runWhenFree(Runnable task) {
+        return supplyWhenFree(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /** @return jobs waiting in the queue */
+    int backlog() {
+        return getQueue().size();
+    }
+
+    /**
+     * Queues a job, or schedules another attempt if the queue is full.
+     *
+     * @param task job
+     * @param out  future to complete with its result
+     * @param <T>  result type
+     */
+    private <T> void offer(Supplier<T> task, CompletableFuture<T> out) {
+        try {
+            execute(() -> {
+                try {
+                    out.complete(task.get());
+                } catch (Throwable t) {
+                    out.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (isShutdown()) {
+                out.completeExceptionally(e);
+                return;
+            }
+            CompletableFuture.delayedExecutor(RETRY_MILLIS, TimeUnit.MILLISECONDS).execute(() -> offer(task, out));
+        }
+    }
+}
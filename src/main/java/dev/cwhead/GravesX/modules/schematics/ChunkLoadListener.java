@@ -0,0 +1,34 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+
+/**
+ * Forwards chunk loads to the provider so deferred grave removals run once their chunks are loaded.
+ */
+final class ChunkLoadListener implements Listener {
+
+    /** Provider holding the deferred queue. */
+    private final WorldEditSnapshotProvider provider;
+
+    /**
+     * Creates the listener.
+     *
+     * @param provider provider to notify
+     */
+    ChunkLoadListener(WorldEditSnapshotProvider provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Handles a chunk load.
+     *
+     * @param event chunk load event
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        provider.onChunkLoad(event.getWorld(), event.getChunk().getX(), event.getChunk().getZ());
+    }
+}
@@ -0,0 +1,172 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Loads the chunks under a grave asynchronously before its block work runs.
+ * <p>{@link #load} puts a plugin chunk ticket on every chunk a region touches, so chunks stay loaded between
+ * the preload and the edit, and asks Paper to load the missing ones off the main thread. The returned future
+ * completes when all of them are loaded, or after the timeout, in which case the work goes ahead and
+ * WorldEdit loads whatever is still missing itself. Tickets are reference counted because neighbouring
+ * graves share chunks; {@link #release} drops them again once the grave's work is done.</p>
+ */
+final class ChunkPreloader {
+
+    /** Plugin owning the chunk tickets. */
+    private final Plugin plugin;
+    /** Logger for timeouts and load failures. */
+    private final Logger logger;
+    /** Milliseconds to wait for chunks before running the work anyway. */
+    private final long timeoutMillis;
+    /** Ticket holders per world UUID and packed chunk key; guarded by {@code this}. */
+    private final Map<UUID, Map<Long, Integer>> tickets = new HashMap<>();
+
+    /** Chunks that had to be loaded asynchronously. */
+    private final LongAdder asyncLoads = new LongAdder();
+    /** Chunks that were already loaded when asked for. */
+    private final LongAdder alreadyLoaded = new LongAdder();
+    /** Preloads that hit the timeout. */
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * Creates a preloader.
+     *
+     * @param plugin        plugin owning the chunk tickets
+     * @param logger        logger
+     * @param timeoutMillis milliseconds to wait before giving up on a preload
+     */
+    ChunkPreloader(Plugin plugin, Logger logger, long timeoutMillis) {
+        this.plugin = plugin;
+        this.logger = logger;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Tickets and loads every chunk overlapping a region. Call on the server thread.
+     *
+     * @param world  Bukkit world
+     * @param bounds region as min x/y/z, max x/y/z
+     * @return future completing once all chunks are loaded or the timeout passes; never completes exceptionally
+     */
+    CompletableFuture<Void> load(World world, int[] bounds) {
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        for (int cx = bounds[0] >> 4; cx <= bounds[3] >> 4; cx++) {
+            for (int cz = bounds[2] >> 4; cz <= bounds[5] >> 4; cz++) {
+                acquire(world, cx, cz);
+                if (world.isChunkLoaded(cx, cz)) {
+                    alreadyLoaded.increment();
+                } else {
+                    asyncLoads.increment();
+                    pending.add(world.getChunkAtAsync(cx, cz));
+                }
+            }
+        }
+        if (pending.isEmpty()) return CompletableFuture.completedFuture(null);
+
+        CompletableFuture<Void> all = CompletableFuture.allOf(pending.toArray(new CompletableFuture[0]));
+        CompletableFuture<Void> out = new CompletableFuture<>();
+        all.whenComplete((v, t) -> {
+            if (t != null) {
+                logger.warning("[Schematics] Async chunk load failed in " + world.getName() + ": " + t.getMessage());
+            }
+            out.complete(null);
+        });
+        CompletableFuture.delayedExecutor(timeoutMillis, TimeUnit.MILLISECONDS).execute(() -> {
+            if (out.complete(null)) {
+                timeouts.increment();
+                logger.warning("[Schematics] Chunks in " + world.getName() + " did not load within " + timeoutMillis
+                        + "ms; continuing with synchronous loads.");
+            }
+        });
+        return out;
+    }
+
+    /**
+     * Drops the tickets taken by {@link #load} for the same bounds. Call on the server thread.
+     *
+     * @param world  Bukkit world
+     * @param bounds region passed to {@link #load}
+     */
+    void release(World world, int[] bounds) {
+        for (int cx = bounds[0] >> 4; cx <= bounds[3] >> 4; cx++) {
+            for (int cz = bounds[2] >> 4; cz <= bounds[5] >> 4; cz++) {
+                if (releaseRef(world.getUID(), cx, cz)) world.removePluginChunkTicket(cx, cz, plugin);
+            }
+        }
+    }
+
+    /** Drops every ticket this preloader still holds, for shutdown. */
+    synchronized void releaseAll() {
+        for (Map.Entry<UUID, Map<Long, Integer>> w : tickets.entrySet()) {
+            World world = plugin.getServer().getWorld(w.getKey());
+            if (world == null) continue;
+            for (long key : w.getValue().keySet()) {
+                world.removePluginChunkTicket((int) (key >> 32), (int) key, plugin);
+            }
+        }
+        tickets.clear();
+    }
+
+    /** @return chunks that had to be loaded asynchronously */
+    long asyncLoads() {
+        return asyncLoads.sum();
+    }
+
+    /** @return chunks that were already loaded when asked for */
+    long alreadyLoaded() {
+        return alreadyLoaded.sum();
+    }
+
+    /** @return preloads that hit the timeout */
+    long timeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Takes a reference on a chunk, adding the plugin ticket for the first holder.
+     *
+     * @param world Bukkit world
+     * @param cx    chunk X
+     * @param cz    chunk Z
+     */
+    private synchronized void acquire(World world, int cx, int cz) {
+        Map<Long, Integer> refs = tickets.computeIfAbsent(world.getUID(), k -> new HashMap<>());
+        if (refs.merge(PlacedGraveIndex.chunkKey(cx, cz), 1, Integer::sum) == 1) {
+            world.addPluginChunkTicket(cx, cz, plugin);
+        }
+    }
+
+    /**
+     * Drops a reference on a chunk.
+     *
+     * @param world world UUID
+     * @param cx    chunk X
+     * @param cz    chunk Z
+     * @return true if that was the last holder and the ticket should be removed
+     */
+    private synchronized boolean releaseRef(UUID world, int cx, int cz) {
+        Map<Long, Integer> refs = tickets.get(world);
+        if (refs == null) return false;
+        long key = PlacedGraveIndex.chunkKey(cx, cz);
+        Integer n = refs.get(key);
+        if (n == null) return false;
+        if (n > 1) {
+            refs.put(key, n - 1);
+            return false;
+        }
+        refs.remove(key);
+        if (refs.isEmpty()) tickets.remove(world);
+        return true;
+    }
+}
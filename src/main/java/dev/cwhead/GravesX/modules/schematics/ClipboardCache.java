@@ -0,0 +1,214 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Bounded LRU cache of override schematics, keyed by file.
+ * <p>Everything is loaded in parallel up front by {@link #preload(Collection)}. Missing or unreadable files
+ * are cached as negative entries, so they are reported once and not probed again until the next reload.
+ * The cache is bounded by entry count and by total clipboard volume; an entry evicted under pressure is
+ * reloaded on the loader pool the next time it is asked for, and the caller falls back to the default
+ * schematic meanwhile. {@link #get(File)} never touches the disk.</p>
+ */
+final class ClipboardCache {
+
+    /** Logger for load failures. */
+    private final Logger logger;
+    /** Paste setting plans are compiled for. */
+    private final boolean ignoreAir;
+    /** Whether rotated plans are compiled too. */
+    private final boolean rotations;
+    /** Maximum number of entries, negative ones included. */
+    private final int maxEntries;
+    /** Maximum total clipboard volume in blocks. */
+    private final long maxBlocks;
+    /** Pool that reads schematics. */
+    private final Executor loader;
+
+    /** Entries in access order; guarded by {@code this}. */
+    private final LinkedHashMap<File, Slot> slots = new LinkedHashMap<>(16, 0.75F, true);
+    /** Total weight of {@link #slots}; guarded by {@code this}. */
+    private long weight;
+    /** Files with a background load in flight. */
+    private final Set<File> loading = ConcurrentHashMap.newKeySet();
+
+    /** Lookups answered with a loaded schematic. */
+    private final LongAdder hits = new LongAdder();
+    /** Lookups answered from a negative entry. */
+    private final LongAdder negativeHits = new LongAdder();
+    /** Lookups for files not in the cache. */
+    private final LongAdder misses = new LongAdder();
+    /** Entries evicted to stay within bounds. */
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param logger     logger
+     * @param ignoreAir  paste setting plans are compiled for
+     * @param rotations  also compile the rotated plans
+     * @param maxEntries maximum number of entries
+     * @param maxBlocks  maximum total clipboard volume
+     * @param loader     pool that reads schematics
+     */
+    ClipboardCache(Logger logger, boolean ignoreAir, boolean rotations, int maxEntries, long maxBlocks, Executor loader) {
+        this.logger = logger;
+        this.ignoreAir = ignoreAir;
+        this.rotations = rotations;
+        this.maxEntries = maxEntries;
+        this.maxBlocks = maxBlocks;
+        this.loader = loader;
+    }
+
+    /**
+     * Loads every file on the loader pool and waits for all of them.
+     *
+     * @param files schematic files
+     */
+    void preload(Collection<File> files) {
+        List<CompletableFuture<Void>> jobs = new ArrayList<>(files.size());
+        for (File f : files) {
+            jobs.add(CompletableFuture.runAsync(() -> put(f, loadSlot(f)), loader));
+        }
+        CompletableFuture.allOf(jobs.toArray(new CompletableFuture[0])).join();
+    }
+
+    /**
+     * Returns a cached schematic without blocking on disk.
+     *
+     * @param file schematic file
+     * @return loaded schematic, or {@code null} if the file is known bad or not loaded yet
+     */
+    LoadedSchematic get(File file) {
+        Slot slot;
+        synchronized (this) {
+            slot = slots.get(file);
+        }
+        if (slot != null) {
+            if (slot.schematic != null) {
+                hits.increment();
+                return slot.schematic;
+            }
+            negativeHits.increment();
+            return null;
+        }
+
+        misses.increment();
+        if (loading.add(file)) {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    put(file, loadSlot(file));
+                } finally {
+                    loading.remove(file);
+                }
+            }, loader);
+        }
+        return null;
+    }
+
+    /** @return lookups answered with a loaded schematic */
+    long hits() {
+        return hits.sum();
+    }
+
+    /** @return lookups answered from a negative entry */
+    long negativeHits() {
+        return negativeHits.sum();
+    }
+
+    /** @return lookups for files not in the cache */
+    long misses() {
+        return misses.sum();
+    }
+
+    /** @return entries evicted to stay within bounds */
+    long evictions() {
+        return evictions.sum();
+    }
+
+    /** @return number of cached entries, negative ones included */
+    synchronized int size() {
+        return slots.size();
+    }
+
+    /** @return number of cached entries holding a loaded schematic */
+    synchronized int loadedCount() {
+        int n = 0;
+        for (Slot slot : slots.values()) if (slot.schematic != null) n++;
+        return n;
+    }
+
+    /** @return total cached clipboard volume in blocks */
+    synchronized long weight() {
+        return weight;
+    }
+
+    /**
+     * Reads one file into a slot, turning failures into a negative entry.
+     *
+     * @param file schematic file
+     * @return positive or negative slot
+     */
+    private Slot loadSlot(File file) {
+        if (!file.exists()) {
+            logger.warning("[Schematics] Override schematic missing: " + file.getPath() + " (using default)");
+            return Slot.NEGATIVE;
+        }
+        try {
+            return new Slot(LoadedSchematic.load(file, ignoreAir, rotations));
+        } catch (Throwable t) {
+            logger.warning("[Schematics] Failed to load override schematic " + file.getPath() + ": " + t.getMessage());
+            return Slot.NEGATIVE;
+        }
+    }
+
+    /**
+     * Inserts a slot and evicts least recently used entries until the cache is within bounds again.
+     * The inserted entry itself is never evicted.
+     *
+     * @param file key
+     * @param slot value
+     */
+    private synchronized void put(File file, Slot slot) {
+        Slot old = slots.put(file, slot);
+        if (old != null) weight -= old.weight;
+        weight += slot.weight;
+
+        Iterator<Map.Entry<File, Slot>> it = slots.entrySet().iterator();
+        while ((slots.size() > maxEntries || weight > maxBlocks) && it.hasNext()) {
+            Map.Entry<File, Slot> eldest = it.next();
+            if (eldest.getKey().equals(file)) continue;
+            weight -= eldest.getValue().weight;
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    /** Cached schematic or a negative marker. */
+    private static final class Slot {
+        /** Shared negative entry. */
+        static final Slot NEGATIVE = new Slot(null);
+
+        /** Loaded schematic, or {@code null} for a negative entry. */
+        final LoadedSchematic schematic;
+        /** Weight counted against the block bound. */
+        final long weight;
+
+        Slot(LoadedSchematic schematic) {
+            this.schematic = schematic;
+            this.weight = schematic != null ? schematic.weight() : 0L;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.function.operation.ForwardExtentCopy;
+import com.sk89q.worldedit.function.operation.Operation;
+import com.sk89q.worldedit.function.operation.Operations;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.session.ClipboardHolder;
+
+/**
+ * Full cuboid snapshot (blocks, biomes, entities) backed by a WorldEdit clipboard. Produced by a capture
+ * or by decoding a Sponge <code>.schem</code> backup.
+ */
+final class ClipboardSnapshot implements GraveSnapshot {
+
+    /** Captured region, origin at the region minimum. */
+    private final Clipboard clipboard;
+
+    /**
+     * Wraps an existing clipboard whose origin marks the world position it was taken from.
+     *
+     * @param clipboard captured clipboard
+     */
+    ClipboardSnapshot(Clipboard clipboard) {
+        this.clipboard = clipboard;
+    }
+
+    /**
+     * Copies a region into a new snapshot, including biomes and entities.
+     *
+     * @param source edit session on the source world
+     * @param region region to copy
+     * @return snapshot with its origin at the region minimum
+     * @throws Exception if copying fails
+     */
+    static ClipboardSnapshot capture(EditSession source, CuboidRegion region) throws Exception {
+        Clipboard clipboard = new BlockArrayClipboard(region);
+        clipboard.setOrigin(region.getMinimumPoint());
+
+        ForwardExtentCopy copy = new ForwardExtentCopy(source, region, clipboard, region.getMinimumPoint());
+        copy.setCopyingEntities(true);
+        copy.setCopyingBiomes(true);
+        Operations.complete(copy);
+        return new ClipboardSnapshot(clipboard);
+    }
+
+    /** @return the wrapped clipboard */
+    Clipboard clipboard() {
+        return clipboard;
+    }
+
+    /** {@inheritDoc} */
+    @Override public int blockCount() {
+        return (int) Math.min(Integer.MAX_VALUE, clipboard.getRegion().getVolume());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void restore(EditSession session) throws Exception {
+        ClipboardHolder holder = new ClipboardHolder(clipboard);
+        Operation op = holder.createPaste(session)
+                .to(clipboard.getOrigin())
+                .ignoreAirBlocks(false) // exact restoration
+                .build();
+        Operations.complete(op);
+    }
+}
@@ -0,0 +1,603 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import com.sk89q.worldedit.math.BlockVector3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Content-addressed snapshot store: each distinct binary snapshot payload is stored once as a blob, and
+ * graves hold references to it.
+ * <p>{@link SnapshotIO} hashes a snapshot's position-free payload (see {@link BinarySnapshotCodec}) and asks
+ * {@link #link} whether that content is already stored; if it is, the grave only gets a reference and the
+ * snapshot is never compressed or written. Otherwise the blob is written to the {@code blobs} store under a
+ * UUID taken from the hash, with its origin zeroed. {@link #open} rewrites the blob header with the grave's
+ * own origin, so readers see an ordinary snapshot. A blob is deleted with its last reference.</p>
+ * <p>References live in memory and are persisted like the {@link OperationJournal}: link and unlink records
+ * are appended to <code>refs.log</code>, and when it reaches the checkpoint size every reference is written
+ * to <code>refs.ckpt</code> (temporary file, then atomic move) and the log truncated. Blobs no reference
+ * points to, left by a crash between the blob write and its link record, are deleted on open.</p>
+ * <p>Snapshots written with another codec, and backups from before deduplication was enabled, go to and
+ * are read from the {@code legacy} store.</p>
+ */
+final class DedupSnapshotStore implements SnapshotStore {
+
+    /** Record magic, "GXRR". */
+    private static final int RECORD_MAGIC = 0x47585252;
+    /** Checkpoint magic, "GXRC". */
+    private static final int CHECKPOINT_MAGIC = 0x47585243;
+    /** Checkpoint format version. */
+    private static final int VERSION = 1;
+    /** Record header: magic, type, grave UUID, payload length, payload CRC32. */
+    private static final int HEADER = 4 + 1 + 16 + 4 + 4;
+    /** Record type: grave references a blob. */
+    private static final byte LINK = 1;
+    /** Record type: grave reference dropped. */
+    private static final byte UNLINK = 2;
+
+    /** Logger for persistence failures. */
+    private final Logger logger;
+    /** Blob store, keyed by content UUID. */
+    private final SnapshotStore blobs;
+    /** Store for snapshots that are not deduplicated. */
+    private final SnapshotStore legacy;
+    /** Log file. */
+    private final File logFile;
+    /** Checkpoint file. */
+    private final File checkpointFile;
+    /** Log size that triggers a checkpoint. */
+    private final long checkpointBytes;
+    /** Whether every append is forced to disk. */
+    private final boolean fsync;
+    /** Open log channel; guarded by {@code this}. */
+    private final FileChannel channel;
+    /** Current log size; guarded by {@code this}. */
+    private long size;
+    /** Reference per grave; guarded by {@code this}. */
+    private final Map<UUID, Ref> refs = new HashMap<>();
+    /** Blob state per content UUID; guarded by {@code this}. */
+    private final Map<UUID, Blob> blobState = new HashMap<>();
+
+    /** Snapshots that reused a stored blob. */
+    private final AtomicLong hits = new AtomicLong();
+    /** Blobs written. */
+    private final AtomicLong written = new AtomicLong();
+    /** Encoded bytes not written thanks to reuse. */
+    private final AtomicLong saved = new AtomicLong();
+
+    /**
+     * Opens the store, reading the checkpoint and replaying the log, then deletes unreferenced blobs and
+     * writes a fresh checkpoint.
+     *
+     * @param logger          logger
+     * @param dir             directory holding <code>refs.log</code> and <code>refs.ckpt</code>
+     * @param blobs           blob store
+     * @param legacy          store for snapshots that are not deduplicated
+     * @param checkpointBytes log size that triggers a checkpoint
+     * @param fsync           force every append to disk
+     * @throws IOException if the log cannot be opened
+     */
+    DedupSnapshotStore(Logger logger, File dir, SnapshotStore blobs, SnapshotStore legacy, long checkpointBytes,
+                       boolean fsync) throws IOException {
+        this.logger = logger;
+        this.blobs = blobs;
+        this.legacy = legacy;
+        this.logFile = new File(dir, "refs.log");
+        this.checkpointFile = new File(dir, "refs.ckpt");
+        this.checkpointBytes = checkpointBytes;
+        this.fsync = fsync;
+
+        loadCheckpoint();
+        this.channel = FileChannel.open(logFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        replay();
+
+        int dropped = 0;
+        for (Stored st : blobs.list()) {
+            Blob b = blobState.get(st.id);
+            if (b == null) {
+                blobs.delete(st.id);
+                dropped++;
+            } else {
+                b.size = st.size;
+                b.stored = true;
+            }
+        }
+        if (dropped > 0) logger.info("[Schematics] Deleted " + dropped + " unreferenced snapshot blob(s).");
+        synchronized (this) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Derives the content UUID of a payload: the first 128 bits of its SHA-256.
+     *
+     * @param body position-free payload from {@link BinarySnapshotCodec#body(GraveSnapshot)}
+     * @return content UUID
+     */
+    static UUID key(byte[] body) {
+        try {
+            ByteBuffer hash = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(body));
+            return new UUID(hash.getLong(), hash.getLong());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override public String name() {
+        return "dedup+" + blobs.name();
+    }
+
+    /**
+     * Points a grave at an already stored blob, replacing whatever the grave had.
+     *
+     * @param id     grave UUID
+     * @param key    content UUID
+     * @param origin where the grave's snapshot was captured
+     * @param length encoded size the reuse saves, for the counters
+     * @return true if the blob exists and was linked; false if it has to be written with {@link #put(UUID, UUID, BlockVector3, byte[])}
+     */
+    boolean link(UUID id, UUID key, BlockVector3 origin, long length) {
+        synchronized (this) {
+            Blob b = blobState.get(key);
+            if (b == null || !b.stored) return false;
+            b.refs++;
+            bind(id, new Ref(key, origin, System.currentTimeMillis()));
+        }
+        legacy.delete(id);
+        hits.incrementAndGet();
+        saved.addAndGet(length);
+        return true;
+    }
+
+    /**
+     * Stores a new blob and points a grave at it. The blob is reserved before it is written, so a concurrent
+     * delete of the same content cannot remove it mid-write. Only one caller writes a given blob; others
+     * putting the same content meanwhile wait for that write and then link to the blob.
+     *
+     * @param id     grave UUID
+     * @param key    content UUID
+     * @param origin where the grave's snapshot was captured
+     * @param data   encoded snapshot with a zero origin
+     * @throws IOException if the blob write fails
+     */
+    void put(UUID id, UUID key, BlockVector3 origin, byte[] data) throws IOException {
+        Blob b;
+        synchronized (this) {
+            b = blobState.computeIfAbsent(key, k -> new Blob());
+            b.refs++;
+        }
+        try {
+            store(key, b, data);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                release(key, b);
+            }
+            throw e;
+        }
+        synchronized (this) {
+            bind(id, new Ref(key, origin, System.currentTimeMillis()));
+        }
+        legacy.delete(id);
+    }
+
+    /**
+     * Writes a reserved blob unless it is already stored. If another caller is writing it, waits for that
+     * write instead, and takes over only if it failed.
+     *
+     * @param key  content UUID
+     * @param b    blob state, reserved by the caller
+     * @param data encoded snapshot with a zero origin
+     * @throws IOException if this caller's write fails
+     */
+    private void store(UUID key, Blob b, byte[] data) throws IOException {
+        while (true) {
+            CompletableFuture<Void> mine = null;
+            CompletableFuture<Void> other;
+            synchronized (this) {
+                if (b.stored) return;
+                other = b.writing;
+                if (other == null) b.writing = mine = new CompletableFuture<>();
+            }
+            if (mine == null) {
+                try {
+                    other.join();
+                } catch (CompletionException e) {
+                    // the other write failed; the next pass writes the blob here
+                }
+                continue;
+            }
+            try {
+                blobs.put(key, "gsnap", data);
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    b.writing = null;
+                }
+                mine.completeExceptionally(e);
+                throw e;
+            }
+            synchronized (this) {
+                b.stored = true;
+                b.size = data.length;
+                b.writing = null;
+            }
+            written.incrementAndGet();
+            mine.complete(null);
+            return;
+        }
+    }
+
+    /** Stores a snapshot that is not deduplicated in the legacy store, dropping any reference of the grave. */
+    @Override
+    public void put(UUID id, String extension, byte[] data) throws IOException {
+        synchronized (this) {
+            unbind(id);
+        }
+        legacy.put(id, extension, data);
+    }
+
+    /** Opens the grave's blob with its origin rewritten, or its legacy snapshot. */
+    @Override
+    public InputStream open(UUID id) throws IOException {
+        Ref r;
+        synchronized (this) {
+            r = refs.get(id);
+        }
+        if (r == null) return legacy.open(id);
+        InputStream in = blobs.open(r.key);
+        if (in == null) return null;
+        byte[] header = in.readNBytes(BinarySnapshotCodec.HEADER);
+        try {
+            BinarySnapshotCodec.relocate(header, r.origin);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new SequenceInputStream(new ByteArrayInputStream(header), in);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean contains(UUID id) {
+        synchronized (this) {
+            if (refs.containsKey(id)) return true;
+        }
+        return legacy.contains(id);
+    }
+
+    /** Drops the grave's reference, deleting the blob with its last one, and any legacy snapshot. */
+    @Override
+    public boolean delete(UUID id) {
+        boolean deleted;
+        synchronized (this) {
+            deleted = unbind(id);
+        }
+        return legacy.delete(id) | deleted;
+    }
+
+    /** Lists every referencing grave, with its blob's size, and the legacy snapshots. */
+    @Override
+    public List<Stored> list() {
+        List<Stored> out = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<UUID, Ref> e : refs.entrySet()) {
+                Blob b = blobState.get(e.getValue().key);
+                out.add(new Stored(e.getKey(), b != null ? b.size : 0L, e.getValue().created));
+            }
+        }
+        out.addAll(legacy.list());
+        return out;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long retryDeletes() {
+        return blobs.retryDeletes() + legacy.retryDeletes();
+    }
+
+    /** Writes a final checkpoint, leaving an empty log, and closes both stores. */
+    @Override
+    public void close() {
+        synchronized (this) {
+            try {
+                checkpoint();
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "[Schematics] Could not close snapshot reference log cleanly", e);
+            }
+        }
+        blobs.close();
+        legacy.close();
+    }
+
+    /** @return number of graves referencing a blob */
+    synchronized int refCount() {
+        return refs.size();
+    }
+
+    /** @return number of stored blobs */
+    synchronized int blobCount() {
+        return blobState.size();
+    }
+
+    /** @return snapshots that reused a stored blob */
+    long hits() {
+        return hits.get();
+    }
+
+    /** @return blobs written */
+    long written() {
+        return written.get();
+    }
+
+    /** @return encoded bytes not written thanks to reuse */
+    long saved() {
+        return saved.get();
+    }
+
+    /**
+     * Points a grave at a blob whose count already includes it, releasing any previous reference, and
+     * logs the link. Caller holds the lock.
+     *
+     * @param id  grave UUID
+     * @param ref new reference
+     */
+    private void bind(UUID id, Ref ref) {
+        Ref old = refs.put(id, ref);
+        if (old != null) release(old.key, blobState.get(old.key));
+        append(LINK, id, ref.encode());
+    }
+
+    /**
+     * Drops a grave's reference and logs the unlink. Caller holds the lock.
+     *
+     * @param id grave UUID
+     * @return true if the grave had a reference
+     */
+    private boolean unbind(UUID id) {
+        Ref old = refs.remove(id);
+        if (old == null) return false;
+        release(old.key, blobState.get(old.key));
+        append(UNLINK, id, new byte[0]);
+        return true;
+    }
+
+    /**
+     * Decrements a blob's count, deleting the blob when it reaches zero. Caller holds the lock.
+     *
+     * @param key content UUID
+     * @param b   blob state, may be {@code null}
+     */
+    private void release(UUID key, Blob b) {
+        if (b == null || --b.refs > 0) return;
+        blobState.remove(key);
+        if (b.stored) blobs.delete(key);
+    }
+
+    /**
+     * Appends a record, checkpointing when the log is over its limit. Failures are logged; the reference
+     * stays in memory and is written with the next checkpoint. Caller holds the lock.
+     *
+     * @param type record type
+     * @param id   grave UUID
+     * @param data payload
+     */
+    private void append(byte type, UUID id, byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + data.length);
+        buf.putInt(RECORD_MAGIC)
+                .put(type)
+                .putLong(id.getMostSignificantBits())
+                .putLong(id.getLeastSignificantBits())
+                .putInt(data.length)
+                .putInt((int) crc.getValue())
+                .put(data)
+                .flip();
+        try {
+            while (buf.hasRemaining()) channel.write(buf, size + buf.position());
+            if (fsync) channel.force(false);
+            size += buf.limit();
+            if (size >= checkpointBytes) checkpoint();
+        } catch (IOException e) {
+            logger.warning("[Schematics] Could not append to snapshot reference log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes every reference to the checkpoint file and truncates the log. Caller holds the lock.
+     *
+     * @throws IOException if the checkpoint cannot be written
+     */
+    private void checkpoint() throws IOException {
+        File tmp = new File(checkpointFile.getParentFile(), checkpointFile.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(refs.size());
+            for (Map.Entry<UUID, Ref> e : refs.entrySet()) {
+                out.writeLong(e.getKey().getMostSignificantBits());
+                out.writeLong(e.getKey().getLeastSignificantBits());
+                out.write(e.getValue().encode());
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        Files.move(tmp.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel.truncate(0L);
+        if (fsync) channel.force(true);
+        size = 0L;
+    }
+
+    /** Reads <code>refs.ckpt</code>, if any, into the reference map. */
+    private void loadCheckpoint() {
+        if (!checkpointFile.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)))) {
+            if (in.readInt() != CHECKPOINT_MAGIC || in.readUnsignedByte() != VERSION) {
+                logger.warning("[Schematics] Ignoring unrecognized snapshot reference checkpoint: " + checkpointFile.getPath());
+                return;
+            }
+            int count = in.readInt();
+            for (int n = 0; n < count; n++) {
+                UUID id = new UUID(in.readLong(), in.readLong());
+                replace(id, Ref.read(in));
+            }
+        } catch (IOException e) {
+            logger.warning("[Schematics] Snapshot reference checkpoint is damaged; keeping " + refs.size()
+                    + " references: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applies every intact record of the log on top of the checkpoint and cuts off a torn tail.
+     *
+     * @throws IOException if the log cannot be read
+     */
+    private void replay() throws IOException {
+        long len = channel.size();
+        long pos = 0L;
+        ByteBuffer head = ByteBuffer.allocate(HEADER);
+        while (pos + HEADER <= len) {
+            head.clear();
+            if (!readFully(head, pos)) break;
+            head.flip();
+            if (head.getInt() != RECORD_MAGIC) break;
+            byte type = head.get();
+            UUID id = new UUID(head.getLong(), head.getLong());
+            int length = head.getInt();
+            int crc = head.getInt();
+            if (length < 0 || pos + HEADER + length > len) break;
+
+            ByteBuffer data = ByteBuffer.allocate(length);
+            if (!readFully(data, pos + HEADER)) break;
+            CRC32 check = new CRC32();
+            check.update(data.array());
+            if ((int) check.getValue() != crc) break;
+
+            if (type == LINK) {
+                replace(id, Ref.read(new DataInputStream(new ByteArrayInputStream(data.array()))));
+            } else if (type == UNLINK) {
+                replace(id, null);
+            }
+            pos += HEADER + length;
+        }
+        if (pos < len) {
+            logger.warning("[Schematics] Snapshot reference log has a torn tail; dropped " + (len - pos) + " bytes.");
+            channel.truncate(pos);
+        }
+        size = pos;
+    }
+
+    /**
+     * Sets a grave's reference while loading, keeping blob counts in step. Blobs are not deleted here;
+     * unreferenced ones are removed once loading is done.
+     *
+     * @param id  grave UUID
+     * @param ref new reference, or {@code null} to drop it
+     */
+    private void replace(UUID id, Ref ref) {
+        Ref old = ref != null ? refs.put(id, ref) : refs.remove(id);
+        if (old != null) {
+            Blob b = blobState.get(old.key);
+            if (b != null && --b.refs <= 0) blobState.remove(old.key);
+        }
+        if (ref != null) blobState.computeIfAbsent(ref.key, k -> new Blob()).refs++;
+    }
+
+    /**
+     * Fills a buffer from the log.
+     *
+     * @param buf buffer to fill
+     * @param at  log offset
+     * @return false if the log ended first
+     * @throws IOException if the read fails
+     */
+    private boolean readFully(ByteBuffer buf, long at) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, at + buf.position()) < 0) return false;
+        }
+        return true;
+    }
+
+    /** Reference count and write state of one blob. */
+    private static final class Blob {
+        /** Graves pointing at the blob, plus writes in progress. */
+        int refs;
+        /** Set once the blob is in the blob store. */
+        boolean stored;
+        /** Write in progress, or {@code null}; completes once the blob is stored or the write failed. */
+        CompletableFuture<Void> writing;
+        /** Encoded size in bytes. */
+        long size;
+    }
+
+    /** A grave's pointer into the blob store. */
+    private static final class Ref {
+        /** Content UUID. */
+        final UUID key;
+        /** Where the grave's snapshot was captured. */
+        final BlockVector3 origin;
+        /** Link time in epoch milliseconds, reported to the orphan sweeper. */
+        final long created;
+
+        Ref(UUID key, BlockVector3 origin, long created) {
+            this.key = key;
+            this.origin = origin;
+            this.created = created;
+        }
+
+        /** @return content UUID, origin and link time */
+        byte[] encode() {
+            return ByteBuffer.allocate(16 + 12 + 8)
+                    .putLong(key.getMostSignificantBits())
+                    .putLong(key.getLeastSignificantBits())
+                    .putInt(origin.x())
+                    .putInt(origin.y())
+                    .putInt(origin.z())
+                    .putLong(created)
+                    .array();
+        }
+
+        /**
+         * Reads a reference written by {@link #encode}.
+         *
+         * @param in stream
+         * @return reference
+         * @throws IOException if the stream ends early
+         */
+        static Ref read(DataInputStream in) throws IOException {
+            UUID key = new UUID(in.readLong(), in.readLong());
+            BlockVector3 origin = BlockVector3.at(in.readInt(), in.readInt(), in.readInt());
+            return new Ref(key, origin, in.readLong());
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Grave removals waiting for their chunks to load.
+ * <p>Each entry is registered under every chunk it needs. When one of those chunks loads,
+ * {@link #onChunkLoad} hands back the entries whose chunks are now all loaded. Entries that wait longer than
+ * the provider's limit are taken out oldest first by {@link #pollExpired}. The queue is persisted to
+ * <code>deferred.dat</code> the same way as {@link PlacedGraveIndex}.</p>
+ */
+final class DeferredRestoreQueue {
+
+    /** File magic, "GXDR". */
+    private static final int MAGIC = 0x47584452;
+    /** File format version; 2 added the paste rotation. */
+    private static final int VERSION = 2;
+
+    /** Answers whether a chunk is loaded, without loading it. */
+    interface ChunkCheck {
+        /**
+         * @param world world UUID
+         * @param cx    chunk X
+         * @param cz    chunk Z
+         * @return true if the chunk is loaded
+         */
+        boolean isLoaded(UUID world, int cx, int cz);
+    }
+
+    /** Logger for persistence failures. */
+    private final Logger logger;
+    /** Queue file. */
+    private final File file;
+    /** Entries by grave UUID, oldest first; guarded by {@code this}. */
+    private final LinkedHashMap<UUID, Entry> byId = new LinkedHashMap<>();
+    /** Grave UUIDs by world UUID and packed chunk key; guarded by {@code this}. */
+    private final Map<UUID, Map<Long, Set<UUID>>> byChunk = new HashMap<>();
+    /** Set when memory differs from the file; guarded by {@code this}. */
+    private boolean dirty;
+    /** Background flusher. */
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * Loads the queue file if present and starts the periodic flush.
+     *
+     * @param logger       logger
+     * @param file         queue file
+     * @param flushSeconds seconds between flushes of a changed queue
+     */
+    DeferredRestoreQueue(Logger logger, File file, long flushSeconds) {
+        this.logger = logger;
+        this.file = file;
+        load();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new SnapshotIO.NamedThreadFactory("GravesX-Schematics-Deferred"));
+        this.flusher.scheduleWithFixedDelay(this::flushQuietly, flushSeconds, flushSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Queues a removal, replacing an earlier one for the same grave.
+     *
+     * @param e removal
+     */
+    synchronized void add(Entry e) {
+        Entry old = byId.remove(e.id);
+        if (old != null) unlink(old);
+        byId.put(e.id, e);
+        Map<Long, Set<UUID>> chunks = byChunk.computeIfAbsent(e.world, k -> new HashMap<>());
+        for (long key : e.chunks()) chunks.computeIfAbsent(key, k -> new HashSet<>()).add(e.id);
+        dirty = true;
+    }
+
+    /**
+     * Takes out the removals registered under a freshly loaded chunk whose chunks are now all loaded.
+     *
+     * @param world  world UUID
+     * @param cx     chunk X
+     * @param cz     chunk Z
+     * @param loaded chunk check
+     * @return ready removals, possibly empty
+     */
+    synchronized List<Entry> onChunkLoad(UUID world, int cx, int cz, ChunkCheck loaded) {
+        Map<Long, Set<UUID>> chunks = byChunk.get(world);
+        Set<UUID> ids = chunks != null ? chunks.get(PlacedGraveIndex.chunkKey(cx, cz)) : null;
+        if (ids == null) return List.of();
+
+        List<Entry> ready = new ArrayList<>();
+        for (UUID id : new ArrayList<>(ids)) {
+            Entry e = byId.get(id);
+            if (e != null && e.allLoaded(loaded)) ready.add(take(e));
+        }
+        return ready;
+    }
+
+    /**
+     * Takes out every removal whose chunks are all loaded already, e.g. spawn chunks after a restart.
+     *
+     * @param loaded chunk check
+     * @return ready removals, possibly empty
+     */
+    synchronized List<Entry> pollReady(ChunkCheck loaded) {
+        List<Entry> ready = new ArrayList<>();
+        for (Entry e : new ArrayList<>(byId.values())) {
+            if (e.allLoaded(loaded)) ready.add(take(e));
+        }
+        return ready;
+    }
+
+    /**
+     * Takes out up to {@code max} removals queued before {@code cutoff}, oldest first.
+     *
+     * @param cutoff epoch millis; older entries are expired
+     * @param max    maximum number to take
+     * @return expired removals, possibly empty
+     */
+    synchronized List<Entry> pollExpired(long cutoff, int max) {
+        List<Entry> out = new ArrayList<>();
+        Iterator<Entry> it = byId.values().iterator();
+        while (it.hasNext() && out.size() < max) {
+            Entry e = it.next();
+            if (e.queuedAt > cutoff) break;
+            it.remove();
+            unlink(e);
+            out.add(e);
+        }
+        if (!out.isEmpty()) dirty = true;
+        return out;
+    }
+
+    /**
+     * Drops a queued removal, e.g. because the grave was removed again through another path.
+     *
+     * @param id grave UUID
+     * @return true if an entry was dropped
+     */
+    synchronized boolean cancel(UUID id) {
+        Entry e = byId.remove(id);
+        if (e == null) return false;
+        unlink(e);
+        dirty = true;
+        return true;
+    }
+
+    /** @return number of queued removals */
+    synchronized int size() {
+        return byId.size();
+    }
+
+    /** @return UUIDs of graves with a queued removal */
+    synchronized Set<UUID> ids() {
+        return new HashSet<>(byId.keySet());
+    }
+
+    /** Stops the flusher and writes the queue one last time. */
+    void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10L, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+    }
+
+    /**
+     * Removes an entry from both maps. Caller holds the lock.
+     *
+     * @param e entry
+     * @return the entry
+     */
+    private Entry take(Entry e) {
+        byId.remove(e.id);
+        unlink(e);
+        dirty = true;
+        return e;
+    }
+
+    /**
+     * Removes an entry from its chunk buckets. Caller holds the lock.
+     *
+     * @param e entry
+     */
+    private void unlink(Entry e) {
+        Map<Long, Set<UUID>> chunks = byChunk.get(e.world);
+        if (chunks == null) return;
+        for (long key : e.chunks()) {
+            Set<UUID> ids = chunks.get(key);
+            if (ids == null) continue;
+            ids.remove(e.id);
+            if (ids.isEmpty()) chunks.remove(key);
+        }
+        if (chunks.isEmpty()) byChunk.remove(e.world);
+    }
+
+    /** Writes the queue if it changed, logging failures. */
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "[Schematics] Could not save deferred restore queue", e);
+        }
+    }
+
+    /**
+     * Copies the entries under the lock, then writes them to a temporary file and moves it into place.
+     *
+     * @throws IOException if the write fails
+     */
+    private void flush() throws IOException {
+        List<Entry> copy;
+        synchronized (this) {
+            if (!dirty) return;
+            copy = new ArrayList<>(byId.values());
+            dirty = false;
+        }
+
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(copy.size());
+            for (Entry e : copy) {
+                out.writeLong(e.id.getMostSignificantBits());
+                out.writeLong(e.id.getLeastSignificantBits());
+                out.writeLong(e.world.getMostSignificantBits());
+                out.writeLong(e.world.getLeastSignificantBits());
+                out.writeLong(e.queuedAt);
+                for (int v : e.paste) out.writeInt(v);
+                for (int v : e.anchor) out.writeInt(v);
+                out.writeBoolean(e.region != null);
+                if (e.region != null) for (int v : e.region) out.writeInt(v);
+                out.writeBoolean(e.bounds != null);
+                if (e.bounds != null) for (int v : e.bounds) out.writeInt(v);
+                out.writeByte(e.turns);
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                dirty = true;
+            }
+            tmp.delete();
+            throw e;
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Reads the queue file, if any, into memory. */
+    private void load() {
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version;
+            if (in.readInt() != MAGIC || (version = in.readUnsignedByte()) < 1 || version > VERSION) {
+                logger.warning("[Schematics] Ignoring unrecognized deferred restore queue: " + file.getPath());
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                UUID id = new UUID(in.readLong(), in.readLong());
+                UUID world = new UUID(in.readLong(), in.readLong());
+                long queuedAt = in.readLong();
+                int[] paste = readInts(in, 3);
+                int[] anchor = readInts(in, 3);
+                int[] region = in.readBoolean() ? readInts(in, 6) : null;
+                int[] bounds = in.readBoolean() ? readInts(in, 6) : null;
+                int turns = version >= 2 ? in.readUnsignedByte() : 0;
+                add(new Entry(id, world, paste, anchor, region, bounds, queuedAt, turns));
+            }
+            dirty = false;
+        } catch (IOException e) {
+            logger.warning("[Schematics] Deferred restore queue is damaged; keeping " + byId.size() + " entries: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a fixed number of ints.
+     *
+     * @param in stream
+     * @param n  count
+     * @return values
+     * @throws IOException if the stream ends early
+     */
+    private static int[] readInts(DataInputStream in, int n) throws IOException {
+        int[] v = new int[n];
+        for (int i = 0; i < n; i++) v[i] = in.readInt();
+        return v;
+    }
+
+    /** A removal waiting for its chunks. */
+    static final class Entry {
+        /** Grave UUID. */
+        final UUID id;
+        /** World UUID. */
+        final UUID world;
+        /** Paste anchor x/y/z. */
+        final int[] paste;
+        /** Anchor block x/y/z. */
+        final int[] anchor;
+        /**
+         * Pasted region as min x/y/z, max x/y/z, cleared when there is no snapshot; {@code null} if it is
+         * resolved from the schematic when the removal runs.
+         */
+        final int[] region;
+        /** Everything the removal may write (pasted region plus snapshot box), or {@code null} if unknown. */
+        final int[] bounds;
+        /** Epoch millis the removal was queued. */
+        final long queuedAt;
+        /** Clockwise quarter turns the grave was pasted with, used when {@link #region} is resolved. */
+        final int turns;
+
+        Entry(UUID id, UUID world, int[] paste, int[] anchor, int[] region, int[] bounds, long queuedAt, int turns) {
+            this.id = id;
+            this.world = world;
+            this.paste = paste;
+            this.anchor = anchor;
+            this.region = region;
+            this.bounds = bounds;
+            this.queuedAt = queuedAt;
+            this.turns = turns;
+        }
+
+        /**
+         * Lists the chunks the removal touches: the chunks of {@link #bounds}, or the paste anchor's chunk when
+         * the bounds are not known.
+         *
+         * @return packed chunk keys
+         */
+        long[] chunks() {
+            if (bounds == null) return new long[]{PlacedGraveIndex.chunkKey(paste[0] >> 4, paste[2] >> 4)};
+            int cx0 = bounds[0] >> 4, cz0 = bounds[2] >> 4, cx1 = bounds[3] >> 4, cz1 = bounds[5] >> 4;
+            long[] keys = new long[(cx1 - cx0 + 1) * (cz1 - cz0 + 1)];
+            int i = 0;
+            for (int cx = cx0; cx <= cx1; cx++) {
+                for (int cz = cz0; cz <= cz1; cz++) keys[i++] = PlacedGraveIndex.chunkKey(cx, cz);
+            }
+            return keys;
+        }
+
+        /**
+         * @param loaded chunk check
+         * @return true if every chunk the removal touches is loaded
+         */
+        boolean allLoaded(ChunkCheck loaded) {
+            for (long key : chunks()) {
+                if (!loaded.isLoaded(world, (int) (key >> 32), (int) key)) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.entity.BaseEntity;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.math.Vector3;
+import com.sk89q.worldedit.util.Location;
+import com.sk89q.worldedit.world.biome.BiomeType;
+import com.sk89q.worldedit.world.block.BlockState;
+import org.enginehub.linbus.tree.LinCompoundTag;
+
+/**
+ * Full cuboid snapshot decoded by {@link BinarySnapshotCodec}.
+ * <p>Blocks stay as palette indices; {@link #restore(EditSession)} streams them straight into the edit
+ * session instead of materializing a WorldEdit clipboard first.</p>
+ */
+final class DenseSnapshot implements GraveSnapshot {
+
+    /** World position of the cuboid minimum. */
+    private final BlockVector3 min;
+    /** Cuboid size. */
+    private final int sx, sy, sz;
+    /** Block-state palette. */
+    private final BlockState[] palette;
+    /** Palette index per cell in y/z/x order, or {@code null} when the palette has one entry. */
+    private final int[] ids;
+    /** Ascending cell indices that carry block-entity NBT. */
+    private final int[] nbtCells;
+    /** NBT per entry of {@link #nbtCells}. */
+    private final LinCompoundTag[] nbt;
+    /** Biome palette, empty if biomes were not stored. */
+    private final BiomeType[] biomePalette;
+    /** Biome palette index per cell, or {@code null} when the palette has at most one entry. */
+    private final int[] biomeIds;
+    /** Captured entities. */
+    private final EntityEntry[] entities;
+
+    DenseSnapshot(BlockVector3 min, int sx, int sy, int sz,
+                  BlockState[] palette, int[] ids, int[] nbtCells, LinCompoundTag[] nbt,
+                  BiomeType[] biomePalette, int[] biomeIds, EntityEntry[] entities) {
+        this.min = min;
+        this.sx = sx;
+        this.sy = sy;
+        this.sz = sz;
+        this.palette = palette;
+        this.ids = ids;
+        this.nbtCells = nbtCells;
+        this.nbt = nbt;
+        this.biomePalette = biomePalette;
+        this.biomeIds = biomeIds;
+        this.entities = entities;
+    }
+
+    /** {@inheritDoc} */
+    @Override public int blockCount() {
+        return sx * sy * sz;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void restore(EditSession session) throws Exception {
+        int cell = 0;
+        int nextNbt = 0;
+        for (int y = 0; y < sy; y++) {
+            for (int z = 0; z < sz; z++) {
+                for (int x = 0; x < sx; x++, cell++) {
+                    BlockVector3 pos = min.add(x, y, z);
+                    BlockState state = palette[ids == null ? 0 : ids[cell]];
+                    if (nextNbt < nbtCells.length && nbtCells[nextNbt] == cell) {
+                        session.setBlock(pos, state.toBaseBlock(nbt[nextNbt++]));
+                    } else {
+                        session.setBlock(pos, state);
+                    }
+                    if (biomePalette.length > 0) {
+                        session.setBiome(pos, biomePalette[biomeIds == null ? 0 : biomeIds[cell]]);
+                    }
+                }
+            }
+        }
+
+        Vector3 base = min.toVector3();
+        for (EntityEntry e : entities) {
+            session.createEntity(new Location(session, base.add(e.offset), e.yaw, e.pitch), e.entity);
+        }
+    }
+
+    /** Entity state plus its position relative to the cuboid minimum. */
+    static final class EntityEntry {
+        /** Entity state. */
+        final BaseEntity entity;
+        /** Offset from the cuboid minimum. */
+        final Vector3 offset;
+        /** Rotation. */
+        final float yaw, pitch;
+
+        EntityEntry(BaseEntity entity, Vector3 offset, float yaw, float pitch) {
+            this.entity = entity;
+            this.offset = offset;
+            this.yaw = yaw;
+            this.pitch = pitch;
+        }
+    }
+}
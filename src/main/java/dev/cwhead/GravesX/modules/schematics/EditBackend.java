@@ -0,0 +1,87 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import com.sk89q.worldedit.bukkit.BukkitAdapter;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.world.World;
+
+/**
+ * Block-level operations the provider performs against a world.
+ * <p>Implementations decide where the work may run: {@link WorldEditBackend} must be called on the
+ * server thread, while {@link FaweEditBackend} hands edits to FastAsyncWorldEdit's queue off-thread.</p>
+ */
+interface EditBackend {
+
+    /** @return short name used in logs */
+    String name();
+
+    /**
+     * Returns the executor block work should run on, or {@code null} if it must run on the server thread.
+     *
+     * @return async executor or {@code null}
+     */
+    BoundedExecutor asyncExecutor();
+
+    /**
+     * Returns the worldedit world edits against a Bukkit world go to.
+     *
+     * @param world Bukkit world
+     * @return worldedit world
+     */
+    default World adapt(org.bukkit.World world) {
+        return BukkitAdapter.adapt(world);
+    }
+
+    /**
+     * Copies a region into a full snapshot, including biomes and entities.
+     *
+     * @param world  worldedit world
+     * @param region region to copy
+     * @return snapshot anchored at the region minimum
+     * @throws Exception if copying fails
+     */
+    ClipboardSnapshot capture(World world, CuboidRegion region) throws Exception;
+
+    /**
+     * Captures only the blocks a paste at {@code anchor} will overwrite.
+     *
+     * @param world     worldedit world
+     * @param anchor    paste anchor
+     * @param footprint positions the paste writes
+     * @return delta snapshot
+     * @throws Exception if reading fails
+     */
+    SparseSnapshot captureSparse(World world, BlockVector3 anchor, PasteFootprint footprint) throws Exception;
+
+    /**
+     * Writes a snapshot back into the world.
+     *
+     * @param world    worldedit world
+     * @param snapshot snapshot to restore
+     * @throws Exception if the edit fails
+     */
+    void restore(World world, GraveSnapshot snapshot) throws Exception;
+
+    /**
+     * Pastes a compiled clipboard so that its origin lands on {@code to}.
+     *
+     * @param world worldedit world
+     * @param plan  compiled clipboard
+     * @param to    target position for the clipboard origin
+     * @throws Exception if pasting fails
+     */
+    void paste(World world, PastePlan plan, BlockVector3 to) throws Exception;
+
+    /**
+     * Sets every block in a region to air.
+     *
+     * @param world  worldedit world
+     * @param region region to clear
+     * @throws Exception if the edit fails
+     */
+    void clear(World world, CuboidRegion region) throws Exception;
+
+    /** Releases any threads owned by the backend. */
+    default void shutdown() {
+    }
+}
@@ -0,0 +1,68 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.WorldEdit;
+import com.sk89q.worldedit.util.SideEffectSet;
+import com.sk89q.worldedit.world.World;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FastAsyncWorldEdit backend.
+ * <p>FAWE's {@link EditSession} is safe to drive off the server thread: block changes are collected into
+ * its chunk queue and written in batches when the session is flushed on close. This backend therefore runs
+ * capture, paste, and clear on its own worker pool, leaving only Bukkit-level touches (the anchor block)
+ * for the server thread. It is compiled against the plain WorldEdit API, which FAWE implements.</p>
+ */
+final class FaweEditBackend extends WorldEditBackend {
+
+    /** Workers that drive FAWE edit sessions. */
+    private final BoundedExecutor executor;
+
+    /**
+     * Creates the backend.
+     *
+     * @param threads       worker thread count
+     * @param queueCapacity edits the worker queue holds; further edits wait on their grave's lane
+     * @param sideEffects   side effects applied by every edit session
+     */
+    FaweEditBackend(int threads, int queueCapacity, SideEffectSet sideEffects) {
+        super(sideEffects);
+        this.executor = new BoundedExecutor(threads, queueCapacity, new SnapshotIO.NamedThreadFactory("GravesX-Schematics-FAWE"));
+    }
+
+    /** {@inheritDoc} */
+    @Override public String name() {
+        return "FastAsyncWorldEdit";
+    }
+
+    /** {@inheritDoc} */
+    @Override public BoundedExecutor asyncExecutor() {
+        return executor;
+    }
+
+    /**
+     * Opens an unlimited FAWE edit session; FAWE batches its writes per chunk and flushes on close.
+     *
+     * @param world worldedit world
+     * @return new edit session; callers close it
+     */
+    @Override
+    EditSession newSession(World world) {
+        return withSideEffects(WorldEdit.getInstance().newEditSessionBuilder()
+                .world(world)
+                .maxBlocks(-1)
+                .build());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10L, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One file per grave, named <code>&lt;uuid&gt;.&lt;codec extension&gt;</code>, in the backups directory.
+ * <p>Files that cannot be deleted right away are remembered and retried by {@link #retryDeletes()}. Until
+ * then they count as deleted: lookups skip them, and a new write of the same grave takes the name back.</p>
+ */
+final class FileSnapshotStore implements SnapshotStore {
+
+    /** Backups directory. */
+    private final File dir;
+    /** Extensions to look for, in lookup order. */
+    private final String[] extensions;
+    /** Files whose deletion failed and is retried on the next sweep; its lock keeps a retry off a rewritten file. */
+    private final Set<File> failedDeletes = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates the store.
+     *
+     * @param dir        backups directory
+     * @param extensions extensions of every readable codec
+     */
+    FileSnapshotStore(File dir, String[] extensions) {
+        this.dir = dir;
+        this.extensions = extensions;
+        if (!dir.exists()) dir.mkdirs();
+    }
+
+    /** {@inheritDoc} */
+    @Override public String name() {
+        return "files";
+    }
+
+    /**
+     * Writes to a temporary file and atomically moves it into place, removing any copy stored under
+     * another extension. The target no longer awaits deletion once it has been replaced.
+     */
+    @Override
+    public void put(UUID id, String extension, byte[] data) throws IOException {
+        File target = new File(dir, id + "." + extension);
+        File tmp = new File(dir, target.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(data);
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        synchronized (failedDeletes) {
+            failedDeletes.remove(target);
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        for (String ext : extensions) {
+            if (ext.equals(extension)) continue;
+            File other = new File(dir, id + "." + ext);
+            if (other.exists() && !other.delete()) failedDeletes.add(other);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public InputStream open(UUID id) throws IOException {
+        File f = find(id);
+        return f != null ? new BufferedInputStream(new FileInputStream(f)) : null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean contains(UUID id) {
+        return find(id) != null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean delete(UUID id) {
+        File f = find(id);
+        if (f == null) return false;
+        if (!f.delete()) failedDeletes.add(f);
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<Stored> list() {
+        List<Stored> out = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files == null) return out;
+        for (File f : files) {
+            String name = f.getName();
+            int dot = name.indexOf('.');
+            if (dot < 0 || !isExtension(name.substring(dot + 1)) || failedDeletes.contains(f)) continue;
+            try {
+                out.add(new Stored(UUID.fromString(name.substring(0, dot)), f.length(), f.lastModified()));
+            } catch (IllegalArgumentException ignored) {
+                // not a grave backup
+            }
+        }
+        return out;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long retryDeletes() {
+        long freed = 0L;
+        for (Iterator<File> it = failedDeletes.iterator(); it.hasNext(); ) {
+            File f = it.next();
+            synchronized (failedDeletes) {
+                if (!failedDeletes.contains(f)) continue;
+                long len = f.length();
+                if (!f.exists()) {
+                    it.remove();
+                } else if (f.delete()) {
+                    freed += len;
+                    it.remove();
+                }
+            }
+        }
+        return freed;
+    }
+
+    /**
+     * Checks whether an extension belongs to a readable codec.
+     *
+     * @param ext extension without the dot
+     * @return true if the store reads files with it
+     */
+    private boolean isExtension(String ext) {
+        for (String e : extensions) if (e.equals(ext)) return true;
+        return false;
+    }
+
+    /**
+     * Finds the stored file for a grave, whichever codec wrote it, skipping files awaiting deletion.
+     *
+     * @param id grave UUID
+     * @return existing file or {@code null}
+     */
+    private File find(UUID id) {
+        for (String ext : extensions) {
+            File f = new File(dir, id + "." + ext);
+            if (f.exists() && !failedDeletes.contains(f)) return f;
+        }
+        return null;
+    }
+}
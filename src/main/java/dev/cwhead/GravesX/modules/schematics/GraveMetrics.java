@@ -0,0 +1,214 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms and counters for each phase of a grave's life.
+ * <p>Recording is lock-free and costs two {@link System#nanoTime()} calls plus a few atomic adds, so it stays
+ * on in production. Durations go into log-linear buckets (four per power of two, so percentiles are within
+ * 25%); the maximum is tracked exactly.</p>
+ */
+final class GraveMetrics {
+
+    /** Timed phases. */
+    enum Phase {
+        /** Biome sample for schematic selection. */
+        BIOME_RESOLVE,
+        /** Block capture before a paste. */
+        SNAPSHOT_CAPTURE,
+        /** Snapshot encode on the IO pool. */
+        ENCODE,
+        /** Store write of an encoded snapshot. */
+        WRITE,
+        /** Schematic paste. */
+        PASTE,
+        /** Snapshot read and decode on the IO pool. */
+        SNAPSHOT_LOAD,
+        /** Snapshot paste back into the world. */
+        RESTORE,
+        /** Clear of a grave without a snapshot. */
+        CLEAR,
+        /** Anchor block set or removal. */
+        ANCHOR_SET,
+        /** Batched relight of edited regions. */
+        RELIGHT
+    }
+
+    /** Histograms by phase. */
+    private final Map<Phase, Histogram> phases = new EnumMap<>(Phase.class);
+    /** Encoded snapshot bytes handed to the store. */
+    private final LongAdder bytesWritten = new LongAdder();
+    /** {@link System#nanoTime()} of the last reset. */
+    private volatile long since = System.nanoTime();
+
+    /** Creates empty metrics. */
+    GraveMetrics() {
+        for (Phase p : Phase.values()) phases.put(p, new Histogram());
+    }
+
+    /** @return current {@link System#nanoTime()}, to pass to {@link #record} */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records one run of a phase that began at {@code startNanos}.
+     *
+     * @param phase      phase
+     * @param startNanos value of {@link #start()} taken before the phase
+     */
+    void record(Phase phase, long startNanos) {
+        phases.get(phase).add(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Counts encoded snapshot bytes.
+     *
+     * @param bytes bytes handed to the store
+     */
+    void addBytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    /** @return encoded snapshot bytes written since the last reset */
+    long bytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * Number of recorded runs of a phase.
+     *
+     * @param phase phase
+     * @return count since the last reset
+     */
+    long count(Phase phase) {
+        return phases.get(phase).count.sum();
+    }
+
+    /** Clears all histograms and counters. */
+    void reset() {
+        for (Histogram h : phases.values()) h.reset();
+        bytesWritten.reset();
+        since = System.nanoTime();
+    }
+
+    /**
+     * Formats one line per phase that has run, as count, p50, p99 and max in milliseconds.
+     *
+     * @return report lines
+     */
+    List<String> report() {
+        List<String> out = new ArrayList<>();
+        long secs = Math.max(1L, (System.nanoTime() - since) / 1_000_000_000L);
+        out.add("Window " + secs + "s, snapshot bytes written " + bytesWritten.sum());
+        for (Map.Entry<Phase, Histogram> e : phases.entrySet()) {
+            Histogram h = e.getValue();
+            long n = h.count.sum();
+            if (n == 0) continue;
+            out.add(String.format(Locale.ROOT, "%s: n=%d p50=%.2fms p99=%.2fms max=%.2fms",
+                    e.getKey().name().toLowerCase(Locale.ROOT), n,
+                    h.percentile(0.50D) / 1e6D, h.percentile(0.99D) / 1e6D, h.max.get() / 1e6D));
+        }
+        return out;
+    }
+
+    /**
+     * Short one-line summary of counts and p99s, for the periodic log.
+     *
+     * @return summary line
+     */
+    String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Phase, Histogram> e : phases.entrySet()) {
+            long n = e.getValue().count.sum();
+            if (n == 0) continue;
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(e.getKey().name().toLowerCase(Locale.ROOT)).append(' ').append(n)
+                    .append(String.format(Locale.ROOT, "@%.2fms", e.getValue().percentile(0.99D) / 1e6D));
+        }
+        return sb.length() == 0 ? "idle" : sb.toString();
+    }
+
+    /** Log-linear latency histogram in nanoseconds. */
+    private static final class Histogram {
+        /** Sub-buckets per power of two. */
+        private static final int SUB = 4;
+        /** Bucket counts. */
+        final AtomicLongArray buckets = new AtomicLongArray(64 * SUB);
+        /** Recorded values. */
+        final LongAdder count = new LongAdder();
+        /** Largest recorded value. */
+        final AtomicLong max = new AtomicLong();
+
+        /**
+         * Records a duration.
+         *
+         * @param nanos duration
+         */
+        void add(long nanos) {
+            long v = Math.max(0L, nanos);
+            buckets.incrementAndGet(index(v));
+            count.increment();
+            max.accumulateAndGet(v, Math::max);
+        }
+
+        /** Clears the histogram. */
+        void reset() {
+            for (int i = 0; i < buckets.length(); i++) buckets.set(i, 0L);
+            count.reset();
+            max.set(0L);
+        }
+
+        /**
+         * Estimates a percentile as the upper bound of the bucket it falls in.
+         *
+         * @param q quantile in 0..1
+         * @return estimated value in nanoseconds
+         */
+        long percentile(double q) {
+            long total = 0L;
+            for (int i = 0; i < buckets.length(); i++) total += buckets.get(i);
+            if (total == 0L) return 0L;
+            long target = Math.max(1L, (long) Math.ceil(q * total));
+            long seen = 0L;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= target) return Math.min(upper(i), max.get());
+            }
+            return max.get();
+        }
+
+        /**
+         * Maps a value to its bucket.
+         *
+         * @param v non-negative value
+         * @return bucket index
+         */
+        private static int index(long v) {
+            if (v < SUB) return (int) v;
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (exp - 2)) & (SUB - 1);
+            return exp * SUB + sub;
+        }
+
+        /**
+         * Largest value that maps to a bucket.
+         *
+         * @param i bucket index
+         * @return upper bound
+         */
+        private static long upper(int i) {
+            if (i < SUB) return i;
+            int exp = i / SUB;
+            int sub = i % SUB;
+            return ((long) (SUB + sub + 1) << (exp - 2)) - 1L;
+        }
+    }
+}
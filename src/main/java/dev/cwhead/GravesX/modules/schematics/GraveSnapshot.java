@@ -0,0 +1,22 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import com.sk89q.worldedit.EditSession;
+
+/**
+ * Captured pre-paste terrain for one grave.
+ * <p>A snapshot knows where it was taken, so restoring it needs nothing but an edit session on the
+ * same world. Encoding is handled by a {@link SnapshotCodec}.</p>
+ */
+interface GraveSnapshot {
+
+    /** @return number of blocks the snapshot holds */
+    int blockCount();
+
+    /**
+     * Writes the captured blocks back into the world.
+     *
+     * @param session edit session on the world the snapshot was taken from
+     * @throws Exception if the edit fails
+     */
+    void restore(EditSession session) throws Exception;
+}
@@ -0,0 +1,446 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tick-budgeted queue for grave block work.
+ * <p>Jobs are drained once per tick on the server thread until the configured time budget is used up;
+ * whatever is left carries over to the next tick. Jobs that share a lane (normally the grave UUID)
+ * run strictly in submission order, so a grave's snapshot always precedes its paste and its restore.
+ * Across lanes, higher-priority work runs first.</p>
+ * <p>On Folia there is no single server thread. A lane is given a home chunk ({@link #home}), and its
+ * ready jobs queue per home and drain on the region thread that owns that chunk, so graves in different
+ * regions run in parallel. The time budget then applies per thread: a region thread spends at most the
+ * budget on grave jobs in any tick-length window, and a home with work left over drains again next tick.
+ * Lanes without a home run on the global region. A grave spans a few neighbouring chunks, which Folia
+ * always keeps in the same region as its home.</p>
+ */
+final class GraveTaskScheduler implements Runnable {
+
+    /** Job priority, most urgent first. */
+    enum Priority {
+        /** Snapshot restore a player is waiting on. */
+        RESTORE,
+        /** Grave schematic paste. */
+        PASTE,
+        /** Pre-paste region capture. */
+        SNAPSHOT,
+        /** Background clear of a grave without a snapshot. */
+        CLEAR
+    }
+
+    /** Orders ready jobs by priority, then by submission order. */
+    private static final Comparator<Job> ORDER = Comparator
+            .comparingInt((Job j) -> j.priority.ordinal())
+            .thenComparingLong(j -> j.seq);
+
+    /** Length of a budget window: one tick. */
+    private static final long TICK_NANOS = 50_000_000L;
+    /** Start of the current budget window of each region thread, in nanoseconds. */
+    private static final ThreadLocal<long[]> WINDOW = ThreadLocal.withInitial(() -> new long[]{System.nanoTime() - TICK_NANOS});
+
+    /** Logger for job failures. */
+    private final Logger logger;
+    /** Owning plugin for the repeating task. */
+    private final Plugin plugin;
+    /** Per-tick time budget in nanoseconds. */
+    private final long budgetNanos;
+
+    /** Lane heads ready to run. Guarded by {@code this}. */
+    private final PriorityQueue<Job> ready = new PriorityQueue<>(ORDER);
+    /** Jobs waiting behind a running or ready lane head. Guarded by {@code this}. */
+    private final Map<Object, ArrayDeque<Job>> lanes = new HashMap<>();
+    /** Dispatch to Folia regions instead of one drain per tick. */
+    private final boolean regional;
+    /** Home chunk per lane; only filled on Folia. Guarded by {@code this}. */
+    private final Map<Object, Home> homes = new HashMap<>();
+    /** Lanes whose home is dropped once they drain. Guarded by {@code this}. */
+    private final Set<Object> retired = new HashSet<>();
+    /** Ready lane heads per home on Folia; a home has an entry while its drain is scheduled. Guarded by {@code this}. */
+    private final Map<Home, PriorityQueue<Job>> homeReady = new HashMap<>();
+    /** Set once {@link #stop()} has started; later jobs run in its drain. Guarded by {@code this}. */
+    private boolean stopped;
+    /** Submission counter. Guarded by {@code this}. */
+    private long seq;
+    /** Jobs queued across all lanes. Guarded by {@code this}. */
+    private int depth;
+    /** Async jobs started whose work has not completed. Guarded by {@code this}. */
+    private int inFlight;
+
+    /** Ticks that ended with work left over. */
+    private final LongAdder carryOverTicks = new LongAdder();
+    /** Sum of jobs left over at the end of each tick. */
+    private final LongAdder carriedJobs = new LongAdder();
+    /** Jobs executed since start. */
+    private final LongAdder executed = new LongAdder();
+
+    /** Repeating drain task, or {@code null} when stopped. */
+    private BukkitTask task;
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param plugin        plugin that owns the repeating drain task
+     * @param logger        logger for job failures
+     * @param budgetMillis  per-tick time budget in milliseconds
+     */
+    GraveTaskScheduler(Plugin plugin, Logger logger, double budgetMillis) {
+        this.plugin = plugin;
+        this.logger = logger;
+        this.budgetNanos = Math.max(1L, (long) (budgetMillis * 1_000_000L));
+        this.regional = ServerTasks.FOLIA;
+    }
+
+    /** Starts draining once per tick. On Folia, drains are scheduled per home as work arrives instead. */
+    void start() {
+        if (task == null && !regional) task = Bukkit.getScheduler().runTaskTimer(plugin, this, 1L, 1L);
+    }
+
+    /**
+     * Stops the drain task and runs whatever is still queued on the calling thread, so no restore is lost
+     * on disable. On Folia this includes jobs homed on region threads, which are no longer ticking.
+     * <p>Async jobs still hold their lane until their work completes, so this waits for them and then runs
+     * the jobs queued behind them, including jobs their work submits. Work that needs the server thread
+     * to complete cannot finish here; once the timeout passes, jobs still waiting behind async work are
+     * dropped with a warning.</p>
+     *
+     * @param timeoutMillis longest time to wait for async work in total
+     */
+    void stop(long timeoutMillis) {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        synchronized (this) {
+            stopped = true;
+            for (PriorityQueue<Job> q : homeReady.values()) ready.addAll(q);
+            homeReady.clear();
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Job job;
+        while ((job = awaitReady(deadline)) != null) runJob(job);
+        int left = queueDepth();
+        if (left > 0) {
+            logger.warning("[Schematics] Dropped " + left + " grave job(s) still waiting on async work at shutdown.");
+        }
+    }
+
+    /**
+     * Removes the next ready job, waiting while async work that may make one ready is still running.
+     *
+     * @param deadline {@link System#nanoTime()} after which to stop waiting
+     * @return job, or {@code null} if nothing is ready and either no async work is left or the deadline passed
+     */
+    private synchronized Job awaitReady(long deadline) {
+        Job job;
+        while ((job = ready.poll()) == null && inFlight > 0) {
+            long wait = deadline - System.nanoTime();
+            if (wait <= 0L) return null;
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return job;
+    }
+
+    /**
+     * Sets the chunk whose owning region runs a lane's jobs on Folia. Call before the lane's first job is
+     * submitted; a no-op on Paper.
+     *
+     * @param lane  ordering key
+     * @param world world
+     * @param x     block X
+     * @param z     block Z
+     */
+    synchronized void home(Object lane, World world, int x, int z) {
+        if (!regional) return;
+        retired.remove(lane);
+        homes.put(lane, new Home(world, x >> 4, z >> 4));
+    }
+
+    /**
+     * Drops a lane's home once its queued jobs have run; nothing more is expected on the lane unless
+     * {@link #home} is called again.
+     *
+     * @param lane ordering key
+     */
+    synchronized void forget(Object lane) {
+        if (!homes.containsKey(lane)) return;
+        if (lanes.containsKey(lane)) retired.add(lane);
+        else homes.remove(lane);
+    }
+
+    /**
+     * Queues a job. Safe to call from any thread.
+     *
+     * @param lane     ordering key; jobs with the same key never overtake each other
+     * @param priority job priority
+     * @param job      work to run on the server thread
+     */
+    void submit(Object lane, Priority priority, Runnable job) {
+        enqueue(new Job(lane, priority, job, null));
+    }
+
+    /**
+     * Queues a job whose work continues off the server thread. The job is started on the server thread
+     * and its lane stays blocked until the returned stage completes, so later jobs for the same grave
+     * still observe the finished work.
+     *
+     * @param lane     ordering key
+     * @param priority job priority
+     * @param starter  starts the work on the server thread and returns its completion
+     */
+    void submitAsync(Object lane, Priority priority, Supplier<? extends CompletionStage<?>> starter) {
+        enqueue(new Job(lane, priority, null, starter));
+    }
+
+    /**
+     * Adds a job to its lane, making it ready if the lane is idle.
+     *
+     * @param j job to add
+     */
+    private synchronized void enqueue(Job j) {
+        j.seq = seq++;
+        depth++;
+        ArrayDeque<Job> waiting = lanes.get(j.lane);
+        if (waiting == null) {
+            lanes.put(j.lane, new ArrayDeque<>());
+            makeReady(j);
+        } else {
+            waiting.add(j);
+        }
+    }
+
+    /** Drains queued jobs until the tick budget is spent. */
+    @Override
+    public void run() {
+        final long deadline = System.nanoTime() + budgetNanos;
+        Job job;
+        while ((job = poll()) != null) {
+            runJob(job);
+            if (System.nanoTime() >= deadline) break;
+        }
+        int left = queueDepth();
+        if (left > 0) {
+            carryOverTicks.increment();
+            carriedJobs.add(left);
+        }
+    }
+
+    /**
+     * Folia: drains a home's ready jobs on its region thread until the thread's budget for this window is
+     * spent, then schedules the rest for the next tick.
+     *
+     * @param h home to drain
+     */
+    private void drainHome(Home h) {
+        long[] window = WINDOW.get();
+        long now = System.nanoTime();
+        if (now - window[0] >= TICK_NANOS) window[0] = now;
+        final long deadline = window[0] + budgetNanos;
+        Job job;
+        while (System.nanoTime() < deadline && (job = pollHome(h)) != null) runJob(job);
+        synchronized (this) {
+            PriorityQueue<Job> q = homeReady.get(h);
+            if (q == null || stopped) return;
+            if (q.isEmpty()) {
+                homeReady.remove(h);
+                return;
+            }
+            carryOverTicks.increment();
+            carriedJobs.add(q.size());
+            schedule(h, 1L);
+        }
+    }
+
+    /**
+     * Folia: schedules a drain of a home on the region that owns it, or on the global region.
+     *
+     * @param h     home
+     * @param delay ticks to wait
+     */
+    private void schedule(Home h, long delay) {
+        if (h.world == null) ServerTasks.runLater(plugin, delay, () -> drainHome(h));
+        else ServerTasks.runLaterAt(plugin, h.world, h.cx << 4, h.cz << 4, delay, () -> drainHome(h));
+    }
+
+    /** @return jobs queued or still running asynchronously */
+    synchronized int queueDepth() {
+        return depth;
+    }
+
+    /** @return ticks that ended with work carried over */
+    long carryOverTicks() {
+        return carryOverTicks.sum();
+    }
+
+    /** @return total jobs carried over across ticks */
+    long carriedJobs() {
+        return carriedJobs.sum();
+    }
+
+    /** @return jobs executed since start */
+    long executed() {
+        return executed.sum();
+    }
+
+    /**
+     * Removes the next ready job.
+     *
+     * @return job or {@code null} if nothing is ready
+     */
+    private synchronized Job poll() {
+        return ready.poll();
+    }
+
+    /**
+     * Removes the next ready job of a home.
+     *
+     * @param h home
+     * @return job or {@code null} if nothing is ready there
+     */
+    private synchronized Job pollHome(Home h) {
+        PriorityQueue<Job> q = homeReady.get(h);
+        return q != null ? q.poll() : null;
+    }
+
+    /**
+     * Makes a lane head runnable: on Paper it joins the tick drain; on Folia it joins its home's queue,
+     * and the home's drain is scheduled if none is pending. Caller holds the lock.
+     *
+     * @param j lane head
+     */
+    private void makeReady(Job j) {
+        if (!regional || stopped) {
+            ready.add(j);
+            return;
+        }
+        Home h = homes.getOrDefault(j.lane, Home.GLOBAL);
+        PriorityQueue<Job> q = homeReady.get(h);
+        if (q == null) {
+            q = new PriorityQueue<>(ORDER);
+            homeReady.put(h, q);
+            schedule(h, 0L);
+        }
+        q.add(j);
+    }
+
+    /**
+     * Runs a job and promotes the next job in its lane.
+     *
+     * @param job job to run
+     */
+    private void runJob(Job job) {
+        CompletionStage<?> pending = null;
+        try {
+            if (job.starter != null) pending = job.starter.get();
+            else job.task.run();
+        } catch (Throwable t) {
+            logger.log(Level.WARNING, "[Schematics] Grave task failed (" + job.priority + ")", t);
+        } finally {
+            executed.increment();
+            if (pending == null) {
+                release(job, false);
+            } else {
+                synchronized (this) {
+                    inFlight++;
+                }
+                pending.whenComplete((v, t) -> {
+                    if (t != null) logger.log(Level.WARNING, "[Schematics] Grave task failed (" + job.priority + ")", t);
+                    release(job, true);
+                });
+            }
+        }
+    }
+
+    /**
+     * Marks a job finished and promotes the next job in its lane. Wakes {@link #stop} once stopped.
+     *
+     * @param job   finished job
+     * @param async the job's async work completed
+     */
+    private synchronized void release(Job job, boolean async) {
+        depth--;
+        if (async) inFlight--;
+        if (stopped) notifyAll();
+        ArrayDeque<Job> waiting = lanes.get(job.lane);
+        Job next = waiting != null ? waiting.poll() : null;
+        if (next != null) {
+            makeReady(next);
+        } else {
+            lanes.remove(job.lane);
+            if (retired.remove(job.lane)) homes.remove(job.lane);
+        }
+    }
+
+    /** Chunk whose owning Folia region runs a lane; {@link #GLOBAL} stands for the global region. */
+    private static final class Home {
+        /** Lanes without a home. */
+        static final Home GLOBAL = new Home(null, 0, 0);
+
+        /** World, or {@code null} for {@link #GLOBAL}. */
+        final World world;
+        /** Chunk coordinates. */
+        final int cx, cz;
+
+        Home(World world, int cx, int cz) {
+            this.world = world;
+            this.cx = cx;
+            this.cz = cz;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Home)) return false;
+            Home h = (Home) o;
+            return cx == h.cx && cz == h.cz && Objects.equals(world, h.world);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(world, cx, cz);
+        }
+    }
+
+    /** Queued unit of work. */
+    private static final class Job {
+        /** Ordering key. */
+        final Object lane;
+        /** Priority. */
+        final Priority priority;
+        /** Work to run on the server thread, or {@code null} for an async job. */
+        final Runnable task;
+        /** Starter for an async job, or {@code null}. */
+        final Supplier<? extends CompletionStage<?>> starter;
+        /** Submission order, assigned under the scheduler lock. */
+        long seq;
+
+        Job(Object lane, Priority priority, Runnable task, Supplier<? extends CompletionStage<?>> starter) {
+            this.lane = lane;
+            this.priority = priority;
+            this.task = task;
+            this.starter = starter;
+        }
+    }
+}
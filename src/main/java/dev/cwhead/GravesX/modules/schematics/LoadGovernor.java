@@ -0,0 +1,170 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Picks how much work a new grave may cost from the server's tick time and the module's own backlog.
+ * <p>Above the light thresholds new graves get the small fallback schematic with a delta snapshot; above
+ * the anchor thresholds only the anchor block is set. A step up happens on the first reading over a
+ * threshold, so a burst of deaths degrades within the same tick. A step down waits until the readings
+ * have stayed under the lower thresholds for the recovery period, which keeps the mode from flapping
+ * around a threshold. Graves placed degraded are upgraded to their full schematic once the governor has
+ * been back at {@link Mode#FULL} for a recovery period ({@link #recovered()}).</p>
+ */
+final class LoadGovernor {
+
+    /** What a new grave gets, cheapest last. */
+    enum Mode {
+        /** Selected schematic and configured snapshot. */
+        FULL,
+        /** Fallback schematic with a delta snapshot. */
+        LIGHT,
+        /** Anchor block only. */
+        ANCHOR
+    }
+
+    /** Average tick time in milliseconds. */
+    private final DoubleSupplier mspt;
+    /** Jobs queued in the module. */
+    private final IntSupplier queue;
+    /** Clock in milliseconds. */
+    private final LongSupplier clock;
+    /** Tick time at which graves go light. */
+    private final double lightMspt;
+    /** Queue depth at which graves go light. */
+    private final int lightQueue;
+    /** Tick time at which graves go anchor-only. */
+    private final double anchorMspt;
+    /** Queue depth at which graves go anchor-only. */
+    private final int anchorQueue;
+    /** How long readings must stay low before stepping down, and before upgrades start. */
+    private final long recoverMillis;
+
+    /** Current mode; written under {@code this}. */
+    private volatile Mode mode = Mode.FULL;
+    /** Since when the readings have asked for less than {@link #mode}, or -1; guarded by {@code this}. */
+    private long calmSince = -1L;
+    /** Since when the mode has been {@link Mode#FULL}; guarded by {@code this}. */
+    private long fullSince;
+    /** Last tick time read. */
+    private volatile double lastMspt;
+    /** Last queue depth read. */
+    private volatile int lastQueue;
+
+    /** Graves placed light. */
+    private final AtomicLong light = new AtomicLong();
+    /** Graves placed anchor-only. */
+    private final AtomicLong anchorOnly = new AtomicLong();
+    /** Degraded graves upgraded to full. */
+    private final AtomicLong upgraded = new AtomicLong();
+
+    /**
+     * Creates a governor in {@link Mode#FULL}.
+     *
+     * @param mspt          average tick time in milliseconds
+     * @param queue         jobs queued in the module
+     * @param clock         clock in milliseconds
+     * @param lightMspt     tick time at which graves go light
+     * @param lightQueue    queue depth at which graves go light
+     * @param anchorMspt    tick time at which graves go anchor-only
+     * @param anchorQueue   queue depth at which graves go anchor-only
+     * @param recoverMillis how long readings must stay low before stepping down
+     */
+    LoadGovernor(DoubleSupplier mspt, IntSupplier queue, LongSupplier clock, double lightMspt, int lightQueue,
+                 double anchorMspt, int anchorQueue, long recoverMillis) {
+        this.mspt = mspt;
+        this.queue = queue;
+        this.clock = clock;
+        this.lightMspt = lightMspt;
+        this.lightQueue = lightQueue;
+        this.anchorMspt = Math.max(lightMspt, anchorMspt);
+        this.anchorQueue = Math.max(lightQueue, anchorQueue);
+        this.recoverMillis = recoverMillis;
+        this.fullSince = clock.getAsLong();
+    }
+
+    /**
+     * Reads the load and returns the mode for a grave placed now.
+     *
+     * @return mode
+     */
+    synchronized Mode mode() {
+        double ms = mspt.getAsDouble();
+        int depth = queue.getAsInt();
+        lastMspt = ms;
+        lastQueue = depth;
+        Mode want = ms >= anchorMspt || depth >= anchorQueue ? Mode.ANCHOR
+                : ms >= lightMspt || depth >= lightQueue ? Mode.LIGHT
+                : Mode.FULL;
+
+        long now = clock.getAsLong();
+        if (want.ordinal() >= mode.ordinal()) {
+            calmSince = -1L;
+            mode = want;
+        } else if (calmSince < 0L) {
+            calmSince = now;
+        } else if (now - calmSince >= recoverMillis) {
+            calmSince = -1L;
+            mode = Mode.values()[mode.ordinal() - 1];
+            if (mode == Mode.FULL) fullSince = now;
+        }
+        return mode;
+    }
+
+    /**
+     * Reads the load and checks whether degraded graves may be upgraded.
+     *
+     * @return true once the mode has been {@link Mode#FULL} for a recovery period
+     */
+    synchronized boolean recovered() {
+        return mode() == Mode.FULL && clock.getAsLong() - fullSince >= recoverMillis;
+    }
+
+    /**
+     * Counts a placement.
+     *
+     * @param placedAs mode the grave was placed in
+     */
+    void placed(Mode placedAs) {
+        if (placedAs == Mode.LIGHT) light.incrementAndGet();
+        else if (placedAs == Mode.ANCHOR) anchorOnly.incrementAndGet();
+    }
+
+    /** Counts an upgrade. */
+    void upgraded() {
+        upgraded.incrementAndGet();
+    }
+
+    /** @return mode as of the last reading */
+    Mode current() {
+        return mode;
+    }
+
+    /** @return tick time as of the last reading */
+    double lastMspt() {
+        return lastMspt;
+    }
+
+    /** @return queue depth as of the last reading */
+    int lastQueue() {
+        return lastQueue;
+    }
+
+    /** @return graves placed light */
+    long lightCount() {
+        return light.get();
+    }
+
+    /** @return graves placed anchor-only */
+    long anchorCount() {
+        return anchorOnly.get();
+    }
+
+    /** @return degraded graves upgraded to full */
+    long upgradedCount() {
+        return upgraded.get();
+    }
+}
@@ -0,0 +1,109 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+
+import java.io.File;
+
+/**
+ * A grave schematic read from disk together with its compiled {@link PastePlan}s.
+ * <p>When rotations are enabled the plan is also compiled for the three other clockwise quarter turns, and
+ * the paste region of every turn is kept as min/max offsets from the paste anchor, so a rotated paste and
+ * its snapshot region cost the same as an unrotated one.</p>
+ */
+final class LoadedSchematic {
+
+    /** Clipboard as saved, kept for its memory weight. */
+    private final Clipboard clipboard;
+    /** Plan per clockwise quarter turn; only index 0 when rotations are off. */
+    private final PastePlan[] plans;
+    /** Paste region per turn as min x/y/z, max x/y/z offsets from the paste anchor. */
+    private final int[][] bounds;
+
+    /**
+     * Creates the schematic, compiling rotated plans up front when asked.
+     *
+     * @param clipboard clipboard
+     * @param plan      plan compiled from it
+     * @param rotations also build the 90, 180 and 270 degree variants
+     */
+    LoadedSchematic(Clipboard clipboard, PastePlan plan, boolean rotations) {
+        this.clipboard = clipboard;
+        int n = rotations ? 4 : 1;
+        this.plans = new PastePlan[n];
+        this.bounds = new int[n][];
+
+        BlockVector3 origin = clipboard.getOrigin();
+        BlockVector3 min = clipboard.getRegion().getMinimumPoint().subtract(origin);
+        BlockVector3 max = clipboard.getRegion().getMaximumPoint().subtract(origin);
+        for (int t = 0; t < n; t++) {
+            plans[t] = plan.rotate(t);
+            bounds[t] = rotatedBounds(min, max, t);
+        }
+    }
+
+    /**
+     * Reads and compiles a schematic file. Blocking.
+     *
+     * @param file      schematic file
+     * @param ignoreAir paste setting the plan is compiled for
+     * @param rotations also compile the rotated variants
+     * @return loaded schematic
+     * @throws Exception if the file is unreadable
+     */
+    static LoadedSchematic load(File file, boolean ignoreAir, boolean rotations) throws Exception {
+        Clipboard clip = SnapshotIO.readClipboard(file);
+        return new LoadedSchematic(clip, PastePlan.compile(clip, ignoreAir), rotations);
+    }
+
+    /**
+     * @param turns clockwise quarter turns; ignored when rotations are off
+     * @return compiled paste plan for the turn
+     */
+    PastePlan plan(int turns) {
+        return plans[(turns & 3) % plans.length];
+    }
+
+    /**
+     * Returns the world region a paste of the given turn at {@code to} occupies.
+     *
+     * @param turns clockwise quarter turns; ignored when rotations are off
+     * @param to    paste anchor
+     * @return paste region
+     */
+    CuboidRegion region(int turns, BlockVector3 to) {
+        int[] b = bounds[(turns & 3) % bounds.length];
+        return new CuboidRegion(
+                BlockVector3.at(to.x() + b[0], to.y() + b[1], to.z() + b[2]),
+                BlockVector3.at(to.x() + b[3], to.y() + b[4], to.z() + b[5]));
+    }
+
+    /**
+     * @return cache weight: the clipboard's cuboid volume, which is what a loaded clipboard holds in memory,
+     *         plus the blocks of every rotated plan
+     */
+    long weight() {
+        return clipboard.getRegion().getVolume() + (long) (plans.length - 1) * plans[0].size();
+    }
+
+    /**
+     * Turns the clipboard bounds like {@link PastePlan#rotate(int)} turns offsets.
+     *
+     * @param min   minimum offset from the origin
+     * @param max   maximum offset from the origin
+     * @param turns clockwise quarter turns
+     * @return min x/y/z, max x/y/z offsets
+     */
+    private static int[] rotatedBounds(BlockVector3 min, BlockVector3 max, int turns) {
+        int x0 = min.x(), z0 = min.z(), x1 = max.x(), z1 = max.z();
+        for (int t = 0; t < turns; t++) {
+            int nx0 = -z1, nx1 = -z0;
+            z0 = x0;
+            z1 = x1;
+            x0 = nx0;
+            x1 = nx1;
+        }
+        return new int[]{x0, min.y(), z0, x1, max.y(), z1};
+    }
+}
@@ -0,0 +1,463 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of grave operations that have started but not finished.
+ * <p>{@link WorldEditSnapshotProvider} appends a begin record before the first block work of a place or
+ * removal and a done record once its anchor job ran. A place also gets a captured record once its snapshot
+ * is in the store; its paste waits for that record. Only operations still open matter after a crash, so
+ * whenever <code>journal.log</code> grows past the checkpoint size the open ones are written to
+ * <code>journal.ckpt</code> (temporary file, then atomic move) and the log is truncated. Opening the journal
+ * reads the checkpoint and the log tail behind it; the work is bounded by the number of graves in flight and
+ * the checkpoint size, not by how many graves or snapshots exist. A torn record at the end of the log is
+ * cut off.</p>
+ */
+final class OperationJournal {
+
+    /** Record magic, "GXJR". */
+    private static final int RECORD_MAGIC = 0x47584A52;
+    /** Checkpoint magic, "GXJC". */
+    private static final int CHECKPOINT_MAGIC = 0x47584A43;
+    /** Checkpoint format version. */
+    private static final int VERSION = 1;
+    /** Record header: magic, type, grave UUID, payload length, payload CRC32. */
+    private static final int HEADER = 4 + 1 + 16 + 4 + 4;
+
+    /** Record type: place started. */
+    private static final byte PLACE_BEGIN = 1;
+    /** Record type: place finished. */
+    private static final byte PLACE_DONE = 2;
+    /** Record type: removal started. */
+    private static final byte REMOVE_BEGIN = 3;
+    /** Record type: removal finished. */
+    private static final byte REMOVE_DONE = 4;
+    /** Record type: a place's snapshot is in the store and the paste may start. */
+    private static final byte PLACE_CAPTURED = 5;
+
+    /** Kind of journaled operation. */
+    enum Op {
+        /** Snapshot and paste of a new grave. */
+        PLACE,
+        /** Restore or clear of a removed grave. */
+        REMOVE
+    }
+
+    /** Logger for persistence failures. */
+    private final Logger logger;
+    /** Log file. */
+    private final File logFile;
+    /** Checkpoint file. */
+    private final File checkpointFile;
+    /** Log size that triggers a checkpoint. */
+    private final long checkpointBytes;
+    /** Whether every append is forced to disk. */
+    private final boolean fsync;
+    /** Open log channel; guarded by {@code this}. */
+    private final FileChannel channel;
+    /** Current log size; guarded by {@code this}. */
+    private long size;
+    /** Open places by grave UUID, oldest first; guarded by {@code this}. */
+    private final Map<UUID, Intent> places = new LinkedHashMap<>();
+    /** Open removals by grave UUID, oldest first; guarded by {@code this}. */
+    private final Map<UUID, Intent> removals = new LinkedHashMap<>();
+    /** Operations that were open when the journal was opened. */
+    private final List<Intent> recovered;
+
+    /**
+     * Opens the journal, reading the checkpoint and replaying the log tail, then writes a fresh checkpoint.
+     *
+     * @param logger          logger
+     * @param dir             directory holding <code>journal.log</code> and <code>journal.ckpt</code>
+     * @param checkpointBytes log size that triggers a checkpoint
+     * @param fsync           force every append to disk
+     * @throws IOException if the log cannot be opened
+     */
+    OperationJournal(Logger logger, File dir, long checkpointBytes, boolean fsync) throws IOException {
+        this.logger = logger;
+        this.logFile = new File(dir, "journal.log");
+        this.checkpointFile = new File(dir, "journal.ckpt");
+        this.checkpointBytes = checkpointBytes;
+        this.fsync = fsync;
+
+        loadCheckpoint();
+        this.channel = FileChannel.open(logFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        replay();
+
+        List<Intent> open = new ArrayList<>(removals.values());
+        open.addAll(places.values());
+        this.recovered = Collections.unmodifiableList(open);
+        synchronized (this) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Operations that were started but never finished before the journal was opened. They stay open until
+     * the provider finishes or rolls them back and records that.
+     *
+     * @return open operations, removals first, each oldest first
+     */
+    List<Intent> recovered() {
+        return recovered;
+    }
+
+    /**
+     * Records the start of an operation, replacing an open one of the same kind for the grave. A removal
+     * also supersedes an unfinished place of the same grave.
+     *
+     * @param i operation
+     */
+    synchronized void begin(Intent i) {
+        if (i.op == Op.REMOVE) places.remove(i.id);
+        (i.op == Op.PLACE ? places : removals).put(i.id, i);
+        append(i.op == Op.PLACE ? PLACE_BEGIN : REMOVE_BEGIN, i.id, i.encode());
+    }
+
+    /**
+     * Records the end of an operation. Does nothing if it is not open.
+     *
+     * @param op kind
+     * @param id grave UUID
+     */
+    synchronized void done(Op op, UUID id) {
+        if ((op == Op.PLACE ? places : removals).remove(id) == null) return;
+        append(op == Op.PLACE ? PLACE_DONE : REMOVE_DONE, id, new byte[0]);
+    }
+
+    /**
+     * Records that an open place has its snapshot in the store, or has none to wait for, so its paste may
+     * start. Does nothing if the place is not open.
+     *
+     * @param id grave UUID
+     */
+    synchronized void captured(UUID id) {
+        Intent i = places.get(id);
+        if (i == null || i.captured) return;
+        i.captured = true;
+        append(PLACE_CAPTURED, id, new byte[0]);
+    }
+
+    /** @return number of open operations */
+    synchronized int openCount() {
+        return places.size() + removals.size();
+    }
+
+    /** @return UUIDs of graves with an open operation plus the snapshot keys open removals restore */
+    synchronized Set<UUID> keys() {
+        Set<UUID> out = new HashSet<>(places.keySet());
+        for (Intent i : removals.values()) {
+            out.add(i.id);
+            out.addAll(i.keys);
+        }
+        return out;
+    }
+
+    /** Writes a final checkpoint, leaving an empty log, and closes it. */
+    synchronized void close() {
+        try {
+            checkpoint();
+            channel.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "[Schematics] Could not close operation journal cleanly", e);
+        }
+    }
+
+    /**
+     * Appends a record, checkpointing when the log is over its limit. Failures are logged; the journal
+     * is best effort and never fails the grave operation. Caller holds the lock.
+     *
+     * @param type record type
+     * @param id   grave UUID
+     * @param data payload
+     */
+    private void append(byte type, UUID id, byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + data.length);
+        buf.putInt(RECORD_MAGIC)
+                .put(type)
+                .putLong(id.getMostSignificantBits())
+                .putLong(id.getLeastSignificantBits())
+                .putInt(data.length)
+                .putInt((int) crc.getValue())
+                .put(data)
+                .flip();
+        try {
+            while (buf.hasRemaining()) channel.write(buf, size + buf.position());
+            if (fsync) channel.force(false);
+            size += buf.limit();
+            if (size >= checkpointBytes) checkpoint();
+        } catch (IOException e) {
+            logger.warning("[Schematics] Could not append to operation journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the open operations to the checkpoint file and truncates the log. Caller holds the lock.
+     *
+     * @throws IOException if the checkpoint cannot be written
+     */
+    private void checkpoint() throws IOException {
+        File tmp = new File(checkpointFile.getParentFile(), checkpointFile.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(places.size() + removals.size());
+            for (Intent i : places.values()) i.write(out);
+            for (Intent i : removals.values()) i.write(out);
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        Files.move(tmp.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel.truncate(0L);
+        if (fsync) channel.force(true);
+        size = 0L;
+    }
+
+    /** Reads <code>journal.ckpt</code>, if any, into the open maps. */
+    private void loadCheckpoint() {
+        if (!checkpointFile.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)))) {
+            if (in.readInt() != CHECKPOINT_MAGIC || in.readUnsignedByte() != VERSION) {
+                logger.warning("[Schematics] Ignoring unrecognized journal checkpoint: " + checkpointFile.getPath());
+                return;
+            }
+            int count = in.readInt();
+            for (int n = 0; n < count; n++) {
+                Intent i = Intent.read(in);
+                (i.op == Op.PLACE ? places : removals).put(i.id, i);
+            }
+        } catch (IOException e) {
+            logger.warning("[Schematics] Journal checkpoint is damaged; keeping " + (places.size() + removals.size())
+                    + " operations: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applies every intact record of the log on top of the checkpoint and cuts off a torn tail.
+     *
+     * @throws IOException if the log cannot be read
+     */
+    private void replay() throws IOException {
+        long len = channel.size();
+        long pos = 0L;
+        ByteBuffer head = ByteBuffer.allocate(HEADER);
+        while (pos + HEADER <= len) {
+            head.clear();
+            if (!readFully(head, pos)) break;
+            head.flip();
+            if (head.getInt() != RECORD_MAGIC) break;
+            byte type = head.get();
+            UUID id = new UUID(head.getLong(), head.getLong());
+            int length = head.getInt();
+            int crc = head.getInt();
+            if (length < 0 || pos + HEADER + length > len) break;
+
+            ByteBuffer data = ByteBuffer.allocate(length);
+            if (!readFully(data, pos + HEADER)) break;
+            CRC32 check = new CRC32();
+            check.update(data.array());
+            if ((int) check.getValue() != crc) break;
+
+            if (type == PLACE_BEGIN) {
+                places.put(id, Intent.decode(Op.PLACE, id, data.array()));
+            } else if (type == REMOVE_BEGIN) {
+                places.remove(id);
+                removals.put(id, Intent.decode(Op.REMOVE, id, data.array()));
+            } else if (type == PLACE_CAPTURED) {
+                Intent i = places.get(id);
+                if (i != null) i.captured = true;
+            } else if (type == PLACE_DONE) {
+                places.remove(id);
+            } else if (type == REMOVE_DONE) {
+                removals.remove(id);
+            }
+            pos += HEADER + length;
+        }
+        if (pos < len) {
+            logger.warning("[Schematics] Operation journal has a torn tail; dropped " + (len - pos) + " bytes.");
+            channel.truncate(pos);
+        }
+        size = pos;
+    }
+
+    /**
+     * Fills a buffer from the log.
+     *
+     * @param buf buffer to fill
+     * @param at  log offset
+     * @return false if the log ended first
+     * @throws IOException if the read fails
+     */
+    private boolean readFully(ByteBuffer buf, long at) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, at + buf.position()) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * A journaled operation and what is needed to finish or roll it back: where the grave was pasted and,
+     * for removals, which snapshots it restores.
+     */
+    static final class Intent {
+        /** Kind. */
+        final Op op;
+        /** Grave UUID. */
+        final UUID id;
+        /** World UUID. */
+        final UUID world;
+        /** Paste anchor x/y/z. */
+        final int[] paste;
+        /** Anchor block x/y/z. */
+        final int[] anchor;
+        /** Pasted region as min x/y/z, max x/y/z, or {@code null} if it is resolved from the schematic. */
+        final int[] region;
+        /** Clockwise quarter turns the grave was pasted with. */
+        final int turns;
+        /** Removals only: snapshot keys being restored. */
+        final List<UUID> keys;
+        /** Removals only: the grave left a shared group and only its anchor is removed. */
+        final boolean shared;
+        /** Places only: the snapshot reached the store, so the grave may have been pasted; guarded by the journal. */
+        boolean captured;
+
+        Intent(Op op, UUID id, UUID world, int[] paste, int[] anchor, int[] region, int turns, List<UUID> keys,
+               boolean shared) {
+            this.op = op;
+            this.id = id;
+            this.world = world;
+            this.paste = paste;
+            this.anchor = anchor;
+            this.region = region;
+            this.turns = turns;
+            this.keys = keys;
+            this.shared = shared;
+        }
+
+        /**
+         * Writes the operation kind and UUID followed by its payload.
+         *
+         * @param out stream
+         * @throws IOException if the write fails
+         */
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(op.ordinal());
+            out.writeLong(id.getMostSignificantBits());
+            out.writeLong(id.getLeastSignificantBits());
+            byte[] data = encode();
+            out.writeInt(data.length);
+            out.write(data);
+        }
+
+        /**
+         * Reads an operation written by {@link #write}.
+         *
+         * @param in stream
+         * @return operation
+         * @throws IOException if the stream ends early or the kind is unknown
+         */
+        static Intent read(DataInputStream in) throws IOException {
+            int ordinal = in.readUnsignedByte();
+            if (ordinal >= Op.values().length) throw new IOException("Unknown journal operation " + ordinal);
+            UUID id = new UUID(in.readLong(), in.readLong());
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return decode(Op.values()[ordinal], id, data);
+        }
+
+        /**
+         * @return payload bytes: world, paste, anchor, optional region, the removal's keys, the turns, and
+         *         whether a place was captured
+         */
+        byte[] encode() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeLong(world.getMostSignificantBits());
+                out.writeLong(world.getLeastSignificantBits());
+                for (int v : paste) out.writeInt(v);
+                for (int v : anchor) out.writeInt(v);
+                out.writeBoolean(region != null);
+                if (region != null) for (int v : region) out.writeInt(v);
+                out.writeBoolean(shared);
+                out.writeInt(keys.size());
+                for (UUID k : keys) {
+                    out.writeLong(k.getMostSignificantBits());
+                    out.writeLong(k.getLeastSignificantBits());
+                }
+                out.writeByte(turns);
+                out.writeBoolean(captured);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Decodes a payload written by {@link #encode}.
+         *
+         * @param op   kind
+         * @param id   grave UUID
+         * @param data payload
+         * @return operation
+         * @throws IOException if the payload is truncated
+         */
+        static Intent decode(Op op, UUID id, byte[] data) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            UUID world = new UUID(in.readLong(), in.readLong());
+            int[] paste = readInts(in, 3);
+            int[] anchor = readInts(in, 3);
+            int[] region = in.readBoolean() ? readInts(in, 6) : null;
+            boolean shared = in.readBoolean();
+            int count = in.readInt();
+            List<UUID> keys = new ArrayList<>(count);
+            for (int n = 0; n < count; n++) keys.add(new UUID(in.readLong(), in.readLong()));
+            int turns = in.readUnsignedByte();
+            Intent i = new Intent(op, id, world, paste, anchor, region, turns, keys, shared);
+            i.captured = in.readBoolean();
+            return i;
+        }
+
+        /**
+         * Reads a fixed number of ints.
+         *
+         * @param in stream
+         * @param n  count
+         * @return values
+         * @throws IOException if the stream ends early
+         */
+        private static int[] readInts(DataInputStream in, int n) throws IOException {
+            int[] v = new int[n];
+            for (int i = 0; i < n; i++) v[i] = in.readInt();
+            return v;
+        }
+    }
+}
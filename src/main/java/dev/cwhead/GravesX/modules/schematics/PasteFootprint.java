@@ -0,0 +1,31 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+/**
+ * Positions a clipboard paste will write, relative to the paste anchor.
+ * <p>With air ignored only the non-air cells are kept, which for a typical grave build is a small fraction
+ * of the bounding cuboid. Shared with the clipboard's {@link PastePlan} and reused for every capture and restore.</p>
+ */
+final class PasteFootprint {
+
+    /** Packed x/y/z offset triplets relative to the paste anchor. */
+    private final int[] offsets;
+
+    /**
+     * Wraps packed offsets produced by {@link PastePlan#compile}.
+     *
+     * @param offsets packed x/y/z offsets relative to the paste anchor
+     */
+    PasteFootprint(int[] offsets) {
+        this.offsets = offsets;
+    }
+
+    /** @return packed x/y/z offsets; callers must not modify */
+    int[] offsets() {
+        return offsets;
+    }
+
+    /** @return number of positions */
+    int size() {
+        return offsets.length / 3;
+    }
+}
@@ -0,0 +1,150 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import com.sk89q.worldedit.entity.Entity;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.extent.transform.BlockTransformExtent;
+import com.sk89q.worldedit.math.transform.AffineTransform;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.math.Vector3;
+import com.sk89q.worldedit.util.Location;
+import com.sk89q.worldedit.world.block.BaseBlock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A grave clipboard compiled into flat arrays for pasting.
+ * <p>Compiling walks the clipboard once, drops air when the paste ignores it, and resolves each remaining
+ * cell to a block (sharing WorldEdit's cached instance when there is no block-entity NBT). Applying the plan
+ * is then a loop of {@code setBlock} calls, with no holder, transform, or extent-copy operation per paste.
+ * Plans are built once per clipboard and reused until the clipboard is replaced.</p>
+ */
+final class PastePlan {
+
+    /** Packed x/y/z offset triplets relative to the clipboard origin. */
+    private final int[] offsets;
+    /** Block per offset triplet. */
+    private final BaseBlock[] blocks;
+    /** Entities stored in the clipboard, relative to its origin. */
+    private final DenseSnapshot.EntityEntry[] entities;
+    /** Same offsets viewed as a footprint, for delta snapshots. */
+    private final PasteFootprint footprint;
+
+    private PastePlan(int[] offsets, BaseBlock[] blocks, DenseSnapshot.EntityEntry[] entities) {
+        this.offsets = offsets;
+        this.blocks = blocks;
+        this.entities = entities;
+        this.footprint = new PasteFootprint(offsets);
+    }
+
+    /**
+     * Compiles a clipboard.
+     *
+     * @param clip      clipboard
+     * @param ignoreAir if true, air cells are dropped and leave the world untouched when pasting
+     * @return paste plan relative to the clipboard origin
+     */
+    static PastePlan compile(Clipboard clip, boolean ignoreAir) {
+        BlockVector3 origin = clip.getOrigin();
+        int[] offs = new int[48];
+        BaseBlock[] blks = new BaseBlock[16];
+        int n = 0;
+        for (BlockVector3 pos : clip.getRegion()) {
+            BaseBlock full = clip.getFullBlock(pos);
+            if (ignoreAir && full.getBlockType().getMaterial().isAir()) continue;
+            if (n == blks.length) {
+                blks = Arrays.copyOf(blks, n * 2);
+                offs = Arrays.copyOf(offs, n * 6);
+            }
+            blks[n] = full.getNbtReference() == null ? full.toImmutableState().toBaseBlock() : full;
+            offs[n * 3] = pos.x() - origin.x();
+            offs[n * 3 + 1] = pos.y() - origin.y();
+            offs[n * 3 + 2] = pos.z() - origin.z();
+            n++;
+        }
+
+        Vector3 base = origin.toVector3();
+        List<DenseSnapshot.EntityEntry> ents = new ArrayList<>();
+        for (Entity e : clip.getEntities()) {
+            if (e.getState() == null) continue;
+            Location l = e.getLocation();
+            ents.add(new DenseSnapshot.EntityEntry(e.getState(), l.toVector().subtract(base), l.getYaw(), l.getPitch()));
+        }
+
+        return new PastePlan(Arrays.copyOf(offs, n * 3), Arrays.copyOf(blks, n),
+                ents.toArray(new DenseSnapshot.EntityEntry[0]));
+    }
+
+    /**
+     * Writes the plan so that the clipboard origin lands on {@code to}.
+     *
+     * @param session edit session on the target world, or any other extent
+     * @param to      paste anchor
+     * @throws Exception if the edit fails
+     */
+    void apply(Extent session, BlockVector3 to) throws Exception {
+        int tx = to.x(), ty = to.y(), tz = to.z();
+        for (int i = 0, o = 0; i < blocks.length; i++, o += 3) {
+            session.setBlock(BlockVector3.at(tx + offsets[o], ty + offsets[o + 1], tz + offsets[o + 2]), blocks[i]);
+        }
+        if (entities.length == 0) return;
+        Vector3 base = to.toVector3();
+        for (DenseSnapshot.EntityEntry e : entities) {
+            session.createEntity(new Location(session, base.add(e.offset), e.yaw, e.pitch), e.entity);
+        }
+    }
+
+    /**
+     * Builds the plan rotated clockwise (seen from above) about the origin block by whole quarter turns.
+     * Offsets are turned with integer math and block states through WorldEdit's block transform, so
+     * stairs, heads, signs and other directional blocks face the new way. Entities are moved and their yaw
+     * turned; entity NBT such as a hanging entity's facing is left as saved.
+     *
+     * @param turns clockwise quarter turns, 0-3
+     * @return rotated plan, or this plan for 0 turns
+     */
+    PastePlan rotate(int turns) {
+        turns &= 3;
+        if (turns == 0) return this;
+        AffineTransform transform = new AffineTransform().rotateY(-90 * turns);
+        int[] offs = new int[offsets.length];
+        BaseBlock[] blks = new BaseBlock[blocks.length];
+        for (int i = 0, o = 0; i < blocks.length; i++, o += 3) {
+            int x = offsets[o], z = offsets[o + 2];
+            for (int t = 0; t < turns; t++) {
+                int nx = -z;
+                z = x;
+                x = nx;
+            }
+            offs[o] = x;
+            offs[o + 1] = offsets[o + 1];
+            offs[o + 2] = z;
+            blks[i] = BlockTransformExtent.transform(blocks[i], transform);
+        }
+
+        DenseSnapshot.EntityEntry[] ents = new DenseSnapshot.EntityEntry[entities.length];
+        for (int i = 0; i < entities.length; i++) {
+            DenseSnapshot.EntityEntry e = entities[i];
+            double x = e.offset.x(), z = e.offset.z();
+            for (int t = 0; t < turns; t++) {
+                double nx = 1.0D - z;
+                z = x;
+                x = nx;
+            }
+            ents[i] = new DenseSnapshot.EntityEntry(e.entity, Vector3.at(x, e.offset.y(), z), e.yaw + 90.0F * turns, e.pitch);
+        }
+        return new PastePlan(offs, blks, ents);
+    }
+
+    /** @return positions the paste writes, for delta snapshots */
+    PasteFootprint footprint() {
+        return footprint;
+    }
+
+    /** @return number of blocks the plan writes */
+    int size() {
+        return blocks.length;
+    }
+}
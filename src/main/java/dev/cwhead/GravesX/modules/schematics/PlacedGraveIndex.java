@@ -0,0 +1,281 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Graves this provider has pasted, by grave UUID and by chunk.
+ * <p>Lets {@link WorldEditSnapshotProvider#isPlaced} answer without reading world blocks. The index is kept in
+ * memory and rewritten to <code>placed.dat</code> by a background task when it has changed, plus once on
+ * close. Each record holds the grave UUID, world UUID, anchor x/y/z, and the min/max corners of the pasted
+ * region (absent for graves adopted from their anchor), so a removal knows what it has to clear without
+ * re-resolving the schematic, and whether the grave was placed in a degraded {@link LoadGovernor} mode and
+ * still waits for its full schematic.</p>
+ */
+final class PlacedGraveIndex {
+
+    /** File magic, "GXPI". */
+    private static final int MAGIC = 0x47585049;
+    /** File format version; version 1 records have no region, version 2 records no light flag. */
+    private static final int VERSION = 3;
+
+    /** Logger for persistence failures. */
+    private final Logger logger;
+    /** Index file. */
+    private final File file;
+    /** Entries by grave UUID; guarded by {@code this}. */
+    private final Map<UUID, Entry> byId = new HashMap<>();
+    /** Graves placed degraded and not yet upgraded; guarded by {@code this}. */
+    private final Set<UUID> light = new HashSet<>();
+    /** Grave UUIDs by world UUID and packed chunk key; guarded by {@code this}. */
+    private final Map<UUID, Map<Long, Set<UUID>>> byChunk = new HashMap<>();
+    /** Set when the in-memory index differs from the file; guarded by {@code this}. */
+    private boolean dirty;
+    /** Background flusher. */
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * Loads the index file if present and starts the periodic flush.
+     *
+     * @param logger       logger
+     * @param file         index file
+     * @param flushSeconds seconds between flushes of a changed index
+     */
+    PlacedGraveIndex(Logger logger, File file, long flushSeconds) {
+        this.logger = logger;
+        this.file = file;
+        load();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new SnapshotIO.NamedThreadFactory("GravesX-Schematics-Index"));
+        this.flusher.scheduleWithFixedDelay(this::flushQuietly, flushSeconds, flushSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Records a pasted grave.
+     *
+     * @param id grave UUID
+     * @param e  world, anchor, and region
+     */
+    synchronized void add(UUID id, Entry e) {
+        Entry old = byId.put(id, e);
+        if (old != null) unlinkChunk(id, old);
+        if (e.light) light.add(id);
+        else light.remove(id);
+        byChunk.computeIfAbsent(e.world, k -> new HashMap<>())
+                .computeIfAbsent(chunkKey(e.x >> 4, e.z >> 4), k -> new HashSet<>())
+                .add(id);
+        dirty = true;
+    }
+
+    /**
+     * Forgets a grave.
+     *
+     * @param id grave UUID
+     * @return removed entry or {@code null}
+     */
+    synchronized Entry remove(UUID id) {
+        Entry old = byId.remove(id);
+        if (old != null) {
+            unlinkChunk(id, old);
+            light.remove(id);
+            dirty = true;
+        }
+        return old;
+    }
+
+    /**
+     * Looks up a grave.
+     *
+     * @param id grave UUID
+     * @return entry or {@code null} if the grave is not known to be placed
+     */
+    synchronized Entry get(UUID id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Lists graves whose anchor lies in a chunk.
+     *
+     * @param world world UUID
+     * @param cx    chunk X
+     * @param cz    chunk Z
+     * @return grave UUIDs, possibly empty
+     */
+    synchronized List<UUID> inChunk(UUID world, int cx, int cz) {
+        Map<Long, Set<UUID>> chunks = byChunk.get(world);
+        Set<UUID> ids = chunks != null ? chunks.get(chunkKey(cx, cz)) : null;
+        return ids == null ? Collections.emptyList() : new ArrayList<>(ids);
+    }
+
+    /** @return graves placed degraded and not yet upgraded */
+    synchronized List<UUID> light() {
+        return new ArrayList<>(light);
+    }
+
+    /** @return number of indexed graves */
+    synchronized int size() {
+        return byId.size();
+    }
+
+    /** Stops the flusher and writes the index one last time. */
+    void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10L, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+    }
+
+    /**
+     * Packs chunk coordinates into one key.
+     *
+     * @param cx chunk X
+     * @param cz chunk Z
+     * @return packed key
+     */
+    static long chunkKey(int cx, int cz) {
+        return ((long) cx << 32) | (cz & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Removes a grave from its chunk bucket. Caller holds the lock.
+     *
+     * @param id grave UUID
+     * @param e  entry being removed
+     */
+    private void unlinkChunk(UUID id, Entry e) {
+        Map<Long, Set<UUID>> chunks = byChunk.get(e.world);
+        if (chunks == null) return;
+        long key = chunkKey(e.x >> 4, e.z >> 4);
+        Set<UUID> ids = chunks.get(key);
+        if (ids == null) return;
+        ids.remove(id);
+        if (ids.isEmpty()) chunks.remove(key);
+        if (chunks.isEmpty()) byChunk.remove(e.world);
+    }
+
+    /** Writes the index if it changed, logging failures. */
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "[Schematics] Could not save placed-grave index", e);
+        }
+    }
+
+    /**
+     * Copies the entries under the lock, then writes them to a temporary file and moves it into place.
+     *
+     * @throws IOException if the write fails
+     */
+    private void flush() throws IOException {
+        List<Map.Entry<UUID, Entry>> copy;
+        synchronized (this) {
+            if (!dirty) return;
+            copy = new ArrayList<>(byId.entrySet());
+            dirty = false;
+        }
+
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(copy.size());
+            for (Map.Entry<UUID, Entry> me : copy) {
+                Entry e = me.getValue();
+                out.writeLong(me.getKey().getMostSignificantBits());
+                out.writeLong(me.getKey().getLeastSignificantBits());
+                out.writeLong(e.world.getMostSignificantBits());
+                out.writeLong(e.world.getLeastSignificantBits());
+                out.writeInt(e.x);
+                out.writeInt(e.y);
+                out.writeInt(e.z);
+                out.writeBoolean(e.region != null);
+                if (e.region != null) for (int v : e.region) out.writeInt(v);
+                out.writeBoolean(e.light);
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                dirty = true;
+            }
+            tmp.delete();
+            throw e;
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Reads the index file, if any, into memory. */
+    private void load() {
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version = in.readInt() == MAGIC ? in.readUnsignedByte() : -1;
+            if (version < 1 || version > VERSION) {
+                logger.warning("[Schematics] Ignoring unrecognized placed-grave index: " + file.getPath());
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                UUID id = new UUID(in.readLong(), in.readLong());
+                UUID world = new UUID(in.readLong(), in.readLong());
+                int x = in.readInt(), y = in.readInt(), z = in.readInt();
+                int[] region = null;
+                if (version >= 2 && in.readBoolean()) {
+                    region = new int[6];
+                    for (int j = 0; j < 6; j++) region[j] = in.readInt();
+                }
+                boolean degraded = version >= 3 && in.readBoolean();
+                add(id, new Entry(world, x, y, z, region, degraded));
+            }
+            dirty = false;
+        } catch (IOException e) {
+            logger.warning("[Schematics] Placed-grave index is damaged; keeping " + byId.size() + " entries: " + e.getMessage());
+        }
+    }
+
+    /** Indexed grave: world, anchor block position, pasted region, and whether it waits for an upgrade. */
+    static final class Entry {
+        /** World UUID. */
+        final UUID world;
+        /** Anchor block position. */
+        final int x, y, z;
+        /** Pasted region as min x/y/z, max x/y/z, or {@code null} for entries from a version 1 file. */
+        final int[] region;
+        /** Placed light or anchor-only under load; upgraded to the full schematic once load recovers. */
+        final boolean light;
+
+        Entry(UUID world, int x, int y, int z, int[] region) {
+            this(world, x, y, z, region, false);
+        }
+
+        Entry(UUID world, int x, int y, int z, int[] region, boolean light) {
+            this.world = world;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.region = region;
+            this.light = light;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import dev.cwhead.GravesX.module.ModuleContext;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.World;
+import org.bukkit.block.Biome;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+/**
+ * Immutable snapshot of the reloadable provider settings together with the schematics they point at.
+ * <p>{@link #load(ModuleContext, Executor)} parses the config and reads and compiles every grave schematic
+ * in parallel, so it is meant to run off the server thread. Override schematics sit in a bounded
+ * {@link ClipboardCache}; the default schematic is held directly and never evicted. The provider swaps the
+ * whole bundle in one write; a place or remove keeps the bundle it started with until it finishes.</p>
+ * <p>Snapshot storage, IO threads, the scheduler budget, and the FAWE backend are not part of the bundle and
+ * still need a restart.</p>
+ */
+final class ProviderSettings {
+
+    /** If true, air blocks in the schematic are ignored when pasting. */
+    final boolean ignoreAir;
+    /** World paste offsets. */
+    final int offX, offY, offZ;
+    /** If true, graves are turned to face the death direction ({@code paste.rotate}). */
+    final boolean rotate;
+    /** Direction the saved schematics face, as clockwise quarter turns from south. */
+    final int savedFacing;
+
+    /** Enables capture and restore of the pre-paste region. */
+    final boolean snapEnabled;
+    /** If true, snapshot region matches clipboard size; otherwise a fixed box is used. */
+    final boolean useGraveSize;
+    /** Fixed snapshot box size (used when {@link #useGraveSize} is false). */
+    final int boxX, boxY, boxZ;
+    /** If true, only the blocks the paste overwrites are captured (see {@link SparseSnapshot}). */
+    final boolean deltaSnapshots;
+    /** Snapshot codecs ({@code snapshot.format}). */
+    final SnapshotCodecs codecs;
+
+    /** Anchor material used to mark that a paste occurred. */
+    final Material anchorMat;
+    /** Anchor block offsets relative to the grave location. */
+    final int anchorOffX, anchorOffY, anchorOffZ;
+
+    /** Default grave schematic, or {@code null} if it could not be read. */
+    final LoadedSchematic graveSchematic;
+    /** Default grave file. */
+    final File graveFile;
+    /** Default grave plus <code>schematic.variants</code>, or {@code null} when there are no variants. */
+    final VariantPool defaultPool;
+    /** Compiled override selection rules. */
+    final SchematicRules rules;
+    /** Loaded override schematics. */
+    final ClipboardCache cache;
+    /** Small schematic pasted while the server is under load ({@code load.fallback-schematic}), or {@code null}. */
+    final LoadedSchematic fallbackSchematic;
+
+    private ProviderSettings(ModuleContext ctx, LoadedSchematic graveSchematic, File graveFile, VariantPool defaultPool,
+                             SchematicRules rules, ClipboardCache cache, LoadedSchematic fallbackSchematic) {
+        ConfigurationSection cfg = ctx.getConfig();
+        this.ignoreAir = cfg.getBoolean("paste.ignore-air", true);
+        this.offX = cfg.getInt("paste.offset.x", 0);
+        this.offY = cfg.getInt("paste.offset.y", 0);
+        this.offZ = cfg.getInt("paste.offset.z", 0);
+        this.rotate = cfg.getBoolean("paste.rotate", false);
+        this.savedFacing = facing(cfg.getString("paste.schematic-facing", "SOUTH"));
+
+        this.snapEnabled = cfg.getBoolean("snapshot.enabled", true);
+        this.useGraveSize = cfg.getBoolean("snapshot.use-grave-size", true);
+        this.boxX = Math.max(1, cfg.getInt("snapshot.box.x", 5));
+        this.boxY = Math.max(1, cfg.getInt("snapshot.box.y", 4));
+        this.boxZ = Math.max(1, cfg.getInt("snapshot.box.z", 5));
+        this.deltaSnapshots = "delta".equalsIgnoreCase(cfg.getString("snapshot.mode", "full"));
+        this.codecs = new SnapshotCodecs(
+                cfg.getString("snapshot.format", BinarySnapshotCodec.ID),
+                cfg.getBoolean("snapshot.compress", true)
+        );
+
+        Material mat;
+        try {
+            mat = Material.valueOf(cfg.getString("anchor.material", "POLISHED_BLACKSTONE_BUTTON").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            mat = Material.POLISHED_BLACKSTONE_BUTTON;
+        }
+        this.anchorMat = mat;
+        this.anchorOffX = cfg.getInt("anchor.offset.x", 0);
+        this.anchorOffY = cfg.getInt("anchor.offset.y", 0);
+        this.anchorOffZ = cfg.getInt("anchor.offset.z", 0);
+
+        this.graveSchematic = graveSchematic;
+        this.graveFile = graveFile;
+        this.defaultPool = defaultPool;
+        this.rules = rules;
+        this.cache = cache;
+        this.fallbackSchematic = fallbackSchematic;
+    }
+
+    /**
+     * Reads the current config and loads every schematic it references on the loader pool. Blocking;
+     * failures are logged once and leave a negative cache entry.
+     *
+     * @param ctx    module context
+     * @param loader pool that reads schematics
+     * @return new settings bundle
+     */
+    static ProviderSettings load(ModuleContext ctx, Executor loader) {
+        Logger log = ctx.getLogger();
+        ConfigurationSection cfg = ctx.getConfig();
+        boolean ignoreAir = cfg.getBoolean("paste.ignore-air", true);
+        boolean rotations = cfg.getBoolean("paste.rotate", false);
+
+        File graveSchem = new File(ctx.getDataFolder(), cfg.getString("schematic.grave", "schematics/grave.schem"));
+        CompletableFuture<LoadedSchematic> grave = CompletableFuture.supplyAsync(
+                () -> loadDefault(log, graveSchem, ignoreAir, rotations), loader);
+        String fallbackPath = cfg.getString("load.fallback-schematic", "");
+        CompletableFuture<LoadedSchematic> fallback = fallbackPath == null || fallbackPath.isBlank()
+                ? CompletableFuture.completedFuture(null)
+                : CompletableFuture.supplyAsync(
+                        () -> loadDefault(log, new File(ctx.getDataFolder(), fallbackPath), ignoreAir, rotations), loader);
+
+        SchematicRules rules = SchematicRules.compile(log, cfg, ctx.getDataFolder());
+        VariantPool variants = VariantPool.parse(log, cfg.getList("schematic.variants"),
+                path -> new File(path).isAbsolute() ? new File(path) : new File(ctx.getDataFolder(), path));
+        VariantPool defaultPool = variants != null
+                ? variants.with(graveSchem, Math.max(1, cfg.getInt("schematic.grave-weight", 1)))
+                : null;
+
+        ClipboardCache cache = new ClipboardCache(log, ignoreAir, rotations,
+                Math.max(1, cfg.getInt("schematic.cache.max-entries", 64)),
+                Math.max(1L, cfg.getLong("schematic.cache.max-blocks", 4_000_000L)),
+                loader);
+        List<File> preload = new ArrayList<>(rules.files());
+        if (variants != null) preload.addAll(variants.files());
+        cache.preload(preload);
+
+        return new ProviderSettings(ctx, grave.join(), graveSchem, defaultPool, rules, cache, fallback.join());
+    }
+
+    /**
+     * Picks the schematic for a paste without touching the disk. When the matching rule (or the default)
+     * has several variants, the grave UUID decides which one, the same way every time.
+     *
+     * @param world world of the paste
+     * @param biome biome at the paste anchor; only sampled by callers when {@link SchematicRules#usesBiome()}
+     * @param y     paste anchor Y
+     * @param id    grave UUID
+     * @return override or variant schematic if one is selected and loaded, otherwise the default (may be {@code null})
+     */
+    LoadedSchematic schematicFor(World world, Biome biome, int y, UUID id) {
+        VariantPool pool = rules.select(world, biome, y);
+        if (pool == null) pool = defaultPool;
+        if (pool == null) return graveSchematic;
+        File f = pool.pick(id);
+        if (f.equals(graveFile)) return graveSchematic;
+        LoadedSchematic override = cache.get(f);
+        return override != null ? override : graveSchematic;
+    }
+
+    /**
+     * Returns how far a grave is turned from the saved orientation to face the death direction.
+     *
+     * @param yaw yaw of the death location
+     * @return clockwise quarter turns, 0 when rotation is off
+     */
+    int turnsFor(float yaw) {
+        if (!rotate) return 0;
+        int facing = Math.floorMod(Math.round(yaw / 90.0F), 4);
+        return Math.floorMod(facing - savedFacing, 4);
+    }
+
+    /**
+     * Parses a horizontal direction into clockwise quarter turns from south.
+     *
+     * @param raw SOUTH, WEST, NORTH or EAST
+     * @return 0-3; unknown values count as south
+     */
+    private static int facing(String raw) {
+        switch (raw == null ? "" : raw.trim().toUpperCase(Locale.ROOT)) {
+            case "WEST": return 1;
+            case "NORTH": return 2;
+            case "EAST": return 3;
+            default: return 0;
+        }
+    }
+
+    /** @return number of schematics loaded, including the default */
+    int schematicCount() {
+        return cache.loadedCount() + (graveSchematic != null ? 1 : 0);
+    }
+
+    /**
+     * Reads and compiles the default grave schematic or the fallback schematic.
+     *
+     * @param log       logger for failures
+     * @param file      schematic file
+     * @param ignoreAir paste setting the plan is compiled for
+     * @param rotations also compile the rotated plans
+     * @return schematic or {@code null} if it is missing or unreadable
+     */
+    private static LoadedSchematic loadDefault(Logger log, File file, boolean ignoreAir, boolean rotations) {
+        if (!file.exists()) {
+            log.warning("[Schematics] Missing grave schematic: " + file.getPath());
+            return null;
+        }
+        try {
+            return LoadedSchematic.load(file, ignoreAir, rotations);
+        } catch (Throwable t) {
+            log.warning("[Schematics] Failed to read grave schematic: " + t.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Resolves a {@link Biome} from a key like {@code minecraft:plains}, {@code PLAINS}, or {@code plains}.
+     *
+     * @param raw biome key string
+     * @return resolved biome or {@code null} if unknown
+     */
+    static Biome resolveBiome(String raw) {
+        if (raw == null || raw.isBlank()) return null;
+
+        String normalized = raw.trim().replace(' ', '_').replace('-', '_');
+        NamespacedKey key = normalized.contains(":")
+                ? NamespacedKey.fromString(normalized.toLowerCase(Locale.ROOT))
+                : NamespacedKey.fromString("minecraft:" + normalized.toLowerCase(Locale.ROOT));
+
+        try {
+            Object server = Bukkit.getServer();
+            Object registryAccess = server.getClass().getMethod("getRegistryAccess").invoke(server);
+
+            Class<?> registryKeyCls = Class.forName("org.bukkit.RegistryKey");
+            Object BIOME_KEY = registryKeyCls.getField("BIOME").get(null);
+
+            Object registry = registryAccess.getClass()
+                    .getMethod("getRegistry", registryKeyCls)
+                    .invoke(registryAccess, BIOME_KEY);
+
+            if (key != null) {
+                Biome viaAccess = (Biome) registry.getClass()
+                        .getMethod("get", NamespacedKey.class)
+                        .invoke(registry, key);
+                if (viaAccess != null) return viaAccess;
+            }
+        } catch (Throwable ignored) {
+        }
+
+        try {
+            Class<?> registryCls = Class.forName("org.bukkit.Registry");
+            Object biomeRegistry = registryCls.getField("BIOME").get(null);
+            if (biomeRegistry != null && key != null) {
+                Biome viaDeprecated = (Biome) biomeRegistry.getClass()
+                        .getMethod("get", NamespacedKey.class)
+                        .invoke(biomeRegistry, key);
+                if (viaDeprecated != null) return viaDeprecated;
+            }
+        } catch (Throwable ignored) {
+        }
+
+        try {
+            return Biome.valueOf(normalized.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+}
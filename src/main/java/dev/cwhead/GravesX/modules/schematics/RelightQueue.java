@@ -0,0 +1,162 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import com.sk89q.worldedit.WorldEditException;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.util.SideEffect;
+import com.sk89q.worldedit.util.SideEffectSet;
+import com.sk89q.worldedit.world.World;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.logging.Logger;
+
+/**
+ * Lighting work left behind by edit sessions that run with lighting off.
+ * <p>Every paste, restore, or clear marks the bounds it wrote. Once per tick {@link #drain()} relights queued
+ * positions through WorldEdit's lighting side effect, which only queues light checks that the server's light
+ * engine then processes together, up to a per-tick limit; the rest carries over. A region already covered by
+ * a queued one is dropped, and queued regions covered by a new one are replaced by it, so overlapping graves
+ * are relit once. Marking is thread-safe; draining runs on the server thread.</p>
+ */
+final class RelightQueue {
+
+    /** Side effects applied per position: lighting only. */
+    private static final SideEffectSet LIGHTING = SideEffectSet.none().with(SideEffect.LIGHTING, SideEffect.State.ON);
+
+    /** Logger for relight failures. */
+    private final Logger logger;
+    /** Positions relit per tick. */
+    private final int perTick;
+    /** Phase timings. */
+    private final GraveMetrics metrics;
+    /** Regions waiting, oldest first; guarded by {@code this}. */
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+
+    /**
+     * Creates an empty queue.
+     *
+     * @param logger  logger
+     * @param perTick positions relit per {@link #drain()}
+     * @param metrics phase timings
+     */
+    RelightQueue(Logger logger, int perTick, GraveMetrics metrics) {
+        this.logger = logger;
+        this.perTick = perTick;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Queues a region for relighting.
+     *
+     * @param world  worldedit world
+     * @param bounds min x/y/z, max x/y/z
+     */
+    synchronized void mark(World world, int[] bounds) {
+        Iterator<Pending> it = queue.iterator();
+        while (it.hasNext()) {
+            Pending p = it.next();
+            if (!p.world.equals(world)) continue;
+            if (contains(p.bounds, bounds) && p.cursor == 0L) return;
+            if (contains(bounds, p.bounds) && p.cursor == 0L) it.remove();
+        }
+        queue.add(new Pending(world, bounds));
+    }
+
+    /** @return number of regions waiting */
+    synchronized int size() {
+        return queue.size();
+    }
+
+    /** Relights up to the per-tick limit of queued positions. Server thread only. */
+    void drain() {
+        int budget = perTick;
+        long t0 = GraveMetrics.start();
+        boolean worked = false;
+        while (budget > 0) {
+            Pending p;
+            synchronized (this) {
+                p = queue.peek();
+            }
+            if (p == null) break;
+            worked = true;
+            budget -= p.relight(budget);
+            if (p.done()) {
+                synchronized (this) {
+                    queue.remove(p);
+                }
+            }
+        }
+        if (worked) metrics.record(GraveMetrics.Phase.RELIGHT, t0);
+    }
+
+    /** Relights everything queued, ignoring the per-tick limit; used on shutdown. Server thread only. */
+    void drainAll() {
+        Pending p;
+        while (true) {
+            synchronized (this) {
+                p = queue.poll();
+            }
+            if (p == null) return;
+            while (!p.done()) p.relight(Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * @param outer bounds
+     * @param inner bounds
+     * @return true if {@code outer} contains {@code inner}
+     */
+    private static boolean contains(int[] outer, int[] inner) {
+        return outer[0] <= inner[0] && outer[1] <= inner[1] && outer[2] <= inner[2]
+                && outer[3] >= inner[3] && outer[4] >= inner[4] && outer[5] >= inner[5];
+    }
+
+    /** A region being relit, with the index of the next position. */
+    private final class Pending {
+        /** World. */
+        final World world;
+        /** Bounds as min x/y/z, max x/y/z. */
+        final int[] bounds;
+        /** Positions in the region. */
+        final long volume;
+        /** Next position, x fastest, then z, then y; only advanced on the server thread. */
+        volatile long cursor;
+
+        Pending(World world, int[] bounds) {
+            this.world = world;
+            this.bounds = bounds;
+            this.volume = (long) (bounds[3] - bounds[0] + 1) * (bounds[4] - bounds[1] + 1) * (bounds[5] - bounds[2] + 1);
+        }
+
+        /** @return true once every position was relit */
+        boolean done() {
+            return cursor >= volume;
+        }
+
+        /**
+         * Relights positions from the cursor on.
+         *
+         * @param max maximum positions
+         * @return positions relit
+         */
+        int relight(int max) {
+            int sx = bounds[3] - bounds[0] + 1, sz = bounds[5] - bounds[2] + 1;
+            int n = 0;
+            while (n < max && cursor < volume) {
+                long i = cursor++;
+                BlockVector3 pos = BlockVector3.at(
+                        bounds[0] + (int) (i % sx),
+                        bounds[1] + (int) (i / ((long) sx * sz)),
+                        bounds[2] + (int) ((i / sx) % sz));
+                try {
+                    world.applySideEffects(pos, world.getBlock(pos), LIGHTING);
+                } catch (WorldEditException e) {
+                    logger.warning("[Schematics] Relight failed at " + pos + ": " + e.getMessage());
+                    cursor = volume;
+                }
+                n++;
+            }
+            return n;
+        }
+    }
+}
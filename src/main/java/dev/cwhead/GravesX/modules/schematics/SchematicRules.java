@@ -0,0 +1,375 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import io.papermc.paper.registry.RegistryAccess;
+import io.papermc.paper.registry.RegistryKey;
+import io.papermc.paper.registry.TypedKey;
+import io.papermc.paper.registry.tag.Tag;
+import io.papermc.paper.registry.tag.TagKey;
+import net.kyori.adventure.key.Key;
+import org.bukkit.Registry;
+import org.bukkit.World;
+import org.bukkit.block.Biome;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Compiled schematic selection rules.
+ * <p>Rules come from <code>schematic.rules</code> (world, environment, Y band, biomes and biome tags, priority)
+ * and from the older <code>schematic.override.biomes</code> list, which becomes priority-0 biome rules.
+ * Biome keys and tags are resolved against the registry once, at load. Per world and biome the rules are
+ * then flattened into a table holding the winning schematic pool for every Y level, built the first time that
+ * pair is seen, so {@link #select(World, Biome, int)} is two map lookups and an array read.</p>
+ */
+final class SchematicRules {
+
+    /** Rules with no entries; every lookup falls through to the default schematic. */
+    static final SchematicRules EMPTY = new SchematicRules(new Rule[0], new VariantPool[0]);
+
+    /** Table entry meaning "no rule matched". */
+    private static final int NONE = -1;
+
+    /** Rules in evaluation order: priority descending, then config order. */
+    private final Rule[] rules;
+    /** Schematic pools; rule and table entries index into this. */
+    private final VariantPool[] pools;
+    /** True if any rule constrains the biome, so callers must sample it. */
+    private final boolean usesBiome;
+    /** Per-world tables, by world UID. */
+    private final Map<UUID, WorldTable> worlds = new ConcurrentHashMap<>();
+
+    private SchematicRules(Rule[] rules, VariantPool[] pools) {
+        this.rules = rules;
+        this.pools = pools;
+        boolean biome = false;
+        for (Rule r : rules) biome |= r.biomes != null;
+        this.usesBiome = biome;
+    }
+
+    /**
+     * Parses and compiles the rule configuration. Invalid entries are logged and skipped. A rule's
+     * <code>schematic</code> is a path or a weighted list of variants (see {@link VariantPool#parse}).
+     *
+     * @param log        logger for config problems
+     * @param cfg        module config
+     * @param dataFolder base for relative schematic paths
+     * @return compiled rules
+     */
+    static SchematicRules compile(Logger log, ConfigurationSection cfg, File dataFolder) {
+        List<VariantPool> pools = new ArrayList<>();
+        List<Rule> parsed = new ArrayList<>();
+        int order = 0;
+
+        for (Map<?, ?> raw : cfg.getMapList("schematic.rules")) {
+            Object schem = raw.get("schematic");
+            VariantPool pool = VariantPool.parse(log, schem, path -> resolveFile(dataFolder, path));
+            if (pool == null) {
+                log.warning("[Schematics] Rule without a schematic: " + raw);
+                continue;
+            }
+            int poolId = pools.size();
+            pools.add(pool);
+
+            Set<String> worldNames = null;
+            Collection<?> ws = list(raw.get("worlds"));
+            if (ws != null) {
+                worldNames = new HashSet<>();
+                for (Object w : ws) worldNames.add(String.valueOf(w).toLowerCase(Locale.ROOT));
+            }
+
+            EnumSet<World.Environment> envs = null;
+            Collection<?> es = list(raw.get("environments"));
+            if (es != null) {
+                envs = EnumSet.noneOf(World.Environment.class);
+                for (Object e : es) {
+                    try {
+                        envs.add(World.Environment.valueOf(String.valueOf(e).trim().toUpperCase(Locale.ROOT)));
+                    } catch (IllegalArgumentException ex) {
+                        log.warning("[Schematics] Unknown environment in rule for " + schem + ": " + e);
+                    }
+                }
+            }
+
+            Set<Biome> biomes = null;
+            Collection<?> bs = list(raw.get("biomes"));
+            if (bs != null) {
+                biomes = new HashSet<>();
+                for (Object b : bs) {
+                    String key = String.valueOf(b).trim();
+                    if (key.startsWith("#")) {
+                        Set<Biome> tagged = resolveBiomeTag(log, key.substring(1));
+                        if (tagged != null) biomes.addAll(tagged);
+                    } else {
+                        Biome biome = ProviderSettings.resolveBiome(key);
+                        if (biome != null) biomes.add(biome);
+                        else log.warning("[Schematics] Unknown biome in rule for " + schem + ": " + key);
+                    }
+                }
+            }
+
+            int yMin = number(raw.get("y-min"), Integer.MIN_VALUE);
+            int yMax = number(raw.get("y-max"), Integer.MAX_VALUE);
+            int priority = number(raw.get("priority"), 0);
+            parsed.add(new Rule(poolId, priority, order++, worldNames, envs, biomes, yMin, yMax));
+        }
+
+        for (String line : cfg.getStringList("schematic.override.biomes")) {
+            if (line == null || line.isBlank()) continue;
+            String[] parts = line.split(":", 2);
+            if (parts.length < 2) {
+                log.warning("[Schematics] Invalid biome override entry (missing ':'): " + line);
+                continue;
+            }
+
+            String biomeKey = parts[0].trim();
+            Biome biome = ProviderSettings.resolveBiome(biomeKey);
+            if (biome == null) {
+                log.warning("[Schematics] Unknown biome in override: " + biomeKey + " (entry: " + line + ")");
+                continue;
+            }
+            int poolId = pools.size();
+            pools.add(VariantPool.of(resolveFile(dataFolder, parts[1].trim())));
+            parsed.add(new Rule(poolId, 0, order++, null, null, Collections.singleton(biome), Integer.MIN_VALUE, Integer.MAX_VALUE));
+        }
+
+        if (parsed.isEmpty()) return EMPTY;
+        parsed.sort(Comparator.comparingInt((Rule r) -> -r.priority).thenComparingInt(r -> r.order));
+        return new SchematicRules(parsed.toArray(new Rule[0]), pools.toArray(new VariantPool[0]));
+    }
+
+    /** @return true if there are no rules */
+    boolean isEmpty() {
+        return rules.length == 0;
+    }
+
+    /** @return true if any rule looks at the biome */
+    boolean usesBiome() {
+        return usesBiome;
+    }
+
+    /** @return every distinct schematic file a rule can select */
+    List<File> files() {
+        Set<File> out = new LinkedHashSet<>();
+        for (VariantPool p : pools) out.addAll(p.files());
+        return new ArrayList<>(out);
+    }
+
+    /**
+     * Picks the schematic for a paste.
+     *
+     * @param world world of the paste
+     * @param biome biome at the paste anchor, may be {@code null} when {@link #usesBiome()} is false
+     * @param y     paste anchor Y
+     * @return selected schematic pool, or {@code null} to use the default
+     */
+    VariantPool select(World world, Biome biome, int y) {
+        if (rules.length == 0) return null;
+        WorldTable table = worlds.computeIfAbsent(world.getUID(), k -> new WorldTable(world));
+        int idx = table.pick(biome, y);
+        return idx == NONE ? null : pools[idx];
+    }
+
+    /**
+     * Resolves a schematic path against the data folder.
+     *
+     * @param dataFolder module data folder
+     * @param path       configured path
+     * @return file
+     */
+    private static File resolveFile(File dataFolder, String path) {
+        File f = new File(path);
+        return f.isAbsolute() ? f : new File(dataFolder, path);
+    }
+
+    /**
+     * Resolves a biome tag such as {@code minecraft:is_badlands} through Paper's registry API.
+     *
+     * @param log logger
+     * @param raw tag key without the leading '#'
+     * @return biomes in the tag, or {@code null} if the tag is unknown or unsupported by the server
+     */
+    private static Set<Biome> resolveBiomeTag(Logger log, String raw) {
+        try {
+            String normalized = raw.toLowerCase(Locale.ROOT);
+            Key key = Key.key(normalized.contains(":") ? normalized : "minecraft:" + normalized);
+            Registry<Biome> registry = RegistryAccess.registryAccess().getRegistry(RegistryKey.BIOME);
+            TagKey<Biome> tagKey = TagKey.create(RegistryKey.BIOME, key);
+            if (!registry.hasTag(tagKey)) {
+                log.warning("[Schematics] Unknown biome tag: #" + raw);
+                return null;
+            }
+            Tag<Biome> tag = registry.getTag(tagKey);
+            Set<Biome> out = new HashSet<>();
+            for (TypedKey<Biome> k : tag.values()) {
+                Biome b = registry.get(k.key());
+                if (b != null) out.add(b);
+            }
+            return out;
+        } catch (Throwable t) {
+            log.warning("[Schematics] Biome tags are not supported on this server (#" + raw + "): " + t.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads a config list value, accepting a single scalar as a one-element list.
+     *
+     * @param v raw value
+     * @return list or {@code null} if absent
+     */
+    private static Collection<?> list(Object v) {
+        if (v == null) return null;
+        if (v instanceof Collection) return (Collection<?>) v;
+        return List.of(v);
+    }
+
+    /**
+     * Reads a config number.
+     *
+     * @param v   raw value
+     * @param def default when absent or not a number
+     * @return int value
+     */
+    private static int number(Object v, int def) {
+        if (v instanceof Number) return ((Number) v).intValue();
+        if (v instanceof String) {
+            try {
+                return Integer.parseInt(((String) v).trim());
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return def;
+    }
+
+    /** One parsed rule; {@code null} constraint sets match anything. */
+    private static final class Rule {
+        /** Index into {@link #pools}. */
+        final int pool;
+        /** Higher wins. */
+        final int priority;
+        /** Config order, breaks priority ties. */
+        final int order;
+        /** Lower-cased world names. */
+        final Set<String> worlds;
+        /** World environments. */
+        final EnumSet<World.Environment> environments;
+        /** Biomes, tags already expanded. */
+        final Set<Biome> biomes;
+        /** Inclusive Y band. */
+        final int yMin, yMax;
+
+        Rule(int pool, int priority, int order, Set<String> worlds, EnumSet<World.Environment> environments,
+             Set<Biome> biomes, int yMin, int yMax) {
+            this.pool = pool;
+            this.priority = priority;
+            this.order = order;
+            this.worlds = worlds;
+            this.environments = environments;
+            this.biomes = biomes;
+            this.yMin = yMin;
+            this.yMax = yMax;
+        }
+
+        /**
+         * Checks the world-level constraints.
+         *
+         * @param world world
+         * @return true if the rule can apply in the world
+         */
+        boolean matchesWorld(World world) {
+            if (worlds != null && !worlds.contains(world.getName().toLowerCase(Locale.ROOT))) return false;
+            return environments == null || environments.contains(world.getEnvironment());
+        }
+    }
+
+    /** Rules applicable to one world, flattened per biome into Y-indexed schematic tables. */
+    private final class WorldTable {
+        /** Lowest buildable Y. */
+        final int minY;
+        /** Rules that can apply in this world, in evaluation order. */
+        final Rule[] applicable;
+        /** Table shared by every biome no rule names. */
+        final int[] anyBiome;
+        /** Tables for biomes some rule names. */
+        final Map<Biome, int[]> byBiome = new ConcurrentHashMap<>();
+
+        WorldTable(World world) {
+            this.minY = world.getMinHeight();
+            List<Rule> list = new ArrayList<>();
+            for (Rule r : rules) if (r.matchesWorld(world)) list.add(r);
+            this.applicable = list.toArray(new Rule[0]);
+            this.anyBiome = build(null, world.getMaxHeight() - minY);
+        }
+
+        /**
+         * Looks up the winning schematic pool.
+         *
+         * @param biome biome or {@code null}
+         * @param y     Y level
+         * @return pool index or {@link #NONE}
+         */
+        int pick(Biome biome, int y) {
+            int[] table = anyBiome;
+            if (usesBiome && biome != null) {
+                table = byBiome.computeIfAbsent(biome, b -> named(b) ? build(b, anyBiome.length) : anyBiome);
+            }
+            int i = y - minY;
+            if (i >= 0 && i < table.length) return table[i];
+            return evaluate(biome, y);
+        }
+
+        /**
+         * Returns whether any applicable rule names a biome.
+         *
+         * @param biome biome
+         * @return true if the biome needs its own table
+         */
+        private boolean named(Biome biome) {
+            for (Rule r : applicable) if (r.biomes != null && r.biomes.contains(biome)) return true;
+            return false;
+        }
+
+        /**
+         * Fills the Y table for a biome.
+         *
+         * @param biome  biome, or {@code null} for biomes no rule names
+         * @param height number of Y levels
+         * @return pool index per Y level
+         */
+        private int[] build(Biome biome, int height) {
+            int[] table = new int[Math.max(0, height)];
+            for (int i = 0; i < table.length; i++) table[i] = evaluate(biome, minY + i);
+            return table;
+        }
+
+        /**
+         * Evaluates the rules directly.
+         *
+         * @param biome biome or {@code null}
+         * @param y     Y level
+         * @return pool index of the first matching rule or {@link #NONE}
+         */
+        private int evaluate(Biome biome, int y) {
+            for (Rule r : applicable) {
+                if (y < r.yMin || y > r.yMax) continue;
+                if (r.biomes != null && (biome == null || !r.biomes.contains(biome))) continue;
+                return r.pool;
+            }
+            return NONE;
+        }
+    }
+}
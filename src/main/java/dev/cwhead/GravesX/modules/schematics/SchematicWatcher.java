@@ -0,0 +1,90 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Watches the schematics folder and fires a callback once changes have settled.
+ * <p>Editors and uploads usually produce several events per file; the callback runs once no further event
+ * has arrived for the debounce period.</p>
+ */
+final class SchematicWatcher implements Runnable {
+
+    /** Logger for watcher failures. */
+    private final Logger logger;
+    /** Quiet period before the callback fires. */
+    private final long debounceMillis;
+    /** Invoked on the watcher thread after changes settle. */
+    private final Runnable onChange;
+    /** Underlying watch service. */
+    private final WatchService watch;
+    /** Watcher thread. */
+    private final Thread thread;
+
+    /**
+     * Starts watching a directory.
+     *
+     * @param logger         logger
+     * @param dir            directory to watch
+     * @param debounceMillis quiet period before {@code onChange} runs
+     * @param onChange       callback
+     * @throws IOException if the directory cannot be watched
+     */
+    SchematicWatcher(Logger logger, Path dir, long debounceMillis, Runnable onChange) throws IOException {
+        this.logger = logger;
+        this.debounceMillis = debounceMillis;
+        this.onChange = onChange;
+        this.watch = FileSystems.getDefault().newWatchService();
+        dir.register(watch,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        this.thread = new SnapshotIO.NamedThreadFactory("GravesX-Schematics-Watcher").newThread(this);
+        this.thread.start();
+    }
+
+    /** Waits for events, coalescing bursts into a single callback. */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                WatchKey key = watch.take();
+                drain(key);
+                WatchKey next;
+                while ((next = watch.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) drain(next);
+                try {
+                    onChange.run();
+                } catch (Throwable t) {
+                    logger.warning("[Schematics] Reload after schematic change failed: " + t.getMessage());
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignored) {
+        }
+    }
+
+    /** Stops the watcher thread. */
+    void close() {
+        try {
+            watch.close();
+        } catch (IOException ignored) {
+        }
+        thread.interrupt();
+    }
+
+    /**
+     * Discards the events of a key and re-arms it.
+     *
+     * @param key signalled key
+     */
+    private static void drain(WatchKey key) {
+        key.pollEvents();
+        key.reset();
+    }
+}
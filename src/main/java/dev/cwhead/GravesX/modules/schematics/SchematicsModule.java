@@ -4,23 +4,36 @@ import dev.cwhead.GravesX.api.provider.GraveProvider;
 import dev.cwhead.GravesX.module.GravesXModule;
 import dev.cwhead.GravesX.module.ModuleContext;
 import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.ServicePriority;
 
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * GravesX module that wires the WorldEdit-backed schematic provider into the plugin.
  * <p>Lifecycle:</p>
  * <ol>
  *   <li>{@link #onModuleLoad(ModuleContext)} copies default config and ships the default <code>grave.schem</code>.</li>
  *   <li>{@link #onModuleEnable(ModuleContext)} ensures WorldEdit/FAWE is present and registers a {@link GraveProvider}.</li>
- *   <li>{@link #onModuleDisable(ModuleContext)} releases the provider reference.</li>
+ *   <li>{@link #onModuleDisable(ModuleContext)} flushes pending snapshot writes and releases the provider reference.</li>
  * </ol>
+ * <p>The admin command lives in another package and reaches the enabled provider through {@link #reload()} and {@link #stats(boolean)}.</p>
  */
 public final class SchematicsModule extends GravesXModule {
 
+    /** Enabled module instance, or {@code null} while the module is disabled. */
+    private static volatile SchematicsModule enabled;
+
     /**
      * The registered schematic provider instance, or {@code null} when disabled or not available.
      */
     private WorldEditSnapshotProvider provider;
+    /** Module context captured on enable. */
+    private ModuleContext ctx;
+    /** Schematics folder watcher, or {@code null} when <code>reload.watch</code> is off. */
+    private SchematicWatcher watcher;
 
     /**
      * Loads module assets: saves the default configuration and ensures the bundled grave schematic exists.
@@ -47,19 +60,70 @@ public final class SchematicsModule extends GravesXModule {
             ctx.getLogger().severe("[Schematics] Neither WorldEdit nor FastAsyncWorldEdit is installed.");
             ctx.getGravesXModules().disableModule();
         }
+        this.ctx = ctx;
         provider = new WorldEditSnapshotProvider(ctx);
         ctx.registerService(GraveProvider.class, provider, ServicePriority.Normal);
-        ctx.getLogger().info("[Schematics] Registered provider: " + provider.id());
+        ctx.getLogger().info("[Schematics] Registered provider: " + provider.id() + " (" + provider.backend().name() + ")");
+
+        if (ctx.getConfig().getBoolean("reload.watch", false)) {
+            File dir = new File(ctx.getDataFolder(), "schematics");
+            try {
+                watcher = new SchematicWatcher(ctx.getLogger(), dir.toPath(),
+                        Math.max(100L, ctx.getConfig().getLong("reload.watch-debounce-ms", 1000L)),
+                        () -> ServerTasks.run(ctx.getPlugin(), () -> {
+                            CompletableFuture<String> done = reload();
+                            if (done != null) done.thenAccept(msg -> ctx.getLogger().info("[Schematics] Schematics changed; " + msg));
+                        }));
+            } catch (Exception e) {
+                ctx.getLogger().warning("[Schematics] Could not watch " + dir.getPath() + ": " + e.getMessage());
+            }
+        }
+        enabled = this;
     }
 
     /**
-     * Disables the module by clearing the provider reference.
+     * Disables the module by flushing pending snapshot writes and clearing the provider reference.
      *
-     * @param ctx module context (unused)
+     * @param ctx module context used for logging
      */
     @Override
     public void onModuleDisable(ModuleContext ctx) {
+        enabled = null;
+        if (watcher != null) watcher.close();
+        watcher = null;
+        if (provider != null) provider.shutdown();
         provider = null;
         ctx.getLogger().info("[Schematics] Unloaded Schematics provider.");
     }
-}
\ No newline at end of file
+
+    /**
+     * Re-reads <code>config.yml</code> and rebuilds the provider's settings and schematics off-thread.
+     * Call on the server thread.
+     *
+     * @return future completing on the server thread (on Folia, the global region) with a short summary once
+     *         the new settings are active, or {@code null} if the module is not enabled
+     */
+    public static CompletableFuture<String> reload() {
+        SchematicsModule m = enabled;
+        if (m == null || m.provider == null) return null;
+        m.ctx.reloadConfig();
+        Plugin plugin = m.ctx.getPlugin();
+        return m.provider.reload().thenApply(s ->
+                "reloaded " + s.schematicCount() + " schematic(s)" + (s.graveSchematic == null ? " (default grave schematic missing)" : ""))
+                .whenCompleteAsync((msg, t) -> { }, task -> ServerTasks.run(plugin, task));
+    }
+
+    /**
+     * Returns the provider's phase timings, queue depths and cache counters.
+     *
+     * @param reset clear the timings after reading them
+     * @return report lines, or {@code null} if the module is not enabled
+     */
+    public static List<String> stats(boolean reset) {
+        SchematicsModule m = enabled;
+        if (m == null || m.provider == null) return null;
+        List<String> lines = m.provider.stats();
+        if (reset) m.provider.resetStats();
+        return lines;
+    }
+}
@@ -0,0 +1,594 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Packs snapshots into rolling, append-only segment files with a UUID-to-offset index.
+ * <p>Each record is <code>magic, uuid, type, length, crc32, data</code>; deletes append a tombstone. Sealed
+ * segments are read through memory maps. The index is checkpointed to <code>index.dat</code> together with
+ * each segment's length at that point, so opening the store only scans records appended after the last
+ * checkpoint. A background task rewrites the live records of mostly-dead segments into the active one and
+ * deletes the old file.</p>
+ * <p>Grave UUIDs not in the index fall through to the {@code legacy} store, so per-file backups written
+ * before switching stores still restore.</p>
+ */
+final class SegmentSnapshotStore implements SnapshotStore {
+
+    /** Record magic, "GXSR". */
+    private static final int RECORD_MAGIC = 0x47585352;
+    /** Index checkpoint magic, "GXSI". */
+    private static final int INDEX_MAGIC = 0x47585349;
+    /** Index checkpoint version. */
+    private static final int INDEX_VERSION = 1;
+    /** Record header size: magic, uuid, type, length, crc. */
+    private static final int HEADER = 4 + 16 + 1 + 4 + 4;
+    /** Record type: snapshot data. */
+    private static final byte PUT = 0;
+    /** Record type: delete marker. */
+    private static final byte TOMBSTONE = 1;
+    /** Largest segment a memory map, and an int offset into it, can address; segments roll over before it. */
+    private static final long MAX_SEGMENT = Integer.MAX_VALUE;
+
+    /** Logger for recovery and compaction messages. */
+    private final Logger logger;
+    /** Segment directory. */
+    private final File dir;
+    /** Size at which the active segment is sealed and a new one started. */
+    private final long segmentSize;
+    /** Live-byte ratio under which a sealed segment is compacted. */
+    private final double compactThreshold;
+    /** If true, every append is forced to disk. */
+    private final boolean fsync;
+    /** Store consulted for graves not in the index. */
+    private final SnapshotStore legacy;
+
+    /** Guards {@link #index}, {@link #segments}, and {@link #active}. */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Location of each live snapshot. */
+    private final Map<UUID, Entry> index = new HashMap<>();
+    /** Open segments by id. */
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    /** Segment receiving appends. */
+    private Segment active;
+
+    /** Background compaction and checkpoint task. */
+    private final ScheduledExecutorService maintenance;
+
+    /**
+     * Opens (or creates) a segment store.
+     *
+     * @param logger            logger
+     * @param dir               segment directory
+     * @param segmentSize       bytes per segment before rolling, capped at 2 GiB
+     * @param compactThreshold  live-byte ratio under which sealed segments are compacted
+     * @param compactMinutes    minutes between compaction passes
+     * @param fsync             force every append to disk
+     * @param legacy            fallback store for graves not in the index, may be {@code null}
+     * @throws IOException if the directory cannot be opened
+     */
+    SegmentSnapshotStore(Logger logger, File dir, long segmentSize, double compactThreshold, long compactMinutes,
+                         boolean fsync, SnapshotStore legacy) throws IOException {
+        this.logger = logger;
+        this.dir = dir;
+        this.segmentSize = Math.min(segmentSize, MAX_SEGMENT);
+        this.compactThreshold = compactThreshold;
+        this.fsync = fsync;
+        this.legacy = legacy;
+        if (!dir.exists() && !dir.mkdirs()) throw new IOException("Cannot create " + dir.getPath());
+
+        recover();
+
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(new SnapshotIO.NamedThreadFactory("GravesX-Schematics-Compactor"));
+        this.maintenance.scheduleWithFixedDelay(this::maintain, compactMinutes, compactMinutes, TimeUnit.MINUTES);
+    }
+
+    /** {@inheritDoc} */
+    @Override public String name() {
+        return "segments";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void put(UUID id, String extension, byte[] data) throws IOException {
+        lock.writeLock().lock();
+        try {
+            Entry entry = append(id, PUT, data);
+            Entry old = index.put(id, entry);
+            if (old != null) release(old);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public InputStream open(UUID id) throws IOException {
+        lock.readLock().lock();
+        try {
+            Entry e = index.get(id);
+            if (e != null) return new ByteArrayInputStream(read(e));
+        } finally {
+            lock.readLock().unlock();
+        }
+        return legacy != null ? legacy.open(id) : null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean contains(UUID id) {
+        lock.readLock().lock();
+        try {
+            if (index.containsKey(id)) return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+        return legacy != null && legacy.contains(id);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean delete(UUID id) {
+        boolean deleted = false;
+        lock.writeLock().lock();
+        try {
+            Entry old = index.remove(id);
+            if (old != null) {
+                release(old);
+                append(id, TOMBSTONE, new byte[0]);
+                deleted = true;
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "[Schematics] Could not append tombstone for " + id, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (legacy != null && legacy.delete(id)) deleted = true;
+        return deleted;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>Records carry no timestamp, so each one reports its segment file's modification time.</p>
+     */
+    @Override
+    public List<Stored> list() {
+        List<Stored> out = new ArrayList<>();
+        Set<UUID> indexed;
+        lock.readLock().lock();
+        try {
+            indexed = new HashSet<>(index.keySet());
+            for (Map.Entry<UUID, Entry> me : index.entrySet()) {
+                Segment s = segments.get(me.getValue().segment);
+                out.add(new Stored(me.getKey(), me.getValue().length, s != null ? s.file.lastModified() : System.currentTimeMillis()));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (legacy != null) {
+            for (Stored st : legacy.list()) if (!indexed.contains(st.id)) out.add(st);
+        }
+        return out;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long retryDeletes() {
+        return legacy != null ? legacy.retryDeletes() : 0L;
+    }
+
+    /** Stops maintenance, writes a final checkpoint, and closes segment files. */
+    @Override
+    public void close() {
+        maintenance.shutdown();
+        try {
+            maintenance.awaitTermination(30L, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.writeLock().lock();
+        try {
+            checkpoint();
+            for (Segment s : segments.values()) s.channel.close();
+            segments.clear();
+            active = null;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "[Schematics] Could not close snapshot segments cleanly", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends a record to the active segment, rolling to a new segment when full. Caller holds the write lock.
+     *
+     * @param id   grave UUID
+     * @param type record type
+     * @param data payload
+     * @return location of the payload
+     * @throws IOException if the write fails or the record is too large for any segment
+     */
+    private Entry append(UUID id, byte type, byte[] data) throws IOException {
+        if ((long) HEADER + data.length > MAX_SEGMENT) {
+            throw new IOException("Snapshot record of " + data.length + " bytes does not fit in a segment");
+        }
+        int recordLen = HEADER + data.length;
+        if (active == null || (active.size > 0 && active.size + recordLen > segmentSize)) roll();
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteBuffer buf = ByteBuffer.allocate(recordLen);
+        buf.putInt(RECORD_MAGIC)
+                .putLong(id.getMostSignificantBits())
+                .putLong(id.getLeastSignificantBits())
+                .put(type)
+                .putInt(data.length)
+                .putInt((int) crc.getValue())
+                .put(data)
+                .flip();
+
+        long pos = active.size;
+        while (buf.hasRemaining()) active.channel.write(buf, pos + buf.position());
+        if (fsync) active.channel.force(false);
+        active.size += recordLen;
+        if (type == PUT) active.live += recordLen;
+        return new Entry(active.id, pos + HEADER, data.length, (int) crc.getValue());
+    }
+
+    /**
+     * Seals the active segment and opens the next one. Caller holds the write lock.
+     *
+     * @throws IOException if the new segment cannot be created
+     */
+    private void roll() throws IOException {
+        if (active != null) active.channel.force(true);
+        int next = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        active = openSegment(next);
+        segments.put(next, active);
+    }
+
+    /**
+     * Marks a superseded or deleted record as dead. Caller holds the write lock.
+     *
+     * @param e superseded entry
+     */
+    private void release(Entry e) {
+        Segment s = segments.get(e.segment);
+        if (s != null) s.live -= HEADER + e.length;
+    }
+
+    /**
+     * Reads and verifies a payload. Sealed segments are read through a cached memory map. Caller holds a lock.
+     *
+     * @param e entry to read
+     * @return payload bytes
+     * @throws IOException if the segment is missing or the payload is corrupt
+     */
+    private byte[] read(Entry e) throws IOException {
+        Segment s = segments.get(e.segment);
+        if (s == null) throw new IOException("Missing snapshot segment " + e.segment);
+
+        byte[] data = new byte[e.length];
+        if (s == active) {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            while (buf.hasRemaining()) {
+                if (s.channel.read(buf, e.offset + buf.position()) < 0) throw new IOException("Truncated snapshot record");
+            }
+        } else {
+            s.mapped().slice((int) e.offset, e.length).get(data);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if ((int) crc.getValue() != e.crc) throw new IOException("Snapshot record checksum mismatch");
+        return data;
+    }
+
+    /** Scheduled pass: compact sparse segments, then checkpoint the index. */
+    private void maintain() {
+        try {
+            compact();
+            lock.writeLock().lock();
+            try {
+                checkpoint();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (Throwable t) {
+            logger.log(Level.WARNING, "[Schematics] Snapshot segment maintenance failed", t);
+        }
+    }
+
+    /**
+     * Rewrites live records of sealed segments below the live-byte threshold into the active segment and
+     * deletes the old files. Copies are made without the write lock; each move re-checks that the record is
+     * still current before updating the index.
+     *
+     * @throws IOException if a copy fails
+     */
+    private void compact() throws IOException {
+        List<Segment> candidates = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Segment s : segments.values()) {
+                if (s == active || s.size == 0) continue;
+                if ((double) s.live / s.size < compactThreshold) candidates.add(s);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        long reclaimed = 0;
+        for (Segment s : candidates) {
+            List<Map.Entry<UUID, Entry>> live = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                for (Map.Entry<UUID, Entry> me : index.entrySet()) {
+                    if (me.getValue().segment == s.id) live.add(Map.entry(me.getKey(), me.getValue()));
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            for (Map.Entry<UUID, Entry> me : live) {
+                byte[] data;
+                lock.readLock().lock();
+                try {
+                    if (index.get(me.getKey()) != me.getValue()) continue;
+                    data = read(me.getValue());
+                } finally {
+                    lock.readLock().unlock();
+                }
+                lock.writeLock().lock();
+                try {
+                    if (index.get(me.getKey()) != me.getValue()) continue;
+                    release(me.getValue());
+                    index.put(me.getKey(), append(me.getKey(), PUT, data));
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+
+            lock.writeLock().lock();
+            try {
+                if (s.live <= 0 && s != active) {
+                    reclaimed += s.size;
+                    segments.remove(s.id);
+                    s.channel.close();
+                    s.map = null;
+                    checkpoint();
+                    Files.deleteIfExists(s.file.toPath());
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        if (reclaimed > 0) {
+            logger.info("[Schematics] Compacted snapshot segments, reclaimed " + (reclaimed / 1024) + " KiB.");
+        }
+    }
+
+    /**
+     * Writes the index and each segment's current length to <code>index.dat</code>. Caller holds the write lock.
+     *
+     * @throws IOException if the checkpoint cannot be written
+     */
+    private void checkpoint() throws IOException {
+        for (Segment s : segments.values()) s.channel.force(false);
+
+        File tmp = new File(dir, "index.dat.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeByte(INDEX_VERSION);
+            out.writeInt(segments.size());
+            for (Segment s : segments.values()) {
+                out.writeInt(s.id);
+                out.writeLong(s.size);
+            }
+            out.writeInt(index.size());
+            for (Map.Entry<UUID, Entry> me : index.entrySet()) {
+                Entry e = me.getValue();
+                out.writeLong(me.getKey().getMostSignificantBits());
+                out.writeLong(me.getKey().getLeastSignificantBits());
+                out.writeInt(e.segment);
+                out.writeLong(e.offset);
+                out.writeInt(e.length);
+                out.writeInt(e.crc);
+            }
+        }
+        Files.move(tmp.toPath(), new File(dir, "index.dat").toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Opens existing segments, loads the last checkpoint, and replays records appended after it.
+     *
+     * @throws IOException if a segment cannot be opened
+     */
+    private void recover() throws IOException {
+        File[] files = dir.listFiles((d, n) -> n.startsWith("seg-") && n.endsWith(".dat"));
+        if (files != null) {
+            for (File f : files) {
+                try {
+                    int id = Integer.parseInt(f.getName().substring(4, f.getName().length() - 4));
+                    Segment s = openSegment(id);
+                    segments.put(id, s);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+
+        Map<Integer, Long> checkpointed = loadCheckpoint();
+        for (Segment s : segments.values()) {
+            Long from = checkpointed.get(s.id);
+            scan(s, from != null && from <= s.size ? from : 0L);
+        }
+
+        for (Entry e : index.values()) {
+            Segment s = segments.get(e.segment);
+            if (s != null) s.live += HEADER + e.length;
+        }
+        if (!segments.isEmpty()) active = segments.lastEntry().getValue();
+    }
+
+    /**
+     * Loads <code>index.dat</code> into {@link #index}.
+     *
+     * @return segment lengths covered by the checkpoint; empty if there is no usable checkpoint
+     */
+    private Map<Integer, Long> loadCheckpoint() {
+        Map<Integer, Long> lengths = new HashMap<>();
+        File f = new File(dir, "index.dat");
+        if (!f.exists()) return lengths;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readUnsignedByte() != INDEX_VERSION) return lengths;
+            int segCount = in.readInt();
+            for (int i = 0; i < segCount; i++) lengths.put(in.readInt(), in.readLong());
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                UUID id = new UUID(in.readLong(), in.readLong());
+                Entry e = new Entry(in.readInt(), in.readLong(), in.readInt(), in.readInt());
+                if (segments.containsKey(e.segment)) index.put(id, e);
+            }
+        } catch (IOException e) {
+            logger.warning("[Schematics] Snapshot index checkpoint unreadable; rescanning segments: " + e.getMessage());
+            index.clear();
+            lengths.clear();
+        }
+        return lengths;
+    }
+
+    /**
+     * Replays records of a segment starting at {@code from}. A torn record at the tail is truncated away.
+     *
+     * @param s    segment
+     * @param from byte offset to start at
+     * @throws IOException if the segment cannot be read
+     */
+    private void scan(Segment s, long from) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        long pos = from;
+        while (pos + HEADER <= s.size) {
+            header.clear();
+            while (header.hasRemaining()) {
+                if (s.channel.read(header, pos + header.position()) < 0) break;
+            }
+            header.flip();
+            if (header.remaining() < HEADER || header.getInt() != RECORD_MAGIC) break;
+            UUID id = new UUID(header.getLong(), header.getLong());
+            byte type = header.get();
+            int length = header.getInt();
+            int crc = header.getInt();
+            if (length < 0 || pos + HEADER + length > s.size) break;
+
+            if (type == PUT) index.put(id, new Entry(s.id, pos + HEADER, length, crc));
+            else index.remove(id);
+            pos += HEADER + length;
+        }
+        if (pos < s.size) {
+            logger.warning("[Schematics] Truncating torn tail of " + s.file.getName() + " at " + pos);
+            s.channel.truncate(pos);
+            s.size = pos;
+        }
+    }
+
+    /**
+     * Opens a segment file for reading and appending.
+     *
+     * @param id segment id
+     * @return open segment
+     * @throws IOException if the file cannot be opened
+     */
+    private Segment openSegment(int id) throws IOException {
+        File f = new File(dir, String.format("seg-%06d.dat", id));
+        FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new Segment(id, f, ch, ch.size());
+    }
+
+    /** Location and checksum of a stored payload. */
+    private static final class Entry {
+        /** Segment id. */
+        final int segment;
+        /** Byte offset of the payload within the segment. */
+        final long offset;
+        /** Payload length. */
+        final int length;
+        /** CRC32 of the payload. */
+        final int crc;
+
+        Entry(int segment, long offset, int length, int crc) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.crc = crc;
+        }
+    }
+
+    /** Open segment file. */
+    private static final class Segment {
+        /** Segment id. */
+        final int id;
+        /** Backing file. */
+        final File file;
+        /** Read/write channel. */
+        final FileChannel channel;
+        /** Bytes written. */
+        long size;
+        /** Bytes belonging to live records. */
+        long live;
+        /** Read-only map of a sealed segment, created on first read. */
+        volatile MappedByteBuffer map;
+
+        Segment(int id, File file, FileChannel channel, long size) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        /**
+         * Returns the memory map of this sealed segment, creating it on first use.
+         *
+         * @return read-only map covering the whole segment
+         * @throws IOException if mapping fails
+         */
+        ByteBuffer mapped() throws IOException {
+            MappedByteBuffer m = map;
+            if (m == null) {
+                synchronized (this) {
+                    m = map;
+                    if (m == null) map = m = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                }
+            }
+            return m.duplicate();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Server task scheduling for Paper and Folia.
+ * <p>On Paper everything runs on the main thread through the {@link org.bukkit.scheduler.BukkitScheduler}.
+ * Folia has no main thread: world work has to run on the region thread that owns the chunk, and everything
+ * else on the global region thread. The helpers here pick the right scheduler, so callers only say where
+ * the work belongs.</p>
+ */
+final class ServerTasks {
+
+    /** True when running on Folia's region-threaded server. */
+    static final boolean FOLIA = detectFolia();
+
+    /** Cancellable handle of a repeating task. */
+    interface Handle {
+        /** Stops the task. */
+        void cancel();
+    }
+
+    private ServerTasks() {
+    }
+
+    /**
+     * Runs a task on the next tick of the main thread, or of Folia's global region.
+     *
+     * @param plugin owning plugin
+     * @param task   task
+     */
+    static void run(Plugin plugin, Runnable task) {
+        if (FOLIA) Bukkit.getGlobalRegionScheduler().execute(plugin, task);
+        else Bukkit.getScheduler().runTask(plugin, task);
+    }
+
+    /**
+     * Repeats a task on the main thread, or on Folia's global region.
+     *
+     * @param plugin owning plugin
+     * @param task   task
+     * @param delay  ticks before the first run, at least 1
+     * @param period ticks between runs
+     * @return handle that cancels the task
+     */
+    static Handle repeat(Plugin plugin, Runnable task, long delay, long period) {
+        if (FOLIA) {
+            ScheduledTask t = Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin, st -> task.run(), Math.max(1L, delay), period);
+            return t::cancel;
+        }
+        BukkitTask t = Bukkit.getScheduler().runTaskTimer(plugin, task, delay, period);
+        return t::cancel;
+    }
+
+    /**
+     * Runs a task on the thread that owns a block position: inline if the caller already owns it,
+     * otherwise on the next tick of the main thread or of the owning Folia region.
+     *
+     * @param plugin owning plugin
+     * @param world  world
+     * @param x      block X
+     * @param z      block Z
+     * @param task   task
+     */
+    static void runAt(Plugin plugin, World world, int x, int z, Runnable task) {
+        if (owns(world, x, z)) task.run();
+        else runLaterAt(plugin, world, x, z, 0L, task);
+    }
+
+    /**
+     * Runs a task on the main thread, or on the Folia region that owns a block position, after a delay.
+     *
+     * @param plugin owning plugin
+     * @param world  world
+     * @param x      block X
+     * @param z      block Z
+     * @param delay  ticks to wait; 0 runs on the next tick
+     * @param task   task
+     */
+    static void runLaterAt(Plugin plugin, World world, int x, int z, long delay, Runnable task) {
+        if (!FOLIA) {
+            if (delay <= 0L) Bukkit.getScheduler().runTask(plugin, task);
+            else Bukkit.getScheduler().runTaskLater(plugin, task, delay);
+        } else if (delay <= 0L) {
+            Bukkit.getRegionScheduler().execute(plugin, world, x >> 4, z >> 4, task);
+        } else {
+            Bukkit.getRegionScheduler().runDelayed(plugin, world, x >> 4, z >> 4, st -> task.run(), delay);
+        }
+    }
+
+    /**
+     * Runs a task on the main thread, or on Folia's global region, after a delay.
+     *
+     * @param plugin owning plugin
+     * @param delay  ticks to wait; 0 runs on the next tick
+     * @param task   task
+     */
+    static void runLater(Plugin plugin, long delay, Runnable task) {
+        if (delay <= 0L) run(plugin, task);
+        else if (FOLIA) Bukkit.getGlobalRegionScheduler().runDelayed(plugin, st -> task.run(), delay);
+        else Bukkit.getScheduler().runTaskLater(plugin, task, delay);
+    }
+
+    /**
+     * Checks whether the current thread may touch a block position.
+     *
+     * @param world world
+     * @param x     block X
+     * @param z     block Z
+     * @return true on the main thread (Paper) or the owning region's thread (Folia)
+     */
+    static boolean owns(World world, int x, int z) {
+        return FOLIA ? Bukkit.isOwnedByCurrentRegion(world, x >> 4, z >> 4) : Bukkit.isPrimaryThread();
+    }
+
+    /** @return true if Folia's region scheduler classes are present */
+    private static boolean detectFolia() {
+        try {
+            Class.forName("io.papermc.paper.threadedregions.RegionizedServer");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
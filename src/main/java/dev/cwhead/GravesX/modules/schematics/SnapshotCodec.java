@@ -0,0 +1,44 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Encodes and decodes {@link GraveSnapshot}s for storage.
+ * <p>Selected with <code>snapshot.format</code>; reading always goes through {@link SnapshotCodecs#decode},
+ * which detects the format from the stream header so older backups keep working.</p>
+ */
+interface SnapshotCodec {
+
+    /** @return config name of the codec */
+    String id();
+
+    /** @return file extension (without the dot) for files written by this codec */
+    String extension();
+
+    /**
+     * Returns whether this codec can encode the given snapshot type.
+     *
+     * @param snapshot snapshot to encode
+     * @return true if {@link #encode} accepts it
+     */
+    boolean supports(GraveSnapshot snapshot);
+
+    /**
+     * Encodes a snapshot.
+     *
+     * @param snapshot snapshot to encode
+     * @param out      destination stream; not closed by this method
+     * @throws Exception if encoding fails
+     */
+    void encode(GraveSnapshot snapshot, OutputStream out) throws Exception;
+
+    /**
+     * Decodes a snapshot written by this codec.
+     *
+     * @param in source stream; not closed by this method
+     * @return decoded snapshot, ready to restore
+     * @throws Exception if the stream is malformed
+     */
+    GraveSnapshot decode(InputStream in) throws Exception;
+}
@@ -0,0 +1,70 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Codec selection for writing and format detection for reading.
+ * <p>The write codec comes from <code>snapshot.format</code>. Reads sniff the stream header, so a backups
+ * directory holding a mix of binary snapshots and older Sponge <code>.schem</code> files restores fine.</p>
+ */
+final class SnapshotCodecs {
+
+    /** Sponge schematic codec, always available for reading. */
+    private final SpongeSnapshotCodec sponge = new SpongeSnapshotCodec();
+    /** Binary codec. */
+    private final BinarySnapshotCodec binary;
+    /** Codec chosen for writing. */
+    private final SnapshotCodec preferred;
+
+    /**
+     * Creates the registry.
+     *
+     * @param format   configured format name ({@code binary} or {@code sponge})
+     * @param compress whether the binary codec deflates its payload
+     */
+    SnapshotCodecs(String format, boolean compress) {
+        this.binary = new BinarySnapshotCodec(compress);
+        this.preferred = SpongeSnapshotCodec.ID.equals(format == null ? "" : format.toLowerCase(Locale.ROOT))
+                ? sponge
+                : binary;
+    }
+
+    /**
+     * Returns the codec to write a snapshot with. Falls back to the binary codec for snapshot types the
+     * configured codec cannot encode (delta snapshots with the Sponge format).
+     *
+     * @param sparse true for a delta snapshot
+     * @return codec to encode with
+     */
+    SnapshotCodec writer(boolean sparse) {
+        return sparse && preferred == sponge ? binary : preferred;
+    }
+
+    /** @return file extensions of every readable format */
+    String[] extensions() {
+        return new String[] { binary.extension(), sponge.extension() };
+    }
+
+    /**
+     * Decodes a snapshot, detecting the codec from its first bytes.
+     *
+     * @param raw source stream; not closed by this method
+     * @return decoded snapshot
+     * @throws Exception if the format is unknown or the data is malformed
+     */
+    GraveSnapshot decode(InputStream raw) throws Exception {
+        BufferedInputStream in = new BufferedInputStream(raw, 8192);
+        in.mark(4);
+        int b0 = in.read(), b1 = in.read(), b2 = in.read(), b3 = in.read();
+        in.reset();
+        if (b3 < 0) throw new IOException("Snapshot is truncated");
+
+        int magic = (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
+        if (magic == BinarySnapshotCodec.MAGIC) return binary.decode(in);
+        if (b0 == 0x1F && b1 == 0x8B) return sponge.decode(in); // gzip: Sponge .schem
+        throw new IOException("Unknown snapshot format");
+    }
+}
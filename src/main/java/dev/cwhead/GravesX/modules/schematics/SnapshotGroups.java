@@ -0,0 +1,651 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import com.sk89q.worldedit.math.BlockVector3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Groups of graves whose snapshot areas overlap, sharing one record of the original terrain.
+ * <p>Every grave that takes a snapshot joins a group when it is captured. A grave that overlaps no other
+ * forms a group of its own and is snapshotted as before. A grave whose capture area overlaps cells already
+ * covered by one or more groups merges them and only captures the cells nobody has captured yet, so it never
+ * records another grave's pasted blocks and no cell is copied twice. Each contributed capture is a part,
+ * stored under the contributing grave's UUID; parts never overlap.</p>
+ * <p>Groups are reference counted by member: removing a grave that is not the last member leaves the terrain
+ * alone, and only the last removal restores every part. The groups are kept in <code>groups.dat</code>,
+ * flushed like the placed-grave index.</p>
+ * <p>A group whose last member has left stays in the chunk index until its restore has run, since its cells
+ * still hold grave blocks until then. A grave joining over it before the restore starts adopts it like any
+ * other group and the restore is skipped ({@link #claim}); one arriving while the restore runs on another
+ * thread does not join and is told to try again once it has finished ({@link #restored}).</p>
+ */
+final class SnapshotGroups {
+
+    /** File magic, "GXSG". */
+    private static final int MAGIC = 0x47585347;
+    /** File format version. */
+    private static final int VERSION = 1;
+
+    /** Logger for persistence failures. */
+    private final Logger logger;
+    /** Groups file. */
+    private final File file;
+    /** Group of each member grave; guarded by {@code this}. */
+    private final Map<UUID, Group> byMember = new HashMap<>();
+    /** Groups by world UUID and packed chunk key of every chunk their bounds touch; guarded by {@code this}. */
+    private final Map<UUID, Map<Long, Set<Group>>> byChunk = new HashMap<>();
+    /** Groups whose last member has left, by that member, until its removal finishes; guarded by {@code this}. */
+    private final Map<UUID, Group> restores = new HashMap<>();
+    /** Set when the groups differ from the file; guarded by {@code this}. */
+    private boolean dirty;
+    /** Background flusher. */
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * Loads the groups file if present and starts the periodic flush.
+     *
+     * @param logger       logger
+     * @param file         groups file
+     * @param flushSeconds seconds between flushes of changed groups
+     */
+    SnapshotGroups(Logger logger, File file, long flushSeconds) {
+        this.logger = logger;
+        this.file = file;
+        load();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new SnapshotIO.NamedThreadFactory("GravesX-Schematics-Groups"));
+        this.flusher.scheduleWithFixedDelay(this::flushQuietly, flushSeconds, flushSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Adds a grave about to be captured, merging every group whose covered cells its capture area overlaps.
+     * A group awaiting its restore is adopted too. If the restore of an overlapping group is already running,
+     * nothing changes: the grave must not capture until it has finished and should call this again then.
+     *
+     * @param id      grave UUID
+     * @param world   world UUID
+     * @param capture cells the grave would capture on its own
+     * @param anchor  paste anchor, origin of the returned offsets
+     * @return what the grave has to capture, or the restore to wait for
+     */
+    synchronized Joined join(UUID id, UUID world, Coverage capture, BlockVector3 anchor) {
+        CompletableFuture<Void> busy = restoring(candidates(world, capture.box));
+        if (busy != null) return new Joined(busy, null);
+
+        List<UUID> left = leave(id);
+        if (left != null && !left.isEmpty()) {
+            Group own = restores.remove(id);
+            if (own != null && own.restoring) unlink(own);
+        }
+
+        final List<Group> nearby = candidates(world, capture.box);
+
+        Set<Group> overlapped = Collections.newSetFromMap(new IdentityHashMap<>());
+        int[][] ext = {new int[48]};
+        int[] n = {0};
+        int ax = anchor.x(), ay = anchor.y(), az = anchor.z();
+        capture.forEach((x, y, z) -> {
+            for (Group g : nearby) {
+                if (g.covers(x, y, z)) {
+                    overlapped.add(g);
+                    return;
+                }
+            }
+            if (n[0] * 3 == ext[0].length) ext[0] = Arrays.copyOf(ext[0], ext[0].length * 2);
+            ext[0][n[0] * 3] = x - ax;
+            ext[0][n[0] * 3 + 1] = y - ay;
+            ext[0][n[0] * 3 + 2] = z - az;
+            n[0]++;
+        });
+
+        Group merged = new Group(world);
+        merged.members.add(id);
+        if (overlapped.isEmpty()) {
+            merged.parts.add(new Part(id, capture));
+            merged.box = capture.box.clone();
+            link(merged);
+            return Joined.ALONE;
+        }
+
+        for (Group g : overlapped) {
+            unlink(g);
+            g.restoring = false;
+            merged.members.addAll(g.members);
+            merged.parts.addAll(g.parts);
+        }
+        int[] offsets = Arrays.copyOf(ext[0], n[0] * 3);
+        if (offsets.length > 0) merged.parts.add(new Part(id, Coverage.cells(ax, ay, az, offsets)));
+        merged.recomputeBox();
+        link(merged);
+        return new Joined(null, offsets);
+    }
+
+    /**
+     * Removes a grave from its group. If it was the last member, the group stays in the chunk index until
+     * the removal calls {@link #claim} and {@link #restored}.
+     *
+     * @param id grave UUID
+     * @return {@code null} if the grave is in no group, an empty list if other members remain, or the
+     *         snapshot keys of every part to restore if it was the last member
+     */
+    synchronized List<UUID> leave(UUID id) {
+        Group g = byMember.get(id);
+        if (g == null) return null;
+        g.members.remove(id);
+        byMember.remove(id);
+        dirty = true;
+        if (!g.members.isEmpty()) return Collections.emptyList();
+        g.restoring = true;
+        restores.put(id, g);
+        List<UUID> keys = new ArrayList<>(g.parts.size());
+        for (Part p : g.parts) keys.add(p.key);
+        return keys;
+    }
+
+    /**
+     * Called by a removal right before it restores or clears its region. Must be followed by
+     * {@link #restored} on the same thread.
+     *
+     * @param id grave UUID that left
+     * @return false if a grave joined over the group since, which now owns its parts: the region must be
+     *         left alone and the snapshots kept; true otherwise
+     */
+    synchronized boolean claim(UUID id) {
+        Group g = restores.get(id);
+        if (g == null) return true;
+        if (!g.restoring) {
+            restores.remove(id);
+            return false;
+        }
+        g.claimed = true;
+        g.done = new CompletableFuture<>();
+        return true;
+    }
+
+    /**
+     * Called once a removal's block work has finished, whether or not it restored anything. Drops the group
+     * the grave left last from the chunk index, unless another grave adopted it, and releases the joins that
+     * were told to wait for it.
+     *
+     * @param id grave UUID that left
+     */
+    void restored(UUID id) {
+        CompletableFuture<Void> done;
+        synchronized (this) {
+            Group g = restores.remove(id);
+            if (g == null) return;
+            if (g.restoring) unlink(g);
+            g.restoring = false;
+            g.claimed = false;
+            done = g.done;
+            g.done = null;
+        }
+        if (done != null) done.complete(null);
+    }
+
+    /**
+     * @param id grave UUID
+     * @return true if the grave is a member of a group
+     */
+    synchronized boolean contains(UUID id) {
+        return byMember.containsKey(id);
+    }
+
+    /** @return snapshot keys of every part of every group, all of which must be kept */
+    synchronized Set<UUID> keys() {
+        Set<UUID> out = new HashSet<>();
+        for (Group g : new HashSet<>(byMember.values())) for (Part p : g.parts) out.add(p.key);
+        for (Group g : restores.values()) for (Part p : g.parts) out.add(p.key);
+        return out;
+    }
+
+    /** @return number of groups with more than one member */
+    synchronized int sharedCount() {
+        int n = 0;
+        Set<Group> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Group g : byMember.values()) if (g.members.size() > 1 && seen.add(g)) n++;
+        return n;
+    }
+
+    /** Stops the flusher and writes the groups one last time. */
+    void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10L, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+    }
+
+    /**
+     * Finds the groups whose bounds overlap a box. Caller holds the lock.
+     *
+     * @param world world UUID
+     * @param box   bounds as min x/y/z, max x/y/z
+     * @return overlapping groups, each once
+     */
+    private List<Group> candidates(UUID world, int[] box) {
+        List<Group> out = new ArrayList<>();
+        Map<Long, Set<Group>> chunks = byChunk.get(world);
+        if (chunks == null) return out;
+        Set<Group> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        forEachChunk(box, key -> {
+            Set<Group> gs = chunks.get(key);
+            if (gs == null) return;
+            for (Group g : gs) if (seen.add(g) && intersects(g.box, box)) out.add(g);
+        });
+        return out;
+    }
+
+    /**
+     * @param groups groups
+     * @return future completing once every one of them that is being restored has finished, or {@code null}
+     *         if none is
+     */
+    private static CompletableFuture<Void> restoring(List<Group> groups) {
+        List<CompletableFuture<Void>> running = new ArrayList<>();
+        for (Group g : groups) if (g.claimed) running.add(g.done);
+        if (running.isEmpty()) return null;
+        if (running.size() == 1) return running.get(0);
+        return CompletableFuture.allOf(running.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Indexes a group by member and chunk. Caller holds the lock.
+     *
+     * @param g group
+     */
+    private void link(Group g) {
+        for (UUID m : g.members) byMember.put(m, g);
+        Map<Long, Set<Group>> chunks = byChunk.computeIfAbsent(g.world, k -> new HashMap<>());
+        forEachChunk(g.box, key -> chunks.computeIfAbsent(key, k -> Collections.newSetFromMap(new IdentityHashMap<>())).add(g));
+        dirty = true;
+    }
+
+    /**
+     * Removes a group from the chunk index. Caller holds the lock.
+     *
+     * @param g group
+     */
+    private void unlink(Group g) {
+        Map<Long, Set<Group>> chunks = byChunk.get(g.world);
+        if (chunks == null) return;
+        forEachChunk(g.box, key -> {
+            Set<Group> gs = chunks.get(key);
+            if (gs == null) return;
+            gs.remove(g);
+            if (gs.isEmpty()) chunks.remove(key);
+        });
+        if (chunks.isEmpty()) byChunk.remove(g.world);
+        dirty = true;
+    }
+
+    /**
+     * Calls {@code visitor} with the packed key of every chunk a box touches.
+     *
+     * @param box     bounds as min x/y/z, max x/y/z
+     * @param visitor chunk key consumer
+     */
+    private static void forEachChunk(int[] box, LongConsumer visitor) {
+        for (int cx = box[0] >> 4; cx <= box[3] >> 4; cx++) {
+            for (int cz = box[2] >> 4; cz <= box[5] >> 4; cz++) {
+                visitor.accept(PlacedGraveIndex.chunkKey(cx, cz));
+            }
+        }
+    }
+
+    /**
+     * Tests two boxes for overlap.
+     *
+     * @param a bounds as min x/y/z, max x/y/z
+     * @param b bounds as min x/y/z, max x/y/z
+     * @return true if they share at least one cell
+     */
+    private static boolean intersects(int[] a, int[] b) {
+        return a[0] <= b[3] && b[0] <= a[3] && a[1] <= b[4] && b[1] <= a[4] && a[2] <= b[5] && b[2] <= a[5];
+    }
+
+    /** Writes the groups if they changed, logging failures. */
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "[Schematics] Could not save snapshot groups", e);
+        }
+    }
+
+    /**
+     * Serializes the groups under the lock, then writes them to a temporary file and moves it into place.
+     *
+     * @throws IOException if the write fails
+     */
+    private void flush() throws IOException {
+        Set<Group> groups = Collections.newSetFromMap(new IdentityHashMap<>());
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        synchronized (this) {
+            if (!dirty) return;
+            groups.addAll(byMember.values());
+            DataOutputStream out = new DataOutputStream(buf);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(groups.size());
+            for (Group g : groups) {
+                writeUuid(out, g.world);
+                out.writeInt(g.members.size());
+                for (UUID m : g.members) writeUuid(out, m);
+                out.writeInt(g.parts.size());
+                for (Part p : g.parts) {
+                    writeUuid(out, p.key);
+                    Coverage c = p.coverage;
+                    if (c.offsets == null) {
+                        out.writeByte(0);
+                        for (int v : c.box) out.writeInt(v);
+                    } else {
+                        out.writeByte(1);
+                        out.writeInt(c.ax);
+                        out.writeInt(c.ay);
+                        out.writeInt(c.az);
+                        out.writeInt(c.offsets.length);
+                        for (int v : c.offsets) out.writeInt(v);
+                    }
+                }
+            }
+            dirty = false;
+        }
+
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+            buf.writeTo(out);
+        } catch (IOException e) {
+            synchronized (this) {
+                dirty = true;
+            }
+            tmp.delete();
+            throw e;
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Reads the groups file, if any, into memory. */
+    private void load() {
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                logger.warning("[Schematics] Ignoring unrecognized snapshot groups file: " + file.getPath());
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Group g = new Group(readUuid(in));
+                int members = in.readInt();
+                for (int j = 0; j < members; j++) g.members.add(readUuid(in));
+                int parts = in.readInt();
+                for (int j = 0; j < parts; j++) {
+                    UUID key = readUuid(in);
+                    Coverage c;
+                    if (in.readUnsignedByte() == 0) {
+                        int[] box = new int[6];
+                        for (int k = 0; k < 6; k++) box[k] = in.readInt();
+                        c = Coverage.cuboid(box);
+                    } else {
+                        int ax = in.readInt(), ay = in.readInt(), az = in.readInt();
+                        int[] offsets = new int[in.readInt()];
+                        for (int k = 0; k < offsets.length; k++) offsets[k] = in.readInt();
+                        c = Coverage.cells(ax, ay, az, offsets);
+                    }
+                    g.parts.add(new Part(key, c));
+                }
+                if (g.members.isEmpty() || g.parts.isEmpty()) continue;
+                g.recomputeBox();
+                link(g);
+            }
+            dirty = false;
+        } catch (IOException e) {
+            logger.warning("[Schematics] Snapshot groups file is damaged; keeping " + byMember.size() + " members: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a UUID as two longs.
+     *
+     * @param out  stream
+     * @param uuid UUID
+     * @throws IOException if the write fails
+     */
+    private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Reads a UUID written by {@link #writeUuid}.
+     *
+     * @param in stream
+     * @return UUID
+     * @throws IOException if the read fails
+     */
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    /** Cell visitor for {@link Coverage#forEach}. */
+    interface CellVisitor {
+        /**
+         * Visits a cell.
+         *
+         * @param x world X
+         * @param y world Y
+         * @param z world Z
+         */
+        void accept(int x, int y, int z);
+    }
+
+    /** Cells one capture covers: either a whole cuboid or explicit offsets from an anchor. */
+    static final class Coverage {
+        /** Bounds as min x/y/z, max x/y/z. */
+        final int[] box;
+        /** Anchor of {@link #offsets}. */
+        final int ax, ay, az;
+        /** Packed x/y/z offsets, or {@code null} for a full cuboid. */
+        final int[] offsets;
+        /** Packed world positions of {@link #offsets}, built on first lookup. */
+        private Set<Long> cells;
+
+        private Coverage(int[] box, int ax, int ay, int az, int[] offsets) {
+            this.box = box;
+            this.ax = ax;
+            this.ay = ay;
+            this.az = az;
+            this.offsets = offsets;
+        }
+
+        /**
+         * Covers a whole cuboid.
+         *
+         * @param box bounds as min x/y/z, max x/y/z
+         * @return coverage
+         */
+        static Coverage cuboid(int[] box) {
+            return new Coverage(box, 0, 0, 0, null);
+        }
+
+        /**
+         * Covers explicit cells.
+         *
+         * @param ax      anchor X
+         * @param ay      anchor Y
+         * @param az      anchor Z
+         * @param offsets packed x/y/z offsets from the anchor
+         * @return coverage
+         */
+        static Coverage cells(int ax, int ay, int az, int[] offsets) {
+            int[] box = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE,
+                    Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+            for (int o = 0; o < offsets.length; o += 3) {
+                int x = ax + offsets[o], y = ay + offsets[o + 1], z = az + offsets[o + 2];
+                box[0] = Math.min(box[0], x);
+                box[1] = Math.min(box[1], y);
+                box[2] = Math.min(box[2], z);
+                box[3] = Math.max(box[3], x);
+                box[4] = Math.max(box[4], y);
+                box[5] = Math.max(box[5], z);
+            }
+            return new Coverage(box, ax, ay, az, offsets);
+        }
+
+        /**
+         * Tests whether a cell is covered.
+         *
+         * @param x world X
+         * @param y world Y
+         * @param z world Z
+         * @return true if covered
+         */
+        boolean contains(int x, int y, int z) {
+            if (x < box[0] || y < box[1] || z < box[2] || x > box[3] || y > box[4] || z > box[5]) return false;
+            if (offsets == null) return true;
+            if (cells == null) {
+                Set<Long> s = new HashSet<>(offsets.length / 3 * 2);
+                for (int o = 0; o < offsets.length; o += 3) s.add(pack(ax + offsets[o], ay + offsets[o + 1], az + offsets[o + 2]));
+                cells = s;
+            }
+            return cells.contains(pack(x, y, z));
+        }
+
+        /**
+         * Visits every covered cell.
+         *
+         * @param visitor cell visitor
+         */
+        void forEach(CellVisitor visitor) {
+            if (offsets == null) {
+                for (int y = box[1]; y <= box[4]; y++) {
+                    for (int z = box[2]; z <= box[5]; z++) {
+                        for (int x = box[0]; x <= box[3]; x++) visitor.accept(x, y, z);
+                    }
+                }
+                return;
+            }
+            for (int o = 0; o < offsets.length; o += 3) visitor.accept(ax + offsets[o], ay + offsets[o + 1], az + offsets[o + 2]);
+        }
+
+        /**
+         * Packs a block position into one long (26 bits X and Z, 12 bits Y).
+         *
+         * @param x world X
+         * @param y world Y
+         * @param z world Z
+         * @return packed position
+         */
+        private static long pack(int x, int y, int z) {
+            return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+        }
+    }
+
+    /** Outcome of {@link #join}. */
+    static final class Joined {
+        /** A grave that overlapped nothing. */
+        static final Joined ALONE = new Joined(null, null);
+
+        /** Restore the grave has to wait for before calling {@link #join} again, or {@code null} if it joined. */
+        final CompletableFuture<Void> busy;
+        /**
+         * {@code null} if nothing overlapped and the grave should capture its area as usual; otherwise the
+         * packed x/y/z offsets, relative to the anchor, of the cells it still has to capture (possibly none).
+         */
+        final int[] uncovered;
+
+        private Joined(CompletableFuture<Void> busy, int[] uncovered) {
+            this.busy = busy;
+            this.uncovered = uncovered;
+        }
+    }
+
+    /** One stored capture of original terrain. */
+    private static final class Part {
+        /** Snapshot store key: the UUID of the grave that captured it. */
+        final UUID key;
+        /** Cells it holds. */
+        final Coverage coverage;
+
+        Part(UUID key, Coverage coverage) {
+            this.key = key;
+            this.coverage = coverage;
+        }
+    }
+
+    /** Graves sharing disjoint terrain captures. */
+    private static final class Group {
+        /** World UUID. */
+        final UUID world;
+        /** Member graves. */
+        final Set<UUID> members = new HashSet<>();
+        /** Captures, pairwise disjoint. */
+        final List<Part> parts = new ArrayList<>();
+        /** Bounds of all parts as min x/y/z, max x/y/z. */
+        int[] box;
+        /** Set while the group has no members and its restore has not finished; cleared on adoption. */
+        boolean restoring;
+        /** Set while its restore runs; joins over it wait for {@link #done}. */
+        boolean claimed;
+        /** Completed once a claimed restore has finished; {@code null} while unclaimed. */
+        CompletableFuture<Void> done;
+
+        Group(UUID world) {
+            this.world = world;
+        }
+
+        /**
+         * Tests whether any part covers a cell.
+         *
+         * @param x world X
+         * @param y world Y
+         * @param z world Z
+         * @return true if covered
+         */
+        boolean covers(int x, int y, int z) {
+            for (Part p : parts) if (p.coverage.contains(x, y, z)) return true;
+            return false;
+        }
+
+        /** Recomputes {@link #box} from the parts. */
+        void recomputeBox() {
+            int[] b = parts.get(0).coverage.box.clone();
+            for (Part p : parts) {
+                int[] c = p.coverage.box;
+                for (int i = 0; i < 3; i++) {
+                    b[i] = Math.min(b[i], c[i]);
+                    b[i + 3] = Math.max(b[i + 3], c[i + 3]);
+                }
+            }
+            box = b;
+        }
+    }
+}
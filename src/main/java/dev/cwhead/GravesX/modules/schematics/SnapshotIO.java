@@ -0,0 +1,321 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.extent.clipboard.io.ClipboardFormat;
+import com.sk89q.worldedit.extent.clipboard.io.ClipboardFormats;
+import com.sk89q.worldedit.extent.clipboard.io.ClipboardReader;
+import com.sk89q.worldedit.math.BlockVector3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Bounded background reader/writer for grave snapshots.
+ * <p>The block capture happens on the server thread; encoding and the file write are handed to this
+ * executor and land in a {@link SnapshotStore}. Until a write is durable the captured snapshot stays reachable through {@link #pending(UUID)},
+ * so a restore that races the write still has the original terrain.</p>
+ */
+final class SnapshotIO {
+
+    /** Logger used for write failures. */
+    private final Logger logger;
+    /** Snapshot codecs for encoding and format detection. */
+    private final SnapshotCodecs codecs;
+    /** Where encoded snapshots are persisted. */
+    private final SnapshotStore store;
+    /** Worker pool for encode and write jobs. */
+    private final BoundedExecutor executor;
+    /** Phase timings for encode, write and load. */
+    private final GraveMetrics metrics;
+    /** Captured snapshots whose file write has not completed yet, by grave UUID. */
+    private final Map<UUID, PendingSnapshot> pending = new ConcurrentHashMap<>();
+    /** Writes refused because the worker queue was full. */
+    private final AtomicLong refused = new AtomicLong();
+
+    /**
+     * Creates the writer.
+     *
+     * @param logger        logger for failures
+     * @param codecs        snapshot codecs
+     * @param store         snapshot store
+     * @param threads       worker thread count
+     * @param queueCapacity write jobs the worker queue holds; a write beyond it is refused with a warning
+     * @param metrics       phase timings
+     */
+    SnapshotIO(Logger logger, SnapshotCodecs codecs, SnapshotStore store, int threads, int queueCapacity, GraveMetrics metrics) {
+        this.logger = logger;
+        this.codecs = codecs;
+        this.store = store;
+        this.metrics = metrics;
+        this.executor = new BoundedExecutor(threads, queueCapacity, new NamedThreadFactory("GravesX-Schematics-IO"));
+    }
+
+    /**
+     * Queues an encode-and-write of a captured snapshot.
+     * <p>If the worker queue is full the write is refused rather than held: the grave keeps no backup and
+     * its region is cleared instead of restored on removal. The refusal is logged and counted.</p>
+     *
+     * @param id        grave UUID the snapshot belongs to
+     * @param snapshot  captured terrain
+     * @param codec     codec to encode with
+     * @return future completing once the snapshot is stored (or the write was discarded); fails if it was refused
+     */
+    CompletableFuture<Void> write(UUID id, GraveSnapshot snapshot, SnapshotCodec codec) {
+        PendingSnapshot entry = new PendingSnapshot(snapshot, codec);
+        pending.put(id, entry);
+        CompletableFuture<Void> job;
+        try {
+            job = CompletableFuture.runAsync(() -> writeNow(id, entry), executor);
+        } catch (RejectedExecutionException e) {
+            pending.remove(id, entry);
+            refused.incrementAndGet();
+            logger.warning("[Schematics] Snapshot write queue is full; grave " + id
+                    + " has no backup and its region will be cleared rather than restored on removal.");
+            entry.done.completeExceptionally(e);
+            return entry.done;
+        }
+        job.whenComplete((v, t) -> {
+                    pending.remove(id, entry);
+                    if (t != null) {
+                        logger.warning("[Schematics] Snapshot write failed for " + id + ": " + t.getMessage());
+                        entry.done.completeExceptionally(t);
+                    } else {
+                        entry.done.complete(null);
+                    }
+                });
+        return entry.done;
+    }
+
+    /**
+     * Reads and decodes a stored snapshot on the worker pool, waiting off-thread while its queue is full.
+     *
+     * @param id grave UUID
+     * @return future holding the decoded, ready-to-restore snapshot, or {@code null} if none is stored
+     */
+    CompletableFuture<GraveSnapshot> read(UUID id) {
+        return executor.supplyWhenFree(() -> {
+            long t0 = GraveMetrics.start();
+            try {
+                try (InputStream in = store.open(id)) {
+                    return in != null ? codecs.decode(in) : null;
+                }
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                metrics.record(GraveMetrics.Phase.SNAPSHOT_LOAD, t0);
+            }
+        });
+    }
+
+    /**
+     * Loads a clipboard from a file using WorldEdit's format detection.
+     *
+     * @param file schematic file
+     * @return loaded clipboard
+     * @throws Exception if reading fails or format is unknown
+     */
+    static Clipboard readClipboard(File file) throws Exception {
+        ClipboardFormat fmt = ClipboardFormats.findByFile(file);
+        if (fmt == null) throw new IllegalStateException("Unknown clipboard format: " + file.getName());
+        try (FileInputStream in = new FileInputStream(file);
+             ClipboardReader reader = fmt.getReader(in)) {
+            return reader.read();
+        }
+    }
+
+    /**
+     * Returns the in-memory snapshot for a grave whose file is not yet durable.
+     *
+     * @param id grave UUID
+     * @return captured snapshot or {@code null} if nothing is pending
+     */
+    GraveSnapshot pending(UUID id) {
+        PendingSnapshot entry = pending.get(id);
+        return entry != null ? entry.snapshot : null;
+    }
+
+    /**
+     * Drops a snapshot that has been restored from memory. If its write has not reached the store it is
+     * skipped; if it has, the stored copy is deleted. Nothing is deleted once a newer capture of the same
+     * grave is pending, since the id then belongs to that capture.
+     * <p>The check runs inside the pending map's update of the id, so no newer write can be queued
+     * meanwhile, and under the entry's lock, which {@link #writeNow} holds across its store write. With
+     * nothing pending the write has landed: restores run on the grave's lane ahead of any later capture of
+     * the same grave, so the stored copy is this one.</p>
+     *
+     * @param id       grave UUID
+     * @param snapshot snapshot returned by {@link #pending(UUID)} and restored
+     */
+    void discard(UUID id, GraveSnapshot snapshot) {
+        pending.compute(id, (k, cur) -> {
+            if (cur == null) {
+                store.delete(id);
+                return null;
+            }
+            if (cur.snapshot != snapshot) return cur;
+            synchronized (cur) {
+                cur.discarded = true;
+                if (cur.stored) store.delete(id);
+            }
+            return cur;
+        });
+    }
+
+    /** @return number of writes that have not finished yet */
+    int pendingCount() {
+        return pending.size();
+    }
+
+    /** @return graves whose snapshot write has not finished yet */
+    Set<UUID> pendingIds() {
+        return new HashSet<>(pending.keySet());
+    }
+
+    /** @return jobs waiting in the worker queue */
+    int queuedCount() {
+        return executor.backlog();
+    }
+
+    /** @return writes refused so far because the worker queue was full */
+    long refusedCount() {
+        return refused.get();
+    }
+
+    /**
+     * Stops accepting work and waits for queued writes to finish.
+     *
+     * @param timeoutMillis maximum time to wait
+     */
+    void shutdown(long timeoutMillis) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                logger.warning("[Schematics] Timed out waiting for " + pending.size() + " snapshot write(s).");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Encodes the snapshot and hands the bytes to the store.
+     *
+     * @param id    grave UUID
+     * @param entry pending entry
+     */
+    private void writeNow(UUID id, PendingSnapshot entry) {
+        if (entry.discarded) return;
+        if (store instanceof DedupSnapshotStore && entry.codec instanceof BinarySnapshotCodec) {
+            writeDeduplicated(id, entry, (DedupSnapshotStore) store, (BinarySnapshotCodec) entry.codec);
+            return;
+        }
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(Math.min(1 << 20, Math.max(256, entry.snapshot.blockCount())));
+            long t0 = GraveMetrics.start();
+            entry.codec.encode(entry.snapshot, buf);
+            metrics.record(GraveMetrics.Phase.ENCODE, t0);
+            byte[] bytes = buf.toByteArray();
+            synchronized (entry) {
+                if (entry.discarded) return;
+                t0 = GraveMetrics.start();
+                store.put(id, entry.codec.extension(), bytes);
+                entry.stored = true;
+                metrics.record(GraveMetrics.Phase.WRITE, t0);
+            }
+            metrics.addBytesWritten(bytes.length);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not store snapshot for " + id + " in " + store.name(), e);
+        }
+    }
+
+    /**
+     * Writes a binary snapshot through the content-addressed store. The payload is hashed before it is
+     * compressed; if the same content is already stored the grave only gets a reference.
+     *
+     * @param id    grave UUID
+     * @param entry queued snapshot
+     * @param dedup content-addressed store
+     * @param codec binary codec of the entry
+     */
+    private void writeDeduplicated(UUID id, PendingSnapshot entry, DedupSnapshotStore dedup, BinarySnapshotCodec codec) {
+        try {
+            long t0 = GraveMetrics.start();
+            byte[] body = codec.body(entry.snapshot);
+            UUID key = DedupSnapshotStore.key(body);
+            BlockVector3 origin = BinarySnapshotCodec.origin(entry.snapshot);
+            synchronized (entry) {
+                if (entry.discarded) return;
+                if (dedup.link(id, key, origin, body.length)) {
+                    entry.stored = true;
+                    metrics.record(GraveMetrics.Phase.ENCODE, t0);
+                    return;
+                }
+            }
+            byte[] bytes = codec.frame(body, BlockVector3.ZERO);
+            metrics.record(GraveMetrics.Phase.ENCODE, t0);
+            synchronized (entry) {
+                if (entry.discarded) return;
+                t0 = GraveMetrics.start();
+                dedup.put(id, key, origin, bytes);
+                entry.stored = true;
+                metrics.record(GraveMetrics.Phase.WRITE, t0);
+            }
+            metrics.addBytesWritten(bytes.length);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not store snapshot for " + id + " in " + store.name(), e);
+        }
+    }
+
+    /** Captured snapshot plus its write state. */
+    private static final class PendingSnapshot {
+        /** Captured terrain. */
+        final GraveSnapshot snapshot;
+        /** Codec to encode with. */
+        final SnapshotCodec codec;
+        /** Completes when the write finished or was skipped. */
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        /** Set once the snapshot has been restored from memory and the file is no longer wanted. */
+        volatile boolean discarded;
+        /** Set once the store holds the snapshot; guarded by the entry. */
+        boolean stored;
+
+        PendingSnapshot(GraveSnapshot snapshot, SnapshotCodec codec) {
+            this.snapshot = snapshot;
+            this.codec = codec;
+        }
+    }
+
+    /** Daemon thread factory with a readable name prefix. */
+    static final class NamedThreadFactory implements ThreadFactory {
+        /** Thread name prefix. */
+        private final String prefix;
+        /** Sequence for thread names. */
+        private final AtomicInteger seq = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + "-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Persistent storage for encoded grave snapshots, keyed by grave UUID.
+ * <p>{@link FileSnapshotStore} keeps one file per grave (the default); {@link SegmentSnapshotStore} packs
+ * snapshots into append-only segment files behind an index. Selected with <code>snapshot.store.type</code>.</p>
+ */
+interface SnapshotStore {
+
+    /** @return short name used in logs */
+    String name();
+
+    /**
+     * Stores an encoded snapshot, replacing any previous one for the grave.
+     *
+     * @param id        grave UUID
+     * @param extension file extension of the codec that produced the data
+     * @param data      encoded snapshot
+     * @throws IOException if the write fails
+     */
+    void put(UUID id, String extension, byte[] data) throws IOException;
+
+    /**
+     * Opens a stored snapshot.
+     *
+     * @param id grave UUID
+     * @return stream over the encoded snapshot, or {@code null} if none is stored
+     * @throws IOException if the read fails
+     */
+    InputStream open(UUID id) throws IOException;
+
+    /**
+     * Returns whether a snapshot is stored for the grave.
+     *
+     * @param id grave UUID
+     * @return true if {@link #open(UUID)} would find data
+     */
+    boolean contains(UUID id);
+
+    /**
+     * Deletes a stored snapshot.
+     *
+     * @param id grave UUID
+     * @return true if something was deleted
+     */
+    boolean delete(UUID id);
+
+    /**
+     * Lists what is stored, for the orphan sweeper.
+     *
+     * @return one entry per stored grave
+     */
+    List<Stored> list();
+
+    /**
+     * Retries deletions that failed earlier, for example because the file was still open.
+     *
+     * @return bytes freed by the retries
+     */
+    default long retryDeletes() {
+        return 0L;
+    }
+
+    /** Flushes and releases resources. */
+    default void close() {
+    }
+
+    /** Stored snapshot as seen by {@link #list()}. */
+    final class Stored {
+        /** Grave UUID. */
+        final UUID id;
+        /** Stored size in bytes. */
+        final long size;
+        /** Last write time in epoch milliseconds; never earlier than the actual write. */
+        final long modified;
+
+        Stored(UUID id, long size, long modified) {
+            this.id = id;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+}
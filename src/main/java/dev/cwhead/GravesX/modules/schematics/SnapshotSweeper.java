@@ -0,0 +1,151 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Removes snapshots that no grave will ever restore.
+ * <p>A snapshot is an orphan when its grave is neither live in GravesX nor waiting on a removal, which happens
+ * when a grave is removed through a path that never calls {@link WorldEditSnapshotProvider#remove}. Orphans
+ * older than the minimum age are deleted, or moved to the archive directory first when one is configured.
+ * Each pass also retries deletions that failed earlier. Passes run on a single background thread.</p>
+ */
+final class SnapshotSweeper {
+
+    /** Logger for pass results. */
+    private final Logger logger;
+    /** Store to sweep. */
+    private final SnapshotStore store;
+    /** Directory orphans are copied to before deletion, or {@code null} to delete outright. */
+    private final File archiveDir;
+    /** Minimum age in milliseconds before an orphan is touched. */
+    private final long minAgeMillis;
+    /** Sweep thread. */
+    private final ExecutorService executor;
+
+    /** Completed passes. */
+    private final LongAdder passes = new LongAdder();
+    /** Orphans removed. */
+    private final LongAdder orphans = new LongAdder();
+    /** Bytes freed by removed orphans and retried deletions. */
+    private final LongAdder reclaimed = new LongAdder();
+
+    /**
+     * Creates a sweeper.
+     *
+     * @param logger       logger
+     * @param store        store to sweep
+     * @param archiveDir   archive directory, or {@code null} to delete orphans outright
+     * @param minAgeMillis minimum orphan age
+     */
+    SnapshotSweeper(Logger logger, SnapshotStore store, File archiveDir, long minAgeMillis) {
+        this.logger = logger;
+        this.store = store;
+        this.archiveDir = archiveDir;
+        this.minAgeMillis = minAgeMillis;
+        this.executor = Executors.newSingleThreadExecutor(new SnapshotIO.NamedThreadFactory("GravesX-Schematics-Sweeper"));
+    }
+
+    /**
+     * Queues a pass. Snapshots of graves in {@code keep} are never touched.
+     *
+     * @param keep grave UUIDs whose snapshots are still needed
+     * @return future completing after the pass
+     */
+    CompletableFuture<Void> sweep(Set<UUID> keep) {
+        return CompletableFuture.runAsync(() -> run(keep), executor);
+    }
+
+    /** @return completed passes */
+    long passes() {
+        return passes.sum();
+    }
+
+    /** @return orphans removed */
+    long orphans() {
+        return orphans.sum();
+    }
+
+    /** @return bytes freed */
+    long reclaimed() {
+        return reclaimed.sum();
+    }
+
+    /** Stops the sweep thread without waiting for a running pass. */
+    void shutdown() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5L, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs one pass.
+     *
+     * @param keep grave UUIDs whose snapshots are still needed
+     */
+    private void run(Set<UUID> keep) {
+        long cutoff = System.currentTimeMillis() - minAgeMillis;
+        long freed = store.retryDeletes();
+        int removed = 0;
+        for (SnapshotStore.Stored st : store.list()) {
+            if (Thread.currentThread().isInterrupted()) break;
+            if (keep.contains(st.id) || st.modified > cutoff) continue;
+            if (archiveDir != null && !archive(st.id)) continue;
+            if (store.delete(st.id)) {
+                removed++;
+                freed += st.size;
+            }
+        }
+        passes.increment();
+        orphans.add(removed);
+        reclaimed.add(freed);
+        if (removed > 0 || freed > 0) {
+            logger.info("[Schematics] Swept " + removed + " orphaned snapshot(s)"
+                    + (archiveDir != null ? " to " + archiveDir.getName() : "")
+                    + ", reclaimed " + (freed / 1024L) + " KiB.");
+        }
+    }
+
+    /**
+     * Copies a snapshot into the archive directory, named by grave UUID and detected format.
+     *
+     * @param id grave UUID
+     * @return true if the copy exists and the snapshot may be deleted
+     */
+    private boolean archive(UUID id) {
+        if (!archiveDir.exists() && !archiveDir.mkdirs()) {
+            logger.warning("[Schematics] Cannot create archive directory " + archiveDir.getPath());
+            return false;
+        }
+        try (InputStream raw = store.open(id)) {
+            if (raw == null) return false;
+            PushbackInputStream in = new PushbackInputStream(raw, 4);
+            byte[] head = new byte[4];
+            int n = in.readNBytes(head, 0, 4);
+            in.unread(head, 0, n);
+            boolean binary = n == 4 && ((head[0] & 0xFF) << 24 | (head[1] & 0xFF) << 16 | (head[2] & 0xFF) << 8 | (head[3] & 0xFF))
+                    == BinarySnapshotCodec.MAGIC;
+            File target = new File(archiveDir, id + (binary ? ".gsnap" : ".schem"));
+            Files.copy(in, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            logger.warning("[Schematics] Could not archive snapshot " + id + ": " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.world.block.BaseBlock;
+
+/**
+ * Delta snapshot holding only the blocks a grave paste will overwrite, plus their block entities.
+ * <p>Positions come from a {@link PasteFootprint}; biomes and entities are not captured because an
+ * air-ignoring paste does not touch them.</p>
+ */
+final class SparseSnapshot implements GraveSnapshot {
+
+    /** World position the offsets are relative to. */
+    private final BlockVector3 anchor;
+    /** Packed x/y/z offset triplets. */
+    private final int[] offsets;
+    /** Captured block per offset triplet. */
+    private final BaseBlock[] blocks;
+
+    /**
+     * Creates a snapshot from captured data.
+     *
+     * @param anchor  world anchor
+     * @param offsets packed x/y/z offsets
+     * @param blocks  captured blocks, one per offset triplet
+     */
+    SparseSnapshot(BlockVector3 anchor, int[] offsets, BaseBlock[] blocks) {
+        this.anchor = anchor;
+        this.offsets = offsets;
+        this.blocks = blocks;
+    }
+
+    /**
+     * Captures the blocks at every footprint position around an anchor.
+     *
+     * @param source    edit session on the source world
+     * @param anchor    paste anchor
+     * @param footprint positions the paste will write
+     * @return captured snapshot
+     */
+    static SparseSnapshot capture(EditSession source, BlockVector3 anchor, PasteFootprint footprint) {
+        int[] offsets = footprint.offsets();
+        BaseBlock[] blocks = new BaseBlock[footprint.size()];
+        for (int i = 0, o = 0; i < blocks.length; i++, o += 3) {
+            blocks[i] = source.getFullBlock(anchor.add(offsets[o], offsets[o + 1], offsets[o + 2]));
+        }
+        return new SparseSnapshot(anchor, offsets, blocks);
+    }
+
+    /** {@inheritDoc} */
+    @Override public int blockCount() {
+        return blocks.length;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void restore(EditSession session) throws Exception {
+        for (int i = 0, o = 0; i < blocks.length; i++, o += 3) {
+            session.setBlock(anchor.add(offsets[o], offsets[o + 1], offsets[o + 2]), blocks[i]);
+        }
+    }
+
+    /** @return world position the offsets are relative to */
+    BlockVector3 anchor() {
+        return anchor;
+    }
+
+    /** @return packed x/y/z offsets; callers must not modify */
+    int[] offsets() {
+        return offsets;
+    }
+
+    /** @return captured blocks, one per offset triplet; callers must not modify */
+    BaseBlock[] blocks() {
+        return blocks;
+    }
+}
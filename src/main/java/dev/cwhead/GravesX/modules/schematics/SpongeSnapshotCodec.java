@@ -0,0 +1,85 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.extent.clipboard.io.BuiltInClipboardFormat;
+import com.sk89q.worldedit.extent.clipboard.io.ClipboardReader;
+import com.sk89q.worldedit.extent.clipboard.io.ClipboardWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Sponge <code>.schem</code> codec (gzip-compressed NBT). Interchange-friendly, so backups can be opened in
+ * WorldEdit directly, but slower and larger than {@link BinarySnapshotCodec}. Only full snapshots are supported.
+ */
+final class SpongeSnapshotCodec implements SnapshotCodec {
+
+    /** Config name. */
+    static final String ID = "sponge";
+
+    /** {@inheritDoc} */
+    @Override public String id() {
+        return ID;
+    }
+
+    /** {@inheritDoc} */
+    @Override public String extension() {
+        return "schem";
+    }
+
+    /** {@inheritDoc} */
+    @Override public boolean supports(GraveSnapshot snapshot) {
+        return snapshot instanceof ClipboardSnapshot;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void encode(GraveSnapshot snapshot, OutputStream out) throws Exception {
+        Clipboard clipboard = ((ClipboardSnapshot) snapshot).clipboard();
+        try (ClipboardWriter writer = BuiltInClipboardFormat.SPONGE_V3_SCHEMATIC.getWriter(new NonClosingStream(out))) {
+            writer.write(clipboard);
+        }
+    }
+
+    /**
+     * Decodes a Sponge schematic, trying v3 first and then v2 for backups written by older WorldEdit builds.
+     *
+     * @param in source stream; not closed by this method
+     * @return decoded snapshot
+     * @throws Exception if neither version can read the data
+     */
+    @Override
+    public GraveSnapshot decode(InputStream in) throws Exception {
+        byte[] data = in.readAllBytes();
+        try (ClipboardReader reader = BuiltInClipboardFormat.SPONGE_V3_SCHEMATIC.getReader(new ByteArrayInputStream(data))) {
+            return new ClipboardSnapshot(reader.read());
+        } catch (Exception v3) {
+            try (ClipboardReader reader = BuiltInClipboardFormat.SPONGE_V2_SCHEMATIC.getReader(new ByteArrayInputStream(data))) {
+                return new ClipboardSnapshot(reader.read());
+            } catch (Exception v2) {
+                v2.addSuppressed(v3);
+                throw v2;
+            }
+        }
+    }
+
+    /** Shields the caller's stream from the writer's {@code close()}. */
+    private static final class NonClosingStream extends FilterOutputStream {
+        NonClosingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
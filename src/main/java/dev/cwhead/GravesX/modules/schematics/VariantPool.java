@@ -0,0 +1,128 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Weighted set of schematic designs one rule (or the default grave) picks from.
+ * <p>The pick is a hash of the grave UUID, not a random draw, so the same grave resolves to the same
+ * design when it is placed and again when it is removed and its region is recomputed.</p>
+ */
+final class VariantPool {
+
+    /** Designs. */
+    private final File[] files;
+    /** Running weight total up to and including each design. */
+    private final int[] cumulative;
+
+    /**
+     * Creates a pool.
+     *
+     * @param files   designs
+     * @param weights positive weight per design
+     */
+    private VariantPool(File[] files, int[] weights) {
+        this.files = files;
+        this.cumulative = new int[weights.length];
+        int total = 0;
+        for (int i = 0; i < weights.length; i++) cumulative[i] = total += weights[i];
+    }
+
+    /**
+     * A pool with a single design.
+     *
+     * @param file design
+     * @return pool
+     */
+    static VariantPool of(File file) {
+        return new VariantPool(new File[]{file}, new int[]{1});
+    }
+
+    /**
+     * Parses a pool from config: a path string, or a list whose entries are path strings (weight 1) or
+     * maps with <code>schematic</code> and <code>weight</code>. Invalid entries are logged and skipped.
+     *
+     * @param log     logger for config problems
+     * @param raw     config value
+     * @param resolve turns a configured path into a file
+     * @return pool, or {@code null} if no entry is usable
+     */
+    static VariantPool parse(Logger log, Object raw, Function<String, File> resolve) {
+        List<File> files = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        Collection<?> entries = raw instanceof Collection ? (Collection<?>) raw : raw == null ? List.of() : List.of(raw);
+        for (Object e : entries) {
+            Object path = e;
+            int weight = 1;
+            if (e instanceof Map) {
+                path = ((Map<?, ?>) e).get("schematic");
+                Object w = ((Map<?, ?>) e).get("weight");
+                if (w instanceof Number) weight = ((Number) w).intValue();
+                else if (w != null) {
+                    try {
+                        weight = Integer.parseInt(String.valueOf(w).trim());
+                    } catch (NumberFormatException ex) {
+                        weight = 0;
+                    }
+                }
+            }
+            if (!(path instanceof String) || ((String) path).isBlank() || weight <= 0) {
+                log.warning("[Schematics] Invalid schematic variant: " + e);
+                continue;
+            }
+            files.add(resolve.apply(((String) path).trim()));
+            weights.add(weight);
+        }
+        if (files.isEmpty()) return null;
+        int[] w = new int[weights.size()];
+        for (int i = 0; i < w.length; i++) w[i] = weights.get(i);
+        return new VariantPool(files.toArray(new File[0]), w);
+    }
+
+    /**
+     * Returns a pool with another design added.
+     *
+     * @param file   design
+     * @param weight positive weight
+     * @return new pool
+     */
+    VariantPool with(File file, int weight) {
+        File[] f = new File[files.length + 1];
+        int[] w = new int[files.length + 1];
+        for (int i = 0; i < files.length; i++) {
+            f[i] = files[i];
+            w[i] = cumulative[i] - (i == 0 ? 0 : cumulative[i - 1]);
+        }
+        f[files.length] = file;
+        w[files.length] = weight;
+        return new VariantPool(f, w);
+    }
+
+    /**
+     * Picks the design for a grave.
+     *
+     * @param id grave UUID
+     * @return design
+     */
+    File pick(UUID id) {
+        if (files.length == 1) return files[0];
+        long h = id.getMostSignificantBits() ^ id.getLeastSignificantBits();
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        h ^= h >>> 31;
+        int r = (int) Math.floorMod(h, (long) cumulative[cumulative.length - 1]);
+        for (int i = 0; i < cumulative.length; i++) if (r < cumulative[i]) return files[i];
+        return files[files.length - 1];
+    }
+
+    /** @return every design in the pool */
+    List<File> files() {
+        return List.of(files);
+    }
+}
@@ -0,0 +1,100 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.WorldEdit;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.util.SideEffectSet;
+import com.sk89q.worldedit.world.World;
+import com.sk89q.worldedit.world.block.BlockTypes;
+
+/**
+ * Plain WorldEdit backend: synchronous {@link EditSession}s that must run on the server thread.
+ * <p>Every session runs with the configured side-effect profile, so neighbor updates, physics and lighting
+ * can be turned off for grave edits.</p>
+ */
+class WorldEditBackend implements EditBackend {
+
+    /** Side effects applied by every edit session. */
+    private final SideEffectSet sideEffects;
+
+    /**
+     * Creates the backend.
+     *
+     * @param sideEffects side effects applied by every edit session
+     */
+    WorldEditBackend(SideEffectSet sideEffects) {
+        this.sideEffects = sideEffects;
+    }
+
+    /** {@inheritDoc} */
+    @Override public String name() {
+        return "WorldEdit";
+    }
+
+    /** {@inheritDoc} */
+    @Override public BoundedExecutor asyncExecutor() {
+        return null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public ClipboardSnapshot capture(World world, CuboidRegion region) throws Exception {
+        try (EditSession source = newSession(world)) {
+            return ClipboardSnapshot.capture(source, region);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public SparseSnapshot captureSparse(World world, BlockVector3 anchor, PasteFootprint footprint) throws Exception {
+        try (EditSession source = newSession(world)) {
+            return SparseSnapshot.capture(source, anchor, footprint);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void restore(World world, GraveSnapshot snapshot) throws Exception {
+        try (EditSession edit = newSession(world)) {
+            snapshot.restore(edit);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void paste(World world, PastePlan plan, BlockVector3 to) throws Exception {
+        try (EditSession edit = newSession(world)) {
+            plan.apply(edit, to);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void clear(World world, CuboidRegion region) throws Exception {
+        try (EditSession edit = newSession(world)) {
+            edit.setBlocks(region, BlockTypes.AIR.getDefaultState());
+        }
+    }
+
+    /**
+     * Opens an edit session for the world.
+     *
+     * @param world worldedit world
+     * @return new edit session; callers close it
+     */
+    EditSession newSession(World world) {
+        return withSideEffects(WorldEdit.getInstance().newEditSession(world));
+    }
+
+    /**
+     * Applies the side-effect profile to a new session.
+     *
+     * @param session edit session
+     * @return the same session
+     */
+    EditSession withSideEffects(EditSession session) {
+        session.setSideEffectApplier(sideEffects);
+        return session;
+    }
+}
@@ -2,189 +2,261 @@ package dev.cwhead.GravesX.modules.schematics;
 
 import com.ranull.graves.data.EntityData;
 import com.ranull.graves.type.Grave;
-import com.sk89q.worldedit.EditSession;
-import com.sk89q.worldedit.WorldEdit;
-import com.sk89q.worldedit.bukkit.BukkitAdapter;
-import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
-import com.sk89q.worldedit.extent.clipboard.Clipboard;
-import com.sk89q.worldedit.extent.clipboard.io.BuiltInClipboardFormat;
-import com.sk89q.worldedit.extent.clipboard.io.ClipboardFormat;
-import com.sk89q.worldedit.extent.clipboard.io.ClipboardFormats;
-import com.sk89q.worldedit.extent.clipboard.io.ClipboardReader;
-import com.sk89q.worldedit.extent.clipboard.io.ClipboardWriter;
-import com.sk89q.worldedit.function.operation.ForwardExtentCopy;
-import com.sk89q.worldedit.function.operation.Operation;
-import com.sk89q.worldedit.function.operation.Operations;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.regions.CuboidRegion;
-import com.sk89q.worldedit.session.ClipboardHolder;
+import com.sk89q.worldedit.util.SideEffect;
+import com.sk89q.worldedit.util.SideEffectSet;
 import com.sk89q.worldedit.world.World;
 import dev.cwhead.GravesX.api.provider.GraveProvider;
 import dev.cwhead.GravesX.module.ModuleContext;
 import org.bukkit.*;
 import org.bukkit.block.Biome;
 import org.bukkit.block.Block;
+import org.bukkit.event.HandlerList;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
 /**
  * WorldEdit-backed schematic provider that can snapshot, paste, and restore grave builds.
  * <p>Flow:</p>
  * <ol>
- *   <li>Optionally snapshot the target region to a <code>.schem</code>.</li>
- *   <li>Paste the grave schematic (biome-aware overrides supported).</li>
+ *   <li>Optionally snapshot the target region, either the full cuboid or only the blocks the paste
+ *       overwrites; the capture runs on the server thread, the encode and write run on {@link SnapshotIO}.</li>
+ *   <li>Paste the grave schematic (biome-aware overrides and weighted variants supported) from its precompiled
+ *       {@link PastePlan}, turned to face the death direction when <code>paste.rotate</code> is on.</li>
  *   <li>On removal, restore the snapshot or clear the pasted footprint.</li>
  * </ol>
+ * <p>All block work is queued on a {@link GraveTaskScheduler} keyed by grave UUID, so it is spread over
+ * ticks under a time budget while each grave's own steps keep their order. The actual edits go through an
+ * {@link EditBackend}; with FastAsyncWorldEdit installed they run off the server thread.</p>
+ * <p>Reloadable settings and the loaded schematics live in a {@link ProviderSettings} bundle that
+ * {@link #reload()} rebuilds off-thread and swaps in atomically.</p>
  */
 final class WorldEditSnapshotProvider implements GraveProvider {
 
-    /** Module context for logging, config, and scheduler access. */
+    /** Module context for logging, config, and plugin access. */
     private final ModuleContext ctx;
 
-    /** Default grave schematic file. */
-    private final File graveSchem;
-    /** If true, air blocks in the schematic are ignored when pasting. */
-    private final boolean ignoreAir;
-    /** World paste offsets. */
-    private final int offX, offY, offZ;
+    /** Current settings and schematics; replaced as a whole on reload. */
+    private volatile ProviderSettings settings;
+    /** Single worker that builds settings bundles, so reloads apply in request order. */
+    private final ExecutorService reloadExecutor;
+    /** Pool that reads and compiles schematics ({@code schematic.load-threads}). */
+    private final ExecutorService loader;
 
-    /** Enables capture and restore of the pre-paste region. */
-    private final boolean snapEnabled;
     /** Directory to store snapshot schematics. */
     private final File snapDir;
-    /** If true, snapshot region matches clipboard size; otherwise a fixed box is used. */
-    private final boolean useGraveSize;
-    /** Fixed snapshot box size (used when {@link #useGraveSize} is false). */
-    private final int boxX, boxY, boxZ;
-
-    /** Anchor material used to mark that a paste occurred. */
-    private final Material anchorMat;
-    /** Anchor block offsets relative to the grave location. */
-    private final int anchorOffX, anchorOffY, anchorOffZ;
-
-    /** Default grave clipboard (loaded from {@link #graveSchem}). */
-    private volatile Clipboard graveClipboard;
-
-    /** Mapping of biome to override schematic file. */
-    private final Map<Biome, File> biomeSchemFiles = new HashMap<>();
-    /** Cache of loaded override clipboards by biome. */
-    private final Map<Biome, Clipboard> biomeClipboards = new ConcurrentHashMap<>();
+    /** Where encoded snapshots live ({@code snapshot.store.type}). */
+    private final SnapshotStore store;
+    /** Phase timings shown by <code>/schemgrave stats</code>. */
+    private final GraveMetrics metrics = new GraveMetrics();
+    /** Periodic metrics log line, or {@code null} when <code>metrics.log-interval-seconds</code> is 0. */
+    private final ServerTasks.Handle metricsLog;
+    /** Background encoder/writer for snapshots. */
+    private final SnapshotIO snapshotIO;
+    /** Tick-budgeted queue for paste, snapshot, and restore work. */
+    private final GraveTaskScheduler scheduler;
+    /** Block operations backend (plain WorldEdit or FAWE). */
+    private final EditBackend backend;
+    /** Lighting deferred from edit sessions, or {@code null} unless <code>side-effects.lighting</code> is batched. */
+    private final RelightQueue relight;
+    /** Per-tick drain of {@link #relight}, or {@code null}. */
+    private final ServerTasks.Handle relightTask;
+    /** Graves this provider has pasted, answering {@link #isPlaced(Grave)}. */
+    private final PlacedGraveIndex placed;
+    /** Async chunk loader run ahead of block work, or {@code null} when <code>chunks.preload</code> is off. */
+    private final ChunkPreloader preloader;
+    /** Overlapping graves sharing terrain captures, or {@code null} when <code>snapshot.coalesce</code> is off. */
+    private final SnapshotGroups groups;
+    /** Orphaned snapshot sweeper, or {@code null} when <code>gc.enabled</code> is off. */
+    private final SnapshotSweeper sweeper;
+    /** Repeating sweep trigger, or {@code null}. */
+    private final ServerTasks.Handle sweepTask;
+    /** Graves whose removal has started but not finished; their snapshots are never swept. */
+    private final Set<UUID> removing = ConcurrentHashMap.newKeySet();
+    /** Removals waiting for their chunks, or {@code null} when <code>deferred.enabled</code> is off. */
+    private final DeferredRestoreQueue deferred;
+    /** Chunk listener driving {@link #deferred}, or {@code null}. */
+    private final ChunkLoadListener chunkListener;
+    /** Repeating drain of expired deferred removals, or {@code null}. */
+    private final ServerTasks.Handle deferredDrain;
+    /** Log of unfinished places and removals, or {@code null} when <code>journal.enabled</code> is off. */
+    private final OperationJournal journal;
+    /** Load-aware placement mode, or {@code null} when <code>load.enabled</code> is off. */
+    private final LoadGovernor governor;
+    /** Repeating upgrade of degraded graves, or {@code null}. */
+    private final ServerTasks.Handle upgradeTask;
+    /** Degraded graves whose removal for an upgrade is in flight; they are placed again when it finishes. */
+    private final Set<UUID> upgrading = ConcurrentHashMap.newKeySet();
+    /** Upgraded graves whose full place is queued, until its anchor job runs. */
+    private final Set<UUID> upgradePlacing = ConcurrentHashMap.newKeySet();
+    /** Graves whose unfinished place the journal is rolling back; they are placed again when it finishes. */
+    private final Set<UUID> replacing = ConcurrentHashMap.newKeySet();
 
     /**
-     * Creates a provider and reads configuration (schematics, snapshot, and anchor settings).
+     * Creates a provider, reads configuration, and loads the grave schematics.
      *
      * @param ctx module context providing config, logger, and scheduling utilities
      */
     WorldEditSnapshotProvider(ModuleContext ctx) {
-        this.ctx = ctx;
+        this(ctx, null);
+    }
 
-        this.graveSchem = new File(ctx.getDataFolder(), ctx.getConfig().getString("schematic.grave", "schematics/grave.schem"));
-        this.ignoreAir = ctx.getConfig().getBoolean("paste.ignore-air", true);
-        this.offX = ctx.getConfig().getInt("paste.offset.x", 0);
-        this.offY = ctx.getConfig().getInt("paste.offset.y", 0);
-        this.offZ = ctx.getConfig().getInt("paste.offset.z", 0);
+    /**
+     * Creates a provider with a given block backend instead of the configured one; used by the soak harness
+     * to run against an in-memory world.
+     *
+     * @param ctx     module context providing config, logger, and scheduling utilities
+     * @param backend block operations backend, or {@code null} to pick WorldEdit or FAWE from config
+     */
+    WorldEditSnapshotProvider(ModuleContext ctx, EditBackend backend) {
+        this.ctx = ctx;
+        this.loader = Executors.newFixedThreadPool(
+                Math.max(1, ctx.getConfig().getInt("schematic.load-threads", 4)),
+                new SnapshotIO.NamedThreadFactory("GravesX-Schematics-Loader"));
+        this.settings = ProviderSettings.load(ctx, loader);
+        this.reloadExecutor = Executors.newSingleThreadExecutor(new SnapshotIO.NamedThreadFactory("GravesX-Schematics-Reload"));
 
-        this.snapEnabled = ctx.getConfig().getBoolean("snapshot.enabled", true);
         this.snapDir = new File(ctx.getDataFolder(), ctx.getConfig().getString("snapshot.dir", "backups"));
         if (!snapDir.exists()) snapDir.mkdirs();
-        this.useGraveSize = ctx.getConfig().getBoolean("snapshot.use-grave-size", true);
-        this.boxX = Math.max(1, ctx.getConfig().getInt("snapshot.box.x", 5));
-        this.boxY = Math.max(1, ctx.getConfig().getInt("snapshot.box.y", 4));
-        this.boxZ = Math.max(1, ctx.getConfig().getInt("snapshot.box.z", 5));
-
-        Material mat;
-        try {
-            mat = Material.valueOf(ctx.getConfig().getString("anchor.material", "POLISHED_BLACKSTONE_BUTTON").toUpperCase(Locale.ROOT));
-        } catch (IllegalArgumentException e) {
-            mat = Material.POLISHED_BLACKSTONE_BUTTON;
-        }
-        this.anchorMat = mat;
-        this.anchorOffX = ctx.getConfig().getInt("anchor.offset.x", 0);
-        this.anchorOffY = ctx.getConfig().getInt("anchor.offset.y", 0);
-        this.anchorOffZ = ctx.getConfig().getInt("anchor.offset.z", 0);
-
-        java.util.List<String> biomeOverrides = ctx.getConfig().getStringList("schematic.override.biomes");
-        for (String line : biomeOverrides) {
-            if (line == null || line.isBlank()) continue;
-            String[] parts = line.split(":", 2);
-            if (parts.length < 2) {
-                ctx.getLogger().warning("[Schematics] Invalid biome override entry (missing ':'): " + line);
-                continue;
-            }
-
-            String biomeKey = parts[0].trim();
-            String path = parts[1].trim();
-
-            Biome biome = resolveBiome(biomeKey);
-            if (biome == null) {
-                ctx.getLogger().warning("[Schematics] Unknown biome in override: " + biomeKey + " (entry: " + line + ")");
-                continue;
-            }
+        this.store = openStore(ctx);
+        this.snapshotIO = new SnapshotIO(
+                ctx.getLogger(),
+                settings.codecs,
+                store,
+                Math.max(1, ctx.getConfig().getInt("snapshot.io.threads", 2)),
+                Math.max(1, ctx.getConfig().getInt("snapshot.io.queue", 256)),
+                metrics
+        );
+        this.scheduler = new GraveTaskScheduler(
+                ctx.getPlugin(),
+                ctx.getLogger(),
+                Math.max(0.1D, ctx.getConfig().getDouble("scheduler.tick-budget-ms", 2.0D))
+        );
+        this.scheduler.start();
 
-            File f = new File(path);
-            if (!f.isAbsolute()) f = new File(ctx.getDataFolder(), path);
-            biomeSchemFiles.put(biome, f);
+        String lighting = ctx.getConfig().getString("side-effects.lighting", "batched").toLowerCase(Locale.ROOT);
+        if (ServerTasks.FOLIA && "batched".equals(lighting)) {
+            ctx.getLogger().info("[Schematics] Batched lighting needs a single server thread; lighting each edit session on Folia.");
+            lighting = "on";
+        }
+        SideEffectSet sideEffects = sideEffects(ctx, lighting);
+        boolean hasFAWE = Bukkit.getPluginManager().getPlugin("FastAsyncWorldEdit") != null;
+        this.backend = backend != null ? backend
+                : (hasFAWE && ctx.getConfig().getBoolean("fawe.async", true))
+                ? new FaweEditBackend(
+                        Math.max(1, ctx.getConfig().getInt("fawe.threads", 2)),
+                        Math.max(1, ctx.getConfig().getInt("fawe.queue", 256)),
+                        sideEffects)
+                : new WorldEditBackend(sideEffects);
+        if ("batched".equals(lighting)) {
+            this.relight = new RelightQueue(ctx.getLogger(),
+                    Math.max(1, ctx.getConfig().getInt("side-effects.relight-per-tick", 4096)), metrics);
+            this.relightTask = ServerTasks.repeat(ctx.getPlugin(), relight::drain, 1L, 1L);
+        } else {
+            this.relight = null;
+            this.relightTask = null;
         }
 
-        loadGraveClipboard();
-    }
-
-    /**
-     * Resolves a {@link Biome} from a key like {@code minecraft:plains}, {@code PLAINS}, or {@code plains}.
-     *
-     * @param raw biome key string
-     * @return resolved biome or {@code null} if unknown
-     */
-    private Biome resolveBiome(String raw) {
-        if (raw == null || raw.isBlank()) return null;
-
-        String normalized = raw.trim().replace(' ', '_').replace('-', '_');
-        NamespacedKey key = normalized.contains(":")
-                ? NamespacedKey.fromString(normalized.toLowerCase(Locale.ROOT))
-                : NamespacedKey.fromString("minecraft:" + normalized.toLowerCase(Locale.ROOT));
+        this.preloader = ctx.getConfig().getBoolean("chunks.preload", true)
+                ? new ChunkPreloader(ctx.getPlugin(), ctx.getLogger(),
+                        Math.max(100L, ctx.getConfig().getLong("chunks.preload-timeout-ms", 5000L)))
+                : null;
 
-        try {
-            Object server = Bukkit.getServer();
-            Object registryAccess = server.getClass().getMethod("getRegistryAccess").invoke(server);
+        this.placed = new PlacedGraveIndex(
+                ctx.getLogger(),
+                new File(ctx.getDataFolder(), "placed.dat"),
+                Math.max(1L, ctx.getConfig().getLong("index.flush-seconds", 5L))
+        );
 
-            Class<?> registryKeyCls = Class.forName("org.bukkit.RegistryKey");
-            Object BIOME_KEY = registryKeyCls.getField("BIOME").get(null);
+        this.groups = ctx.getConfig().getBoolean("snapshot.coalesce", true)
+                ? new SnapshotGroups(
+                        ctx.getLogger(),
+                        new File(ctx.getDataFolder(), "groups.dat"),
+                        Math.max(1L, ctx.getConfig().getLong("index.flush-seconds", 5L)))
+                : null;
+
+        if (ctx.getConfig().getBoolean("gc.enabled", true)) {
+            String archive = ctx.getConfig().getString("gc.archive-dir", "");
+            this.sweeper = new SnapshotSweeper(
+                    ctx.getLogger(),
+                    store,
+                    archive == null || archive.isEmpty() ? null : new File(snapDir, archive),
+                    Math.max(1L, ctx.getConfig().getLong("gc.min-age-minutes", 60L)) * 60_000L
+            );
+            long sweepTicks = Math.max(1L, ctx.getConfig().getLong("gc.interval-minutes", 30L)) * 1200L;
+            this.sweepTask = ServerTasks.repeat(ctx.getPlugin(), this::sweepOrphans, sweepTicks, sweepTicks);
+        } else {
+            this.sweeper = null;
+            this.sweepTask = null;
+        }
 
-            Object registry = registryAccess.getClass()
-                    .getMethod("getRegistry", registryKeyCls)
-                    .invoke(registryAccess, BIOME_KEY);
+        long logSeconds = ctx.getConfig().getLong("metrics.log-interval-seconds", 0L);
+        this.metricsLog = logSeconds > 0L
+                ? ServerTasks.repeat(ctx.getPlugin(), this::logMetrics, logSeconds * 20L, logSeconds * 20L)
+                : null;
 
-            if (key != null) {
-                Biome viaAccess = (Biome) registry.getClass()
-                        .getMethod("get", NamespacedKey.class)
-                        .invoke(registry, key);
-                if (viaAccess != null) return viaAccess;
-            }
-        } catch (Throwable ignored) {
+        if (ctx.getConfig().getBoolean("deferred.enabled", false)) {
+            this.deferred = new DeferredRestoreQueue(
+                    ctx.getLogger(),
+                    new File(ctx.getDataFolder(), "deferred.dat"),
+                    Math.max(1L, ctx.getConfig().getLong("index.flush-seconds", 5L))
+            );
+            this.chunkListener = new ChunkLoadListener(this);
+            Bukkit.getPluginManager().registerEvents(chunkListener, ctx.getPlugin());
+
+            long maxAgeMillis = Math.max(1L, ctx.getConfig().getLong("deferred.max-age-minutes", 30L)) * 60_000L;
+            int batch = Math.max(1, ctx.getConfig().getInt("deferred.drain-batch", 2));
+            long interval = Math.max(1L, ctx.getConfig().getLong("deferred.drain-interval-seconds", 10L)) * 20L;
+            this.deferredDrain = ServerTasks.repeat(ctx.getPlugin(), () -> {
+                for (DeferredRestoreQueue.Entry e : deferred.pollExpired(System.currentTimeMillis() - maxAgeMillis, batch)) {
+                    applyDeferred(e);
+                }
+            }, interval, interval);
+            ServerTasks.run(ctx.getPlugin(), () -> {
+                for (DeferredRestoreQueue.Entry e : deferred.pollReady(this::isChunkLoaded)) applyDeferred(e);
+            });
+        } else {
+            this.deferred = null;
+            this.chunkListener = null;
+            this.deferredDrain = null;
         }
 
-        try {
-            Class<?> registryCls = Class.forName("org.bukkit.Registry");
-            Object biomeRegistry = registryCls.getField("BIOME").get(null);
-            if (biomeRegistry != null && key != null) {
-                Biome viaDeprecated = (Biome) biomeRegistry.getClass()
-                        .getMethod("get", NamespacedKey.class)
-                        .invoke(biomeRegistry, key);
-                if (viaDeprecated != null) return viaDeprecated;
-            }
-        } catch (Throwable ignored) {
+        if (ctx.getConfig().getBoolean("load.enabled", false)) {
+            this.governor = new LoadGovernor(
+                    WorldEditSnapshotProvider::averageTickTime,
+                    () -> scheduler.queueDepth() + snapshotIO.pendingCount(),
+                    System::currentTimeMillis,
+                    ctx.getConfig().getDouble("load.light-mspt", 40.0D),
+                    Math.max(1, ctx.getConfig().getInt("load.light-queue", 128)),
+                    ctx.getConfig().getDouble("load.anchor-mspt", 50.0D),
+                    Math.max(1, ctx.getConfig().getInt("load.anchor-queue", 512)),
+                    Math.max(1L, ctx.getConfig().getLong("load.recover-seconds", 30L)) * 1000L
+            );
+            int perSecond = Math.max(1, ctx.getConfig().getInt("load.upgrades-per-second", 2));
+            this.upgradeTask = ServerTasks.repeat(ctx.getPlugin(), () -> upgradeGraves(perSecond), 20L, 20L);
+        } else {
+            this.governor = null;
+            this.upgradeTask = null;
         }
 
-        try {
-            return Biome.valueOf(normalized.toUpperCase(Locale.ROOT));
-        } catch (IllegalArgumentException ex) {
-            return null;
+        this.journal = openJournal(ctx);
+        if (journal != null && !journal.recovered().isEmpty()) {
+            ServerTasks.run(ctx.getPlugin(), this::recoverJournal);
         }
     }
 
@@ -198,163 +270,757 @@ final class WorldEditSnapshotProvider implements GraveProvider {
         return 1000;
     }
 
+    /**
+     * Rebuilds the settings bundle from the current config on a background thread and swaps it in.
+     * Operations already queued keep the bundle they started with.
+     *
+     * @return future holding the new bundle once it is active
+     */
+    CompletableFuture<ProviderSettings> reload() {
+        return CompletableFuture.supplyAsync(() -> {
+            ProviderSettings next = ProviderSettings.load(ctx, loader);
+            settings = next;
+            return next;
+        }, reloadExecutor);
+    }
+
     /**
      * Pastes the grave schematic at the given location and writes a snapshot beforehand if enabled.
+     * The chunks under the grave are loaded asynchronously first when <code>chunks.preload</code> is on.
+     * With the journal on, the paste also waits until the snapshot write has finished, so a crash never
+     * leaves a pasted grave whose snapshot is missing.
+     * <p>With <code>load.enabled</code>, the {@link LoadGovernor} may ask for a cheaper grave while the server
+     * or this module is behind: the fallback schematic with a delta snapshot, or the anchor block alone.
+     * Such graves are upgraded by {@link #upgradeGraves} once the load has recovered.</p>
      *
      * @param loc   paste base location (usually the death location)
      * @param grave grave metadata used for snapshot naming and context
      */
     @Override
     public void place(Location loc, Grave grave) {
+        place(loc, grave, governor != null ? governor.mode() : LoadGovernor.Mode.FULL);
+    }
+
+    /**
+     * Places a grave in the given mode.
+     *
+     * @param loc   paste base location
+     * @param grave grave metadata
+     * @param mode  full grave, fallback schematic, or anchor only; light without a fallback schematic
+     *              places the anchor only
+     */
+    private void place(Location loc, Grave grave, LoadGovernor.Mode mode) {
         if (valid(loc)) return;
 
+        final ProviderSettings s = settings;
         final org.bukkit.World bw = loc.getWorld();
-        final World weWorld = BukkitAdapter.adapt(bw);
+        final World weWorld = backend.adapt(bw);
 
         final BlockVector3 pasteTo = BlockVector3.at(
-                loc.getBlockX() + offX,
-                loc.getBlockY() + offY,
-                loc.getBlockZ() + offZ
+                loc.getBlockX() + s.offX,
+                loc.getBlockY() + s.offY,
+                loc.getBlockZ() + s.offZ
         );
 
-        final Clipboard activeClip = resolveClipboardForBiome(bw, pasteTo);
-        if (activeClip == null) {
+        final UUID id = grave.getUUID();
+        scheduler.home(id, bw, pasteTo.x(), pasteTo.z());
+        final boolean light = mode != LoadGovernor.Mode.FULL;
+        final LoadedSchematic active = !light ? resolveSchematic(s, bw, pasteTo, id)
+                : mode == LoadGovernor.Mode.LIGHT ? s.fallbackSchematic
+                : null;
+        if (active == null && !light) {
             ctx.getLogger().warning("[Schematics] No grave schematic available to paste.");
+            upgradePlacing.remove(id);
+            scheduler.forget(id);
             return;
         }
+        if (active == null) {
+            placeAnchorOnly(s, loc, bw, id);
+            return;
+        }
+        if (light) governor.placed(LoadGovernor.Mode.LIGHT);
+        final int turns = s.turnsFor(loc.getYaw());
+
+        final CuboidRegion pasteRegion = active.region(turns, pasteTo);
+        final CuboidRegion snapRegion = s.useGraveSize || light
+                ? pasteRegion
+                : regionFromBoxAt(pasteTo, s.boxX, s.boxY, s.boxZ);
+
+        final boolean delta = s.deltaSnapshots || light;
+        final SnapshotCodec codec = s.codecs.writer(delta);
+        final PastePlan plan = active.plan(turns);
+        final PasteFootprint footprint = delta ? plan.footprint() : null;
+        final int[] chunkBounds = union(union(toInts(pasteRegion), toInts(snapRegion)), anchorBounds(s, loc));
+
+        if (journal != null) {
+            journal.begin(new OperationJournal.Intent(OperationJournal.Op.PLACE, id, bw.getUID(),
+                    new int[]{pasteTo.x(), pasteTo.y(), pasteTo.z()}, Arrays.copyOf(anchorBounds(s, loc), 3),
+                    toInts(pasteRegion), turns, Collections.emptyList(), false));
+        }
+        preloadChunks(id, GraveTaskScheduler.Priority.PASTE, bw, chunkBounds);
 
-        final CuboidRegion snapRegion = useGraveSize
-                ? regionAlignedToClipboard(activeClip, pasteTo)
-                : regionFromBoxAt(pasteTo, boxX, boxY, boxZ);
-
-        final File snapFile = new File(snapDir, grave.getUUID().toString() + ".schem");
-
-        ctx.runTask(() -> {
-            if (snapEnabled) {
+        final CompletableFuture<Void> durable = journal != null && s.snapEnabled ? new CompletableFuture<>() : null;
+        if (s.snapEnabled) {
+            submitCapture(id, bw, pasteTo, () -> {
+                CompletableFuture<Void> written = null;
+                CompletableFuture<Void> busy = null;
                 try {
-                    if (snapRegion.getVolume() == 0) {
+                    if (footprint != null ? footprint.size() == 0 : snapRegion.getVolume() == 0) {
                         ctx.getLogger().warning("[Schematics] Snapshot region is empty; skipping backup.");
+                        return null;
+                    }
+                    int[] uncovered = null;
+                    if (groups != null) {
+                        SnapshotGroups.Joined joined = groups.join(id, bw.getUID(), footprint != null
+                                ? SnapshotGroups.Coverage.cells(pasteTo.x(), pasteTo.y(), pasteTo.z(), footprint.offsets())
+                                : SnapshotGroups.Coverage.cuboid(toInts(snapRegion)), pasteTo);
+                        busy = joined.busy;
+                        if (busy != null) return busy;
+                        uncovered = joined.uncovered;
+                    }
+
+                    GraveSnapshot snap;
+                    long t0 = GraveMetrics.start();
+                    if (uncovered != null) {
+                        if (uncovered.length == 0) return null;
+                        snap = backend.captureSparse(weWorld, pasteTo, new PasteFootprint(uncovered));
+                    } else if (footprint != null) {
+                        snap = backend.captureSparse(weWorld, pasteTo, footprint);
                     } else {
-                        saveRegionToSchematic(weWorld, snapRegion, snapFile);
+                        snap = backend.capture(weWorld, snapRegion);
                     }
+                    metrics.record(GraveMetrics.Phase.SNAPSHOT_CAPTURE, t0);
+                    written = snapshotIO.write(id, snap, uncovered != null ? s.codecs.writer(true) : codec);
                 } catch (Throwable t) {
                     ctx.getLogger().warning("[Schematics] Snapshot failed: " + t.getMessage());
+                } finally {
+                    if (durable != null && busy == null) {
+                        if (written == null) durable.complete(null);
+                        else written.whenComplete((v, t) -> durable.complete(null));
+                    }
                 }
-            }
+                return null;
+            });
+        }
+        if (durable != null) {
+            scheduler.submitAsync(id, GraveTaskScheduler.Priority.PASTE, () -> durable.thenRun(() -> journal.captured(id)));
+        }
 
-            try (EditSession edit = WorldEdit.getInstance().newEditSession(weWorld)) {
-                ClipboardHolder holder = new ClipboardHolder(activeClip);
-                Operation op = holder.createPaste(edit)
-                        .to(pasteTo)
-                        .ignoreAirBlocks(ignoreAir)
-                        .build();
-                Operations.complete(op);
+        submitBlockWork(id, GraveTaskScheduler.Priority.PASTE, () -> {
+            try {
+                long t0 = GraveMetrics.start();
+                backend.paste(weWorld, plan, pasteTo);
+                metrics.record(GraveMetrics.Phase.PASTE, t0);
+                if (relight != null) relight.mark(weWorld, toInts(pasteRegion));
             } catch (Throwable t) {
                 ctx.getLogger().warning("[Schematics] Paste failed: " + t.getMessage());
             }
+        });
 
-            Block anchor = bw.getBlockAt(
-                    loc.getBlockX() + anchorOffX,
-                    loc.getBlockY() + anchorOffY,
-                    loc.getBlockZ() + anchorOffZ
-            );
-            if (anchor.getType() != anchorMat) anchor.setType(anchorMat, false);
+        scheduler.submit(id, GraveTaskScheduler.Priority.PASTE, () -> {
+            long t0 = GraveMetrics.start();
+            Block anchor = anchorBlock(s, bw, loc);
+            if (anchor.getType() != s.anchorMat) anchor.setType(s.anchorMat, false);
+            metrics.record(GraveMetrics.Phase.ANCHOR_SET, t0);
+            placed.add(id, new PlacedGraveIndex.Entry(bw.getUID(), anchor.getX(), anchor.getY(), anchor.getZ(),
+                    toInts(pasteRegion), light));
+            upgradePlacing.remove(id);
+            if (journal != null) journal.done(OperationJournal.Op.PLACE, id);
         });
+        releaseChunks(id, GraveTaskScheduler.Priority.PASTE, bw, chunkBounds);
+    }
+
+    /**
+     * Places only the anchor block of a grave, for the heaviest load. Nothing is captured; the indexed
+     * region is the anchor itself, so a removal before the upgrade clears nothing else.
+     *
+     * @param s   settings
+     * @param loc grave location
+     * @param bw  Bukkit world
+     * @param id  grave UUID
+     */
+    private void placeAnchorOnly(ProviderSettings s, Location loc, org.bukkit.World bw, UUID id) {
+        governor.placed(LoadGovernor.Mode.ANCHOR);
+        scheduler.submit(id, GraveTaskScheduler.Priority.PASTE, () -> {
+            long t0 = GraveMetrics.start();
+            Block anchor = anchorBlock(s, bw, loc);
+            if (anchor.getType() != s.anchorMat) anchor.setType(s.anchorMat, false);
+            metrics.record(GraveMetrics.Phase.ANCHOR_SET, t0);
+            placed.add(id, new PlacedGraveIndex.Entry(bw.getUID(), anchor.getX(), anchor.getY(), anchor.getZ(),
+                    anchorBounds(s, loc), true));
+        });
+    }
+
+    /**
+     * Upgrades a few degraded graves to their full schematic once the {@link LoadGovernor} reports the load
+     * has recovered. An upgrade is a normal removal, which restores the terrain under the light grave,
+     * followed by a full place on the same lane when the removal finishes; {@link #isPlaced} reports the
+     * grave as placed until the full grave's anchor is set. Graves whose chunks are not loaded are left for
+     * a later pass.
+     *
+     * @param budget upgrades started per call
+     */
+    private void upgradeGraves(int budget) {
+        if (!governor.recovered()) return;
+        Map<UUID, Grave> graves = ctx.getPlugin().getCacheManager().getGraveMap();
+        ProviderSettings s = settings;
+        for (UUID id : placed.light()) {
+            if (budget <= 0) return;
+            if (removing.contains(id) || upgrading.contains(id)) continue;
+            Grave grave = graves.get(id);
+            PlacedGraveIndex.Entry e = placed.get(id);
+            if (grave == null || e == null || valid(grave.getLocationDeath())) continue;
+            org.bukkit.World bw = grave.getLocationDeath().getWorld();
+            int[] bounds = e.region != null ? union(e.region, new int[]{e.x, e.y, e.z, e.x, e.y, e.z})
+                    : new int[]{e.x, e.y, e.z, e.x, e.y, e.z};
+            if (!allLoaded(bw, bounds)) continue;
+            upgrading.add(id);
+            removeGrave(grave);
+            budget--;
+        }
+    }
+
+    /**
+     * Checks that every chunk under some bounds is loaded, without loading any.
+     *
+     * @param bw     Bukkit world
+     * @param bounds bounds as min x/y/z, max x/y/z
+     * @return true if all are loaded
+     */
+    private static boolean allLoaded(org.bukkit.World bw, int[] bounds) {
+        for (int cx = bounds[0] >> 4; cx <= bounds[3] >> 4; cx++) {
+            for (int cz = bounds[2] >> 4; cz <= bounds[5] >> 4; cz++) {
+                if (!bw.isChunkLoaded(cx, cz)) return false;
+            }
+        }
+        return true;
     }
 
     /**
      * Removes a previously pasted grave by restoring a snapshot or clearing the pasted region.
+     * <p>Restores run in two phases: a stored snapshot is read and decoded on {@link SnapshotIO},
+     * and only the final paste is queued on the {@link GraveTaskScheduler}. Restores outrank plain clears.</p>
+     * <p>With <code>deferred.enabled</code>, a removal whose chunks are not all loaded is queued in the
+     * {@link DeferredRestoreQueue} instead and runs when those chunks load, or when it expires.</p>
      *
      * @param grave grave whose region should be restored or cleared
      */
     @Override
     public void remove(Grave grave) {
+        if (upgrading.remove(grave.getUUID()) || replacing.remove(grave.getUUID())) return;
+        upgradePlacing.remove(grave.getUUID());
+        removeGrave(grave);
+    }
+
+    /**
+     * Removes a grave; {@link #remove} without the upgrade check. A grave removed while its upgrade, or the
+     * journal's rollback of its place, is in flight only cancels the place that would follow, since that
+     * removal already restores the terrain.
+     *
+     * @param grave grave whose region should be restored or cleared
+     */
+    private void removeGrave(Grave grave) {
         Location loc = grave.getLocationDeath();
         if (valid(loc)) return;
 
+        final ProviderSettings s = settings;
         final org.bukkit.World bw = loc.getWorld();
-        final World weWorld = BukkitAdapter.adapt(bw);
-
         final BlockVector3 pasteTo = BlockVector3.at(
-                loc.getBlockX() + offX,
-                loc.getBlockY() + offY,
-                loc.getBlockZ() + offZ
+                loc.getBlockX() + s.offX,
+                loc.getBlockY() + s.offY,
+                loc.getBlockZ() + s.offZ
         );
 
-        final File snapFile = new File(snapDir, grave.getUUID().toString() + ".schem");
-
-        ctx.runTask(() -> {
-            boolean restored = false;
+        final UUID id = grave.getUUID();
+        removing.add(id);
+        PlacedGraveIndex.Entry entry = placed.remove(id);
+        int[] anchor = entry != null
+                ? new int[]{entry.x, entry.y, entry.z}
+                : new int[]{loc.getBlockX() + s.anchorOffX, loc.getBlockY() + s.anchorOffY, loc.getBlockZ() + s.anchorOffZ};
+        int[] region = entry != null ? entry.region : null;
+        int turns = s.turnsFor(loc.getYaw());
+
+        if (deferred != null) {
+            DeferredRestoreQueue.Entry d = new DeferredRestoreQueue.Entry(id, bw.getUID(),
+                    new int[]{pasteTo.x(), pasteTo.y(), pasteTo.z()}, anchor, region, removalBounds(s, pasteTo, region),
+                    System.currentTimeMillis(), turns);
+            if (!d.allLoaded(this::isChunkLoaded)) {
+                deferred.add(d);
+                return;
+            }
+        }
+        removeNow(s, id, bw, pasteTo, anchor, region, turns);
+    }
 
-            if (snapEnabled && snapFile.exists()) {
-                Clipboard activeClip = resolveClipboardForBiome(bw, pasteTo);
-                CuboidRegion snapRegion = (activeClip != null)
-                        ? regionAlignedToClipboard(activeClip, pasteTo)
-                        : regionFromBoxAt(pasteTo, boxX, boxY, boxZ);
+    /**
+     * Runs a removal: restores the snapshot if there is one, otherwise clears the region.
+     * The snapshot keys are resolved here and journaled before any block work is queued.
+     *
+     * @param s       settings the removal started with
+     * @param id      grave UUID
+     * @param bw      Bukkit world
+     * @param pasteTo paste anchor the grave was placed at
+     * @param anchor  anchor block x/y/z
+     * @param region  pasted region as min/max ints, or {@code null} to resolve it from the schematic
+     * @param turns   clockwise quarter turns the grave was pasted with, used when the region is resolved
+     */
+    private void removeNow(ProviderSettings s, UUID id, org.bukkit.World bw, BlockVector3 pasteTo, int[] anchor,
+                           int[] region, int turns) {
+        final List<UUID> groupKeys = groups != null ? groups.leave(id) : null;
+        final List<UUID> keys = !s.snapEnabled ? Collections.emptyList()
+                : groupKeys != null ? groupKeys : Collections.singletonList(id);
+        final boolean shared = groupKeys != null && groupKeys.isEmpty();
+
+        if (journal != null) {
+            journal.begin(new OperationJournal.Intent(OperationJournal.Op.REMOVE, id, bw.getUID(),
+                    new int[]{pasteTo.x(), pasteTo.y(), pasteTo.z()}, anchor, region, turns, keys, shared));
+        }
+        runRemove(s, id, bw, pasteTo, anchor, region, turns, keys, shared, true);
+    }
 
-                Clipboard snap = null;
-                try { snap = loadClipboard(snapFile); }
-                catch (Throwable t) {
-                    ctx.getLogger().warning("[Schematics] Failed to load snapshot; clearing instead: " + t.getMessage());
+    /**
+     * Queues the block work of a removal whose snapshot keys are known. The grave's lane stays held until
+     * the snapshots are loaded and the restore jobs queued, so nothing submitted later overtakes them.
+     *
+     * @param s              settings the removal started with
+     * @param id             grave UUID
+     * @param bw             Bukkit world
+     * @param pasteTo        paste anchor the grave was placed at
+     * @param anchor         anchor block x/y/z
+     * @param region         pasted region as min/max ints, or {@code null} to resolve it from the schematic
+     * @param turns          clockwise quarter turns the grave was pasted with
+     * @param keys           snapshot keys to restore; empty to clear
+     * @param shared         the grave left a shared group; only its anchor is removed
+     * @param clearIfMissing clear the region when none of the keys has a snapshot; false when replaying a
+     *                       journaled removal, whose snapshots may be gone because they were already restored
+     */
+    private void runRemove(ProviderSettings s, UUID id, org.bukkit.World bw, BlockVector3 pasteTo, int[] anchor,
+                           int[] region, int turns, List<UUID> keys, boolean shared, boolean clearIfMissing) {
+        final World weWorld = backend.adapt(bw);
+        scheduler.home(id, bw, pasteTo.x(), pasteTo.z());
+        scheduler.submitAsync(id, GraveTaskScheduler.Priority.RESTORE, () -> {
+            final CuboidRegion clearRegion;
+            if (region != null) {
+                clearRegion = new CuboidRegion(
+                        BlockVector3.at(region[0], region[1], region[2]),
+                        BlockVector3.at(region[3], region[4], region[5]));
+            } else {
+                LoadedSchematic active = resolveSchematic(s, bw, pasteTo, id);
+                clearRegion = (active != null)
+                        ? active.region(turns, pasteTo)
+                        : regionFromBoxAt(pasteTo, s.boxX, s.boxY, s.boxZ);
+            }
+            final int[] chunkBounds = union(removalBounds(s, pasteTo, toInts(clearRegion)),
+                    new int[]{anchor[0], anchor[1], anchor[2], anchor[0], anchor[1], anchor[2]});
+
+            CompletableFuture<Void> ready = preloader != null
+                    ? preloader.load(bw, chunkBounds)
+                    : CompletableFuture.completedFuture(null);
+            return ready.thenCompose(v -> {
+                if (shared) {
+                    finishRemove(s, id, bw, anchor, weWorld, clearRegion, chunkBounds, null, null);
+                    return CompletableFuture.completedFuture(null);
                 }
+                List<Runnable> cleanup = new ArrayList<>();
+                return loadSnapshots(keys, cleanup).thenAccept(snaps -> finishRemove(s, id, bw, anchor, weWorld, clearRegion,
+                        chunkBounds, snaps.isEmpty() && !keys.isEmpty() && !clearIfMissing ? null : snaps,
+                        () -> cleanup.forEach(Runnable::run)));
+            });
+        });
+    }
 
-                if (snap != null) {
-                    BlockVector3 restoreAt = snapRegion.getMinimumPoint();
-                    try (EditSession edit = WorldEdit.getInstance().newEditSession(weWorld)) {
-                        ClipboardHolder holder = new ClipboardHolder(snap);
-                        Operation op = holder.createPaste(edit)
-                                .to(restoreAt)
-                                .ignoreAirBlocks(false) // exact restoration
-                                .build();
-                        Operations.complete(op);
-                        restored = true;
-                    } catch (Throwable t) {
-                        ctx.getLogger().warning("[Schematics] Snapshot paste failed: " + t.getMessage());
-                    }
-                    if (restored && !snapFile.delete()) snapFile.deleteOnExit();
-                }
+    /**
+     * Loads the snapshots stored under some keys, preferring ones still pending in memory.
+     *
+     * @param keys    snapshot keys
+     * @param cleanup receives, per loaded snapshot, the action that disposes of it once restored
+     * @return future holding every snapshot that could be loaded, in key order
+     */
+    private CompletableFuture<List<GraveSnapshot>> loadSnapshots(List<UUID> keys, List<Runnable> cleanup) {
+        List<CompletableFuture<GraveSnapshot>> loads = new ArrayList<>(keys.size());
+        for (UUID key : keys) {
+            GraveSnapshot inMemory = snapshotIO.pending(key);
+            if (inMemory != null) {
+                loads.add(CompletableFuture.completedFuture(inMemory));
+                cleanup.add(() -> snapshotIO.discard(key, inMemory));
+            } else if (store.contains(key)) {
+                loads.add(snapshotIO.read(key).exceptionally(t -> {
+                    ctx.getLogger().warning("[Schematics] Failed to load snapshot " + key + ": " + t.getMessage());
+                    return null;
+                }));
+                cleanup.add(() -> store.delete(key));
             }
+        }
+        return CompletableFuture.allOf(loads.toArray(new CompletableFuture[0])).thenApply(v -> {
+            List<GraveSnapshot> out = new ArrayList<>(loads.size());
+            for (CompletableFuture<GraveSnapshot> f : loads) {
+                GraveSnapshot snap = f.join();
+                if (snap != null) out.add(snap);
+            }
+            return out;
+        });
+    }
 
-            if (!restored) {
-                Clipboard activeClip = resolveClipboardForBiome(bw, pasteTo);
-                CuboidRegion clear = (activeClip != null)
-                        ? regionAlignedToClipboard(activeClip, pasteTo)
-                        : regionFromBoxAt(pasteTo, boxX, boxY, boxZ);
+    /**
+     * Second half of {@link #removeNow}: queues the snapshot pastes (or a clear of the footprint),
+     * then the anchor removal, on the grave's lane. A grave leaving a shared group passes {@code null}
+     * snapshots and only loses its anchor; the terrain is restored when the last member leaves. The group
+     * of the last member stays covered until the restore has run, so an overlapping grave placed meanwhile
+     * never captures this grave's blocks; if it joined before the restore started, it takes the group over
+     * and the restore is skipped.
+     *
+     * @param s           settings the removal started with
+     * @param id          grave UUID used as the scheduler lane
+     * @param bw          Bukkit world
+     * @param anchor      anchor block x/y/z
+     * @param weWorld     worldedit world
+     * @param region      region the grave occupies, cleared when there is no snapshot
+     * @param chunkBounds bounds whose chunks were preloaded, released after the anchor removal
+     * @param snaps       decoded snapshots, empty to clear, or {@code null} to leave the terrain alone
+     * @param onRestored  callback run once every snapshot was restored, may be {@code null}
+     */
+    private void finishRemove(ProviderSettings s, UUID id, org.bukkit.World bw, int[] anchor, World weWorld,
+                              CuboidRegion region, int[] chunkBounds, List<GraveSnapshot> snaps, Runnable onRestored) {
+        if (snaps != null) {
+            submitBlockWork(id,
+                    !snaps.isEmpty() ? GraveTaskScheduler.Priority.RESTORE : GraveTaskScheduler.Priority.CLEAR,
+                    () -> {
+                        if (groups != null && !groups.claim(id)) return;
+                        try {
+                            restoreOrClear(weWorld, region, chunkBounds, snaps, onRestored);
+                        } finally {
+                            if (groups != null) groups.restored(id);
+                        }
+                    });
+        }
 
-                try (EditSession edit = WorldEdit.getInstance().newEditSession(weWorld)) {
-                    edit.setBlocks(clear, com.sk89q.worldedit.world.block.BlockTypes.AIR.getDefaultState());
-                } catch (Throwable t) {
-                    ctx.getLogger().warning("[Schematics] Clear failed: " + t.getMessage());
+        scheduler.submit(id, GraveTaskScheduler.Priority.CLEAR, () -> {
+            if (groups != null) groups.restored(id);
+            long t0 = GraveMetrics.start();
+            Block block = bw.getBlockAt(anchor[0], anchor[1], anchor[2]);
+            if (block.getType() == s.anchorMat) {
+                block.setType(Material.AIR, false);
+            }
+            metrics.record(GraveMetrics.Phase.ANCHOR_SET, t0);
+            removing.remove(id);
+            if (journal != null) journal.done(OperationJournal.Op.REMOVE, id);
+            scheduler.forget(id);
+            if (upgrading.remove(id)) {
+                Grave grave = ctx.getPlugin().getCacheManager().getGraveMap().get(id);
+                if (grave != null) {
+                    upgradePlacing.add(id);
+                    place(grave.getLocationDeath(), grave, LoadGovernor.Mode.FULL);
+                    governor.upgraded();
                 }
+            } else if (replacing.remove(id)) {
+                Grave grave = ctx.getPlugin().getCacheManager().getGraveMap().get(id);
+                if (grave != null) place(grave.getLocationDeath(), grave);
             }
+        });
+        releaseChunks(id, GraveTaskScheduler.Priority.CLEAR, bw, chunkBounds);
+    }
 
-            Block anchor = bw.getBlockAt(
-                    loc.getBlockX() + anchorOffX,
-                    loc.getBlockY() + anchorOffY,
-                    loc.getBlockZ() + anchorOffZ
-            );
-            if (anchor.getType() == anchorMat) {
-                anchor.setType(Material.AIR, false);
+    /**
+     * Block work of a removal: pastes the snapshots back, or clears the region when none could be restored.
+     *
+     * @param weWorld     worldedit world
+     * @param region      region the grave occupies, cleared when no snapshot is restored
+     * @param chunkBounds bounds marked for relighting
+     * @param snaps       decoded snapshots, may be empty
+     * @param onRestored  callback run once every snapshot was restored, may be {@code null}
+     */
+    private void restoreOrClear(World weWorld, CuboidRegion region, int[] chunkBounds, List<GraveSnapshot> snaps,
+                                Runnable onRestored) {
+        int restored = 0;
+        for (GraveSnapshot snap : snaps) {
+            try {
+                long t0 = GraveMetrics.start();
+                backend.restore(weWorld, snap);
+                metrics.record(GraveMetrics.Phase.RESTORE, t0);
+                restored++;
+            } catch (Throwable t) {
+                ctx.getLogger().warning("[Schematics] Snapshot paste failed: " + t.getMessage());
+            }
+        }
+        if (restored > 0 && restored == snaps.size() && onRestored != null) onRestored.run();
+
+        if (restored == 0) {
+            try {
+                long t0 = GraveMetrics.start();
+                backend.clear(weWorld, region);
+                metrics.record(GraveMetrics.Phase.CLEAR, t0);
+            } catch (Throwable t) {
+                ctx.getLogger().warning("[Schematics] Clear failed: " + t.getMessage());
             }
+        }
+        if (relight != null) relight.mark(weWorld, chunkBounds);
+    }
+
+    /**
+     * Finishes or rolls back the operations the journal found open at startup, on the server thread (on
+     * Folia, the global region; graves are placed again on their own region).
+     * <p>An unfinished removal is run again with the snapshot keys it journaled; snapshots already restored
+     * and deleted are skipped rather than replaced by a clear. An unfinished place is rolled back through a
+     * normal removal when its snapshot made it to the store (or snapshots are off), and the grave is placed
+     * again if GravesX still has it: right away when nothing was rolled back, otherwise by the rollback's
+     * last job, so the new snapshot captures the restored terrain.</p>
+     * <p>A place's paste waits until its snapshot is in the store and the journal has recorded that. A place
+     * without that record was therefore never pasted and needs no rollback, even though its snapshot may be
+     * missing; one with it is rolled back, restoring its snapshot or, if the write failed, clearing the
+     * region like any removal without one.</p>
+     */
+    private void recoverJournal() {
+        List<OperationJournal.Intent> open = journal.recovered();
+        ctx.getLogger().info("[Schematics] Recovering " + open.size() + " unfinished grave operation(s) from the journal.");
+        for (OperationJournal.Intent i : open) {
+            org.bukkit.World bw = Bukkit.getWorld(i.world);
+            if (bw == null) {
+                ctx.getLogger().warning("[Schematics] Dropping journaled operation on " + i.id + ": world " + i.world + " is not loaded.");
+                journal.done(i.op, i.id);
+                continue;
+            }
+            ProviderSettings s = settings;
+            BlockVector3 pasteTo = BlockVector3.at(i.paste[0], i.paste[1], i.paste[2]);
+            if (i.op == OperationJournal.Op.REMOVE) {
+                removing.add(i.id);
+                placed.remove(i.id);
+                runRemove(s, i.id, bw, pasteTo, i.anchor, i.region, i.turns, i.keys, i.shared, i.keys.isEmpty());
+                continue;
+            }
+
+            boolean captured = i.captured || store.contains(i.id) || (groups != null && groups.contains(i.id));
+            if (captured || !s.snapEnabled) {
+                removing.add(i.id);
+                placed.remove(i.id);
+                replacing.add(i.id);
+                removeNow(s, i.id, bw, pasteTo, i.anchor, i.region, i.turns);
+                continue;
+            }
+            journal.done(OperationJournal.Op.PLACE, i.id);
+            Grave grave = ctx.getPlugin().getCacheManager().getGraveMap().get(i.id);
+            Location at = grave != null ? grave.getLocationDeath() : null;
+            if (grave != null && !valid(at)) {
+                ServerTasks.runAt(ctx.getPlugin(), at.getWorld(), at.getBlockX(), at.getBlockZ(), () -> place(at, grave));
+            }
+        }
+    }
+
+    /**
+     * Called by {@link ChunkLoadListener}; runs deferred removals whose chunks are now all loaded.
+     *
+     * @param world world of the chunk
+     * @param cx    chunk X
+     * @param cz    chunk Z
+     */
+    void onChunkLoad(org.bukkit.World world, int cx, int cz) {
+        if (deferred == null) return;
+        for (DeferredRestoreQueue.Entry e : deferred.onChunkLoad(world.getUID(), cx, cz, this::isChunkLoaded)) {
+            applyDeferred(e);
+        }
+    }
+
+    /**
+     * Runs a removal taken out of the deferred queue, with the current settings.
+     *
+     * @param e deferred removal
+     */
+    private void applyDeferred(DeferredRestoreQueue.Entry e) {
+        org.bukkit.World bw = Bukkit.getWorld(e.world);
+        if (bw == null) {
+            ctx.getLogger().warning("[Schematics] Dropping deferred removal of " + e.id + ": world " + e.world + " is not loaded.");
+            return;
+        }
+        removeNow(settings, e.id, bw, BlockVector3.at(e.paste[0], e.paste[1], e.paste[2]), e.anchor, e.region, e.turns);
+    }
+
+    /**
+     * Checks a chunk without loading it.
+     *
+     * @param world world UUID
+     * @param cx    chunk X
+     * @param cz    chunk Z
+     * @return true if the world and chunk are loaded
+     */
+    private boolean isChunkLoaded(UUID world, int cx, int cz) {
+        org.bukkit.World w = Bukkit.getWorld(world);
+        return w != null && w.isChunkLoaded(cx, cz);
+    }
+
+    /**
+     * Returns everything a removal may write: the pasted region plus the snapshot box when snapshots use
+     * a fixed box.
+     *
+     * @param s       settings
+     * @param pasteTo paste anchor
+     * @param region  pasted region, or {@code null} if unknown
+     * @return bounds as min/max ints, or {@code null} if the region is unknown
+     */
+    private int[] removalBounds(ProviderSettings s, BlockVector3 pasteTo, int[] region) {
+        if (region == null) return null;
+        if (s.useGraveSize) return region;
+        return union(region, toInts(regionFromBoxAt(pasteTo, s.boxX, s.boxY, s.boxZ)));
+    }
+
+    /**
+     * Returns the smallest bounds containing both inputs.
+     *
+     * @param a bounds as min x/y/z, max x/y/z
+     * @param b bounds as min x/y/z, max x/y/z
+     * @return combined bounds
+     */
+    private static int[] union(int[] a, int[] b) {
+        return new int[]{
+                Math.min(a[0], b[0]), Math.min(a[1], b[1]), Math.min(a[2], b[2]),
+                Math.max(a[3], b[3]), Math.max(a[4], b[4]), Math.max(a[5], b[5])
+        };
+    }
+
+    /**
+     * Returns the anchor block as single-block bounds.
+     *
+     * @param s   settings
+     * @param loc grave location
+     * @return bounds of the anchor block
+     */
+    private static int[] anchorBounds(ProviderSettings s, Location loc) {
+        int x = loc.getBlockX() + s.anchorOffX, y = loc.getBlockY() + s.anchorOffY, z = loc.getBlockZ() + s.anchorOffZ;
+        return new int[]{x, y, z, x, y, z};
+    }
+
+    /**
+     * Queues an async load of the chunks under a grave ahead of its block work. Later jobs on the grave's
+     * lane wait until the chunks are loaded or the preload times out.
+     *
+     * @param id       grave UUID used as the scheduler lane
+     * @param priority lane priority
+     * @param bw       Bukkit world
+     * @param bounds   bounds as min x/y/z, max x/y/z
+     */
+    private void preloadChunks(UUID id, GraveTaskScheduler.Priority priority, org.bukkit.World bw, int[] bounds) {
+        if (preloader == null) return;
+        scheduler.submitAsync(id, priority, () -> preloader.load(bw, bounds));
+    }
+
+    /**
+     * Queues the release of chunk tickets taken by {@link #preloadChunks} behind the grave's block work.
+     *
+     * @param id       grave UUID used as the scheduler lane
+     * @param priority lane priority
+     * @param bw       Bukkit world
+     * @param bounds   bounds passed to {@link #preloadChunks}
+     */
+    private void releaseChunks(UUID id, GraveTaskScheduler.Priority priority, org.bukkit.World bw, int[] bounds) {
+        if (preloader == null) return;
+        scheduler.submit(id, priority, () -> preloader.release(bw, bounds));
+    }
+
+    /**
+     * Flattens a region into min x/y/z, max x/y/z.
+     *
+     * @param region region
+     * @return six ints
+     */
+    private static int[] toInts(CuboidRegion region) {
+        BlockVector3 min = region.getMinimumPoint();
+        BlockVector3 max = region.getMaximumPoint();
+        return new int[]{min.x(), min.y(), min.z(), max.x(), max.y(), max.z()};
+    }
+
+    /**
+     * Queues a snapshot capture on the grave's lane, running it like {@link #submitBlockWork}. A capture that
+     * overlaps a restore still running on another lane returns that restore's completion instead of
+     * capturing; no thread waits for it. The lane stays blocked, so the paste cannot overtake, and the
+     * capture is tried again on the grave's region thread once the restore has finished.
+     *
+     * @param id      grave UUID used as the scheduler lane
+     * @param bw      world of the grave
+     * @param at      block position whose region thread retries the capture
+     * @param capture capture work; handles its own failures and returns {@code null} once done, or the
+     *                restore to wait for before trying again
+     */
+    private void submitCapture(UUID id, org.bukkit.World bw, BlockVector3 at, Supplier<CompletableFuture<Void>> capture) {
+        scheduler.submitAsync(id, GraveTaskScheduler.Priority.SNAPSHOT, () -> {
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            attemptCapture(bw, at, capture, done);
+            return done;
         });
     }
 
     /**
-     * Checks whether the grave is considered placed by testing the anchor block.
+     * Runs one attempt of a capture queued by {@link #submitCapture}.
+     *
+     * @param bw      world of the grave
+     * @param at      block position whose region thread retries the capture
+     * @param capture capture work
+     * @param done    completed once the capture has run
+     */
+    private void attemptCapture(org.bukkit.World bw, BlockVector3 at, Supplier<CompletableFuture<Void>> capture,
+                                CompletableFuture<Void> done) {
+        BoundedExecutor async = backend.asyncExecutor();
+        CompletableFuture<CompletableFuture<Void>> ran = async == null
+                ? CompletableFuture.completedFuture(capture.get())
+                : async.supplyWhenFree(capture);
+        ran.whenComplete((busy, t) -> {
+            if (t != null || busy == null) {
+                done.complete(null);
+                return;
+            }
+            busy.whenComplete((v, t2) -> ServerTasks.runLaterAt(ctx.getPlugin(), bw, at.x(), at.z(), 0L,
+                    () -> attemptCapture(bw, at, capture, done)));
+        });
+    }
+
+    /**
+     * Queues block work on the grave's lane, running it on the backend's async executor when it has one.
+     * When that executor's queue is full the job waits on its lane until a worker has room.
+     *
+     * @param id       grave UUID used as the scheduler lane
+     * @param priority job priority
+     * @param work     block work; handles its own failures
+     */
+    private void submitBlockWork(UUID id, GraveTaskScheduler.Priority priority, Runnable work) {
+        BoundedExecutor async = backend.asyncExecutor();
+        if (async == null) {
+            scheduler.submit(id, priority, work);
+        } else {
+            scheduler.submitAsync(id, priority, () -> async.runWhenFree(work));
+        }
+    }
+
+    /**
+     * Checks whether the grave is placed using the {@link PlacedGraveIndex}.
+     * <p>The anchor block is only consulted when its chunk is already loaded: an indexed grave whose anchor
+     * is gone is dropped from the index, and a grave missing from the index (pasted before the index
+     * existed) is adopted if its anchor is present. Unloaded chunks are never loaded for this check, and on
+     * Folia the anchor is only read from the region thread that owns it.</p>
+     * <p>A grave being upgraded counts as placed throughout, although its light grave is removed before the
+     * full one is pasted.</p>
      *
      * @param grave grave to test
-     * @return true if the anchor block matches {@link #anchorMat}
+     * @return true if the grave is indexed (and its anchor, if loaded, is intact), or is being upgraded
      */
     @Override
     public boolean isPlaced(Grave grave) {
         Location loc = grave.getLocationDeath();
         if (valid(loc)) return false;
-        Block b = loc.getWorld().getBlockAt(
-                loc.getBlockX() + anchorOffX,
-                loc.getBlockY() + anchorOffY,
-                loc.getBlockZ() + anchorOffZ
-        );
-        return b.getType() == anchorMat;
+        ProviderSettings s = settings;
+        UUID id = grave.getUUID();
+        if (upgrading.contains(id) || upgradePlacing.contains(id)) return true;
+        PlacedGraveIndex.Entry e = placed.get(id);
+
+        org.bukkit.World bw = loc.getWorld();
+        int ax = e != null ? e.x : loc.getBlockX() + s.anchorOffX;
+        int az = e != null ? e.z : loc.getBlockZ() + s.anchorOffZ;
+        if (!bw.isChunkLoaded(ax >> 4, az >> 4) || (ServerTasks.FOLIA && !ServerTasks.owns(bw, ax, az))) return e != null;
+
+        Block anchor = e != null ? bw.getBlockAt(e.x, e.y, e.z) : anchorBlock(s, bw, loc);
+        boolean present = anchor.getType() == s.anchorMat;
+        if (e != null && !present) {
+            placed.remove(id);
+        } else if (e == null && present) {
+            placed.add(id, new PlacedGraveIndex.Entry(bw.getUID(), anchor.getX(), anchor.getY(), anchor.getZ(), null));
+        }
+        return present;
     }
 
     /**
@@ -378,148 +1044,282 @@ final class WorldEditSnapshotProvider implements GraveProvider {
     }
 
     /**
-     * Returns true if the location or its world is null.
-     *
-     * @param loc location to validate
-     * @return true if invalid
+     * Runs queued grave work, flushes pending snapshot writes, stops the background writer, and closes
+     * the snapshot store, the placed-grave index, the deferred removal queue, and the operation journal.
      */
-    private boolean valid(Location loc) {
-        return loc == null || loc.getWorld() == null;
+    void shutdown() {
+        if (metricsLog != null) metricsLog.cancel();
+        if (upgradeTask != null) upgradeTask.cancel();
+        if (relightTask != null) relightTask.cancel();
+        if (sweepTask != null) sweepTask.cancel();
+        if (sweeper != null) sweeper.shutdown();
+        if (deferredDrain != null) deferredDrain.cancel();
+        if (chunkListener != null) HandlerList.unregisterAll(chunkListener);
+        reloadExecutor.shutdownNow();
+        loader.shutdownNow();
+        scheduler.stop(10_000L);
+        if (preloader != null) preloader.releaseAll();
+        backend.shutdown();
+        if (relight != null) relight.drainAll();
+        snapshotIO.shutdown(10_000L);
+        store.close();
+        placed.close();
+        if (deferred != null) deferred.close();
+        if (groups != null) groups.close();
+        if (journal != null) journal.close();
     }
 
-    /** Loads the default grave clipboard from disk, logging on failure. */
-    private void loadGraveClipboard() {
-        if (!graveSchem.exists()) {
-            ctx.getLogger().warning("[Schematics] Missing grave schematic: " + graveSchem.getPath());
-            graveClipboard = null;
-            return;
+    /** @return block operations backend in use */
+    EditBackend backend() {
+        return backend;
+    }
+
+    /**
+     * Builds the <code>/schemgrave stats</code> report: phase timings, queue depths, cache and chunk counters.
+     *
+     * @return report lines
+     */
+    List<String> stats() {
+        List<String> out = new ArrayList<>(metrics.report());
+        out.add("Queues: scheduler " + scheduler.queueDepth()
+                + " (" + scheduler.carriedJobs() + " carried over " + scheduler.carryOverTicks() + " ticks, "
+                + scheduler.executed() + " run), io pending " + snapshotIO.pendingCount()
+                + " queued " + snapshotIO.queuedCount() + " refused " + snapshotIO.refusedCount()
+                + (deferred != null ? ", deferred " + deferred.size() : "")
+                + (relight != null ? ", relight " + relight.size() : "")
+                + (groups != null ? ", shared snapshot groups " + groups.sharedCount() : "")
+                + ", placed " + placed.size()
+                + (journal != null ? ", journal open " + journal.openCount() : ""));
+        if (governor != null) {
+            out.add(String.format(Locale.ROOT, "Load: %s (mspt %.1f, queue %d), %d light, %d anchor-only, %d upgraded, %d awaiting upgrade",
+                    governor.current().name().toLowerCase(Locale.ROOT), governor.lastMspt(), governor.lastQueue(),
+                    governor.lightCount(), governor.anchorCount(), governor.upgradedCount(), placed.light().size()));
+        }
+        ClipboardCache cache = settings.cache;
+        if (cache != null) {
+            out.add("Cache: " + cache.loadedCount() + "/" + cache.size() + " loaded, " + cache.weight() + " blocks, "
+                    + cache.hits() + " hits, " + cache.negativeHits() + " negative, " + cache.misses() + " misses, "
+                    + cache.evictions() + " evictions");
         }
-        try { graveClipboard = loadClipboard(graveSchem); }
-        catch (Throwable t) {
-            ctx.getLogger().warning("[Schematics] Failed to read grave schematic: " + t.getMessage());
-            graveClipboard = null;
+        if (sweeper != null) {
+            out.add("Sweeper: " + sweeper.passes() + " passes, " + sweeper.orphans() + " orphans removed, "
+                    + (sweeper.reclaimed() / 1024L) + " KiB reclaimed");
         }
+        if (store instanceof DedupSnapshotStore) {
+            DedupSnapshotStore dedup = (DedupSnapshotStore) store;
+            out.add("Dedup: " + dedup.refCount() + " graves on " + dedup.blobCount() + " blobs, "
+                    + dedup.hits() + " reused, " + dedup.written() + " written, "
+                    + (dedup.saved() / 1024L) + " KiB not encoded");
+        }
+        if (preloader != null) {
+            out.add("Chunks: " + preloader.asyncLoads() + " loaded async, " + preloader.alreadyLoaded()
+                    + " already loaded, " + preloader.timeouts() + " timeouts");
+        }
+        return out;
     }
 
     /**
-     * Resolves the clipboard to use at a position, honoring biome overrides.
-     *
-     * @param bw          Bukkit world
-     * @param pasteAnchor paste anchor position
-     * @return clipboard for the biome or the default clipboard
+     * Collects the graves whose snapshots are still needed on the server thread and queues a sweep of
+     * everything else.
      */
-    private Clipboard resolveClipboardForBiome(org.bukkit.World bw, BlockVector3 pasteAnchor) {
-        if (biomeSchemFiles.isEmpty()) return graveClipboard;
+    private void sweepOrphans() {
+        Set<UUID> keep = new HashSet<>(ctx.getPlugin().getCacheManager().getGraveMap().keySet());
+        keep.addAll(removing);
+        keep.addAll(snapshotIO.pendingIds());
+        if (deferred != null) keep.addAll(deferred.ids());
+        if (groups != null) keep.addAll(groups.keys());
+        if (journal != null) keep.addAll(journal.keys());
+        sweeper.sweep(keep);
+    }
 
-        Biome biome = sampleBiomeAt(bw, pasteAnchor);
-        File f = (File) biomeSchemFiles.get(biome);
-        if (f == null) return graveClipboard;
+    /** Clears the phase timings. */
+    void resetStats() {
+        metrics.reset();
+    }
 
-        Clipboard cached = biomeClipboards.get(biome);
-        if (cached != null) return cached;
+    /** Logs the periodic one-line summary next to the server's tick time. */
+    private void logMetrics() {
+        ctx.getLogger().info(String.format(Locale.ROOT, "[Schematics] %s | queue %d, io %d | mspt %.1f",
+                metrics.summary(), scheduler.queueDepth(), snapshotIO.pendingCount(), averageTickTime()));
+    }
 
-        if (!f.exists()) {
-            ctx.getLogger().warning("[Schematics] Biome override schematic missing for " + biome + ": " + f.getPath() + " (using default)");
-            return graveClipboard;
-        }
+    /**
+     * Reads the server's average tick time. Folia may refuse the server-wide figure outside a region
+     * thread; load is then judged by the queue depth alone.
+     *
+     * @return average tick time in milliseconds, or 0 if unavailable
+     */
+    private static double averageTickTime() {
         try {
-            Clipboard clip = loadClipboard(f);
-            biomeClipboards.put(biome, clip);
-            ctx.getLogger().info("[Schematics] Using biome override for " + biome + ": " + f.getPath());
-            return clip;
-        } catch (Throwable t) {
-            ctx.getLogger().warning("[Schematics] Failed to load biome override for " + biome + " from " + f.getPath() + ": " + t.getMessage());
-            return graveClipboard;
+            return Bukkit.getAverageTickTime();
+        } catch (UnsupportedOperationException e) {
+            return 0.0D;
         }
     }
 
+    /** @return current settings bundle, for cache counters */
+    ProviderSettings settings() {
+        return settings;
+    }
+
+    /** @return the tick-budgeted grave work queue, for queue depth and carry-over counts */
+    GraveTaskScheduler scheduler() {
+        return scheduler;
+    }
+
     /**
-     * Samples the biome at the given position, supporting legacy API where needed.
+     * Returns true if the location or its world is null.
+     *
+     * @param loc location to validate
+     * @return true if invalid
+     */
+    private boolean valid(Location loc) {
+        return loc == null || loc.getWorld() == null;
+    }
+
+    /**
+     * Returns the anchor block for a grave location.
      *
+     * @param s   settings holding the anchor offsets
      * @param bw  Bukkit world
-     * @param pos position to sample
-     * @return biome at position
+     * @param loc grave location
+     * @return anchor block
      */
-    private Biome sampleBiomeAt(org.bukkit.World bw, BlockVector3 pos) {
+    private Block anchorBlock(ProviderSettings s, org.bukkit.World bw, Location loc) {
+        return bw.getBlockAt(
+                loc.getBlockX() + s.anchorOffX,
+                loc.getBlockY() + s.anchorOffY,
+                loc.getBlockZ() + s.anchorOffZ
+        );
+    }
+
+    /**
+     * Opens the configured snapshot store. The segment store falls back to per-file backups for graves
+     * written before it was enabled; if it cannot be opened the per-file store is used. With deduplication
+     * on, the store is wrapped in a {@link DedupSnapshotStore} whose blobs use the same store type in
+     * <code>blobs/</code>.
+     *
+     * @param ctx module context
+     * @return snapshot store
+     */
+    private SnapshotStore openStore(ModuleContext ctx) {
+        SnapshotStore store = typedStore(ctx, snapDir);
+        if (!ctx.getConfig().getBoolean("snapshot.dedup.enabled", false)) return store;
+        SnapshotStore blobs = typedStore(ctx, new File(snapDir, "blobs"));
         try {
-            return bw.getBiome(pos.x(), pos.y(), pos.z());
-        } catch (NoSuchMethodError ignored) {
-            return bw.getBiome(pos.getBlockX(), pos.getBlockZ());
+            return new DedupSnapshotStore(
+                    ctx.getLogger(),
+                    snapDir,
+                    blobs,
+                    store,
+                    Math.max(16L, ctx.getConfig().getLong("snapshot.dedup.checkpoint-kb", 256L)) * 1024L,
+                    ctx.getConfig().getBoolean("snapshot.store.fsync", false)
+            );
+        } catch (Exception e) {
+            ctx.getLogger().warning("[Schematics] Could not open deduplicating snapshot store; storing every snapshot: " + e.getMessage());
+            blobs.close();
+            return store;
         }
     }
 
     /**
-     * Loads a clipboard from a file using WorldEdit's format detection.
+     * Opens the store selected by <code>snapshot.store.type</code> in a directory.
      *
-     * @param file .schem file
-     * @return loaded clipboard
-     * @throws Exception if reading fails or format is unknown
+     * @param ctx module context
+     * @param dir store directory
+     * @return snapshot store
      */
-    private Clipboard loadClipboard(File file) throws Exception {
-        ClipboardFormat fmt = ClipboardFormats.findByFile(file);
-        if (fmt == null) throw new IllegalStateException("Unknown clipboard format: " + file.getName());
-        try (FileInputStream in = new FileInputStream(file);
-             ClipboardReader reader = fmt.getReader(in)) {
-            return reader.read();
+    private SnapshotStore typedStore(ModuleContext ctx, File dir) {
+        SnapshotStore files = new FileSnapshotStore(dir, settings.codecs.extensions());
+        if (!"segments".equalsIgnoreCase(ctx.getConfig().getString("snapshot.store.type", "files"))) return files;
+        try {
+            return new SegmentSnapshotStore(
+                    ctx.getLogger(),
+                    new File(dir, "segments"),
+                    Math.max(1L, ctx.getConfig().getLong("snapshot.store.segment-size-mb", 64L)) * 1024L * 1024L,
+                    Math.min(1.0D, Math.max(0.0D, ctx.getConfig().getDouble("snapshot.store.compact-threshold", 0.5D))),
+                    Math.max(1L, ctx.getConfig().getLong("snapshot.store.compact-interval-minutes", 10L)),
+                    ctx.getConfig().getBoolean("snapshot.store.fsync", false),
+                    files
+            );
+        } catch (Exception e) {
+            ctx.getLogger().warning("[Schematics] Could not open segment snapshot store; using files: " + e.getMessage());
+            return files;
         }
     }
 
     /**
-     * Saves a region from the world into a schematic file, including biomes and entities.
+     * Builds the side-effect profile for the module's edit sessions from <code>side-effects.*</code>.
+     * Lighting is off in the sessions unless it is <code>on</code>; batched lighting is applied by the
+     * {@link RelightQueue} instead.
      *
-     * @param weWorld worldedit world
-     * @param region  region to copy
-     * @param outFile destination file
-     * @throws Exception if copying or writing fails
+     * @param ctx      module context
+     * @param lighting lighting mode: on, batched, or off
+     * @return side effects for every edit session
      */
-    private void saveRegionToSchematic(World weWorld, CuboidRegion region, File outFile) throws Exception {
-        Clipboard clipboard = new BlockArrayClipboard(region);
-        clipboard.setOrigin(region.getMinimumPoint());
-
-        try (EditSession source = WorldEdit.getInstance().newEditSession(weWorld)) {
-            ForwardExtentCopy copy = new ForwardExtentCopy(source, region, clipboard, region.getMinimumPoint());
-            copy.setCopyingEntities(true);
-            copy.setCopyingBiomes(true);
-            Operations.complete(copy);
-        }
+    private static SideEffectSet sideEffects(ModuleContext ctx, String lighting) {
+        SideEffectSet set = SideEffectSet.defaults();
+        if (!ctx.getConfig().getBoolean("side-effects.neighbors", true)) set = set.with(SideEffect.NEIGHBORS, SideEffect.State.OFF);
+        if (!ctx.getConfig().getBoolean("side-effects.physics", true)) set = set.with(SideEffect.UPDATE, SideEffect.State.OFF);
+        if (!"on".equals(lighting)) set = set.with(SideEffect.LIGHTING, SideEffect.State.OFF);
+        return set;
+    }
 
-        ClipboardFormat fmt = ClipboardFormats.findByFile(outFile);
-        if (fmt == null) {
-            try {
-                try {
-                    fmt = BuiltInClipboardFormat.SPONGE_V3_SCHEMATIC;
-                } catch (Exception e) {
-                    fmt = BuiltInClipboardFormat.SPONGE_V2_SCHEMATIC;
-                }
-            } catch (Exception e) {
-                fmt = BuiltInClipboardFormat.SPONGE_SCHEMATIC;
-            }
+    /**
+     * Opens the operation journal next to the other data files.
+     *
+     * @param ctx module context
+     * @return journal, or {@code null} if it is disabled or cannot be opened
+     */
+    private OperationJournal openJournal(ModuleContext ctx) {
+        if (!ctx.getConfig().getBoolean("journal.enabled", true)) return null;
+        try {
+            return new OperationJournal(
+                    ctx.getLogger(),
+                    ctx.getDataFolder(),
+                    Math.max(1L, ctx.getConfig().getLong("journal.checkpoint-kb", 64L)) * 1024L,
+                    ctx.getConfig().getBoolean("journal.fsync", false)
+            );
+        } catch (Exception e) {
+            ctx.getLogger().warning("[Schematics] Could not open operation journal; continuing without it: " + e.getMessage());
+            return null;
         }
+    }
 
-        try (FileOutputStream fos = new FileOutputStream(outFile);
-             ClipboardWriter writer = fmt.getWriter(fos)) {
-            writer.write(clipboard);
+    /**
+     * Resolves the schematic for a paste through the compiled rules and variant pools, sampling the biome
+     * only if a rule needs it.
+     *
+     * @param s           settings holding the rules and loaded schematics
+     * @param bw          Bukkit world
+     * @param pasteAnchor paste anchor position
+     * @param id          grave UUID, which picks among variants
+     * @return matching override or variant, or the default schematic, may be {@code null}
+     */
+    private LoadedSchematic resolveSchematic(ProviderSettings s, org.bukkit.World bw, BlockVector3 pasteAnchor, UUID id) {
+        if (s.rules.isEmpty() && s.defaultPool == null) return s.graveSchematic;
+        Biome biome = null;
+        if (s.rules.usesBiome()) {
+            long t0 = GraveMetrics.start();
+            biome = sampleBiomeAt(bw, pasteAnchor);
+            metrics.record(GraveMetrics.Phase.BIOME_RESOLVE, t0);
         }
+        return s.schematicFor(bw, biome, pasteAnchor.y(), id);
     }
 
     /**
-     * Builds a region in world space that aligns to the bounds of a clipboard at a paste anchor.
+     * Samples the biome at the given position, supporting legacy API where needed.
      *
-     * @param clip        clipboard to align with
-     * @param pasteAnchor origin for alignment
-     * @return aligned cuboid region
+     * @param bw  Bukkit world
+     * @param pos position to sample
+     * @return biome at position
      */
-    private CuboidRegion regionAlignedToClipboard(Clipboard clip, BlockVector3 pasteAnchor) {
-        BlockVector3 clipMin = clip.getRegion().getMinimumPoint();
-        BlockVector3 clipMax = clip.getRegion().getMaximumPoint();
-        BlockVector3 clipOrigin = clip.getOrigin();
-
-        BlockVector3 deltaMin = clipMin.subtract(clipOrigin);
-        BlockVector3 deltaMax = clipMax.subtract(clipOrigin);
-
-        BlockVector3 worldMin = pasteAnchor.add(deltaMin);
-        BlockVector3 worldMax = pasteAnchor.add(deltaMax);
-        return new CuboidRegion(worldMin, worldMax);
+    private Biome sampleBiomeAt(org.bukkit.World bw, BlockVector3 pos) {
+        try {
+            return bw.getBiome(pos.x(), pos.y(), pos.z());
+        } catch (NoSuchMethodError ignored) {
+            return bw.getBiome(pos.getBlockX(), pos.getBlockZ());
+        }
     }
 
     /**
@@ -531,7 +1331,7 @@ final class WorldEditSnapshotProvider implements GraveProvider {
      * @param sz size Z
      * @return cuboid region with the specified size
      */
-    private CuboidRegion regionFromBoxAt(BlockVector3 to, int sx, int sy, int sz) {
+    static CuboidRegion regionFromBoxAt(BlockVector3 to, int sx, int sy, int sz) {
         BlockVector3 min = to;
         BlockVector3 max;
         try {
@@ -541,4 +1341,4 @@ final class WorldEditSnapshotProvider implements GraveProvider {
         }
         return new CuboidRegion(min, max);
     }
-}
\ No newline at end of file
+}
@@ -2,15 +2,20 @@ package dev.cwhead.GravesX.modules.schematics.cmd;
 
 import dev.cwhead.GravesX.module.ModuleContext;
 import dev.cwhead.GravesX.module.command.GravesXModuleCommand;
+import dev.cwhead.GravesX.modules.schematics.SchematicsModule;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
- * Admin command for the Schematics module to reload its configuration.
- * <p>Usage: <code>/schemgrave reload</code></p>
+ * Admin command for the Schematics module to reload its configuration and schematics and to show
+ * its timing statistics.
+ * <p>Usage: <code>/schemgrave reload</code>, <code>/schemgrave stats [reset]</code></p>
  * <p>Permission: <code>graves.schem.reload</code></p>
  */
 public final class SchemReloadCommand implements GravesXModuleCommand {
@@ -39,7 +44,7 @@ public final class SchemReloadCommand implements GravesXModuleCommand {
 
     /** {@inheritDoc} */
     @Override public String getUsage() {
-        return "/schemgrave reload";
+        return "/schemgrave <reload|stats [reset]>";
     }
 
     /** {@inheritDoc} */
@@ -48,8 +53,9 @@ public final class SchemReloadCommand implements GravesXModuleCommand {
     }
 
     /**
-     * Handles <code>/schemgrave reload</code>. Validates arguments and permission,
-     * then reloads the Schematics module configuration.
+     * Handles <code>/schemgrave reload</code> and <code>/schemgrave stats</code>. Validates arguments and
+     * permission, then either reloads the Schematics module configuration and schematics, telling the sender
+     * once the new settings are live, or prints the module's statistics.
      *
      * @param sender  command source
      * @param command command metadata
@@ -59,7 +65,10 @@ public final class SchemReloadCommand implements GravesXModuleCommand {
      */
     @Override
     public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, String[] args) {
-        if (args.length != 1 || !"reload".equalsIgnoreCase(args[0])) {
+        boolean reloadArgs = args.length == 1 && "reload".equalsIgnoreCase(args[0]);
+        boolean statsArgs = (args.length == 1 || (args.length == 2 && "reset".equalsIgnoreCase(args[1])))
+                && "stats".equalsIgnoreCase(args[0]);
+        if (!reloadArgs && !statsArgs) {
             sender.sendMessage(ChatColor.YELLOW + "Usage: " + getUsage());
             return true;
         }
@@ -67,9 +76,42 @@ public final class SchemReloadCommand implements GravesXModuleCommand {
             sender.sendMessage(ChatColor.RED + "You lack permission: " + getPermission());
             return true;
         }
+        if (statsArgs) {
+            sendStats(sender, args.length == 2);
+            return true;
+        }
+
+        CompletableFuture<String> reload = SchematicsModule.reload();
+        if (reload == null) {
+            ctx.reloadConfig();
+            sender.sendMessage(ChatColor.GREEN + "[Schematics] Config reloaded. New graves will use updated settings.");
+            return true;
+        }
 
-        ctx.reloadConfig();
-        sender.sendMessage(ChatColor.GREEN + "[Schematics] Config reloaded. New graves will use updated settings.");
+        sender.sendMessage(ChatColor.GRAY + "[Schematics] Reloading config and schematics...");
+        reload.whenComplete((summary, t) -> {
+            if (t != null) {
+                sender.sendMessage(ChatColor.RED + "[Schematics] Reload failed: " + t.getMessage());
+            } else {
+                sender.sendMessage(ChatColor.GREEN + "[Schematics] Config " + summary + ". New graves will use updated settings.");
+            }
+        });
         return true;
     }
-}
\ No newline at end of file
+
+    /**
+     * Prints the Schematics module statistics.
+     *
+     * @param sender command source
+     * @param reset  clear the timings after printing them
+     */
+    private void sendStats(CommandSender sender, boolean reset) {
+        List<String> lines = SchematicsModule.stats(reset);
+        if (lines == null) {
+            sender.sendMessage(ChatColor.RED + "[Schematics] The provider is not enabled.");
+            return;
+        }
+        sender.sendMessage(ChatColor.GOLD + "[Schematics] Stats" + (reset ? " (reset)" : ""));
+        for (String line : lines) sender.sendMessage(ChatColor.GRAY + line);
+    }
+}
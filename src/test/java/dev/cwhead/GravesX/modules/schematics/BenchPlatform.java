@@ -0,0 +1,158 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import com.sk89q.worldedit.LocalConfiguration;
+import com.sk89q.worldedit.WorldEdit;
+import com.sk89q.worldedit.event.platform.PlatformsRegisteredEvent;
+import com.sk89q.worldedit.extension.platform.Capability;
+import com.sk89q.worldedit.extension.platform.Platform;
+import com.sk89q.worldedit.extension.platform.Preference;
+import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.extent.clipboard.io.BuiltInClipboardFormat;
+import com.sk89q.worldedit.extent.clipboard.io.ClipboardWriter;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockType;
+import com.sk89q.worldedit.world.registry.BundledRegistries;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Stand-in WorldEdit platform for unit tests, benchmarks and the soak harness.
+ * <p>Registers a mocked platform backed by WorldEdit's bundled block registry, so block states, materials,
+ * clipboards and edit sessions work without a server, and builds the synthetic grave clipboards the benchmarks
+ * and the soak harness run against.</p>
+ */
+final class BenchPlatform {
+
+    /** Block ids registered for synthetic clipboards. */
+    private static final String[] BLOCKS = {
+            "minecraft:air", "minecraft:stone", "minecraft:cobblestone", "minecraft:oak_planks",
+            "minecraft:mossy_cobblestone", "minecraft:dirt", "minecraft:player_head"
+    };
+
+    /** Set once the platform is registered. */
+    private static boolean started;
+
+    private BenchPlatform() {
+    }
+
+    /** Registers the platform and block types once per JVM. */
+    static synchronized void start() {
+        if (started) return;
+        Platform platform = mock(Platform.class);
+        when(platform.getRegistries()).thenReturn(new BundledRegistries() { });
+        Map<Capability, Preference> caps = new EnumMap<>(Capability.class);
+        for (Capability c : Capability.values()) caps.put(c, Preference.PREFERRED);
+        when(platform.getCapabilities()).thenReturn(caps);
+        when(platform.getConfiguration()).thenReturn(new LocalConfiguration() {
+            @Override
+            public void load() {
+            }
+        });
+
+        WorldEdit.getInstance().getPlatformManager().register(platform);
+        WorldEdit.getInstance().getEventBus().post(new PlatformsRegisteredEvent());
+
+        for (String id : BLOCKS) {
+            if (BlockType.REGISTRY.get(id) == null) BlockType.REGISTRY.register(id, new BlockType(id));
+        }
+        started = true;
+    }
+
+    /**
+     * Looks up the default state of a registered block.
+     *
+     * @param id namespaced block id
+     * @return default block state
+     */
+    static BlockState state(String id) {
+        return BlockType.REGISTRY.get(id).getDefaultState();
+    }
+
+    /**
+     * Builds a cube shaped like a small grave: a solid floor, hollow walls and an air interior, with the
+     * origin at the centre of the floor.
+     *
+     * @param size edge length
+     * @return clipboard
+     * @throws Exception if a block cannot be set
+     */
+    static Clipboard graveClipboard(int size) throws Exception {
+        return graveClipboard(size, size, size);
+    }
+
+    /**
+     * Builds a grave like {@link #graveClipboard(int)} with separate edge lengths, so rotations change its
+     * footprint.
+     *
+     * @param sx width along X
+     * @param sy height
+     * @param sz depth along Z
+     * @return clipboard
+     * @throws Exception if a block cannot be set
+     */
+    static Clipboard graveClipboard(int sx, int sy, int sz) throws Exception {
+        CuboidRegion region = new CuboidRegion(BlockVector3.ZERO, BlockVector3.at(sx - 1, sy - 1, sz - 1));
+        BlockArrayClipboard clip = new BlockArrayClipboard(region);
+        clip.setOrigin(BlockVector3.at(sx / 2, 0, sz / 2));
+
+        BlockState air = state("minecraft:air");
+        BlockState floor = state("minecraft:stone");
+        BlockState[] walls = {
+                state("minecraft:cobblestone"), state("minecraft:mossy_cobblestone"), state("minecraft:oak_planks")
+        };
+        for (int y = 0; y < sy; y++) {
+            for (int z = 0; z < sz; z++) {
+                for (int x = 0; x < sx; x++) {
+                    boolean edge = x == 0 || z == 0 || x == sx - 1 || z == sz - 1;
+                    BlockState b = y == 0 ? floor : edge ? walls[(x + y + z) % walls.length] : air;
+                    clip.setBlock(BlockVector3.at(x, y, z), b);
+                }
+            }
+        }
+        clip.setBlock(BlockVector3.at(sx / 2, 1, sz / 2), state("minecraft:player_head"));
+        return clip;
+    }
+
+    /**
+     * Writes a clipboard as a Sponge v3 schematic.
+     *
+     * @param clip clipboard
+     * @param file target file
+     * @throws Exception if writing fails
+     */
+    static void write(Clipboard clip, File file) throws Exception {
+        try (ClipboardWriter writer = BuiltInClipboardFormat.SPONGE_V3_SCHEMATIC.getWriter(new FileOutputStream(file))) {
+            writer.write(clip);
+        }
+    }
+
+    /**
+     * Builds an empty clipboard to paste into, large enough for a grave of the given size pasted at
+     * {@link #pasteAnchor(int)}.
+     *
+     * @param size grave edge length
+     * @return target extent
+     */
+    static Clipboard target(int size) {
+        return new BlockArrayClipboard(new CuboidRegion(BlockVector3.ZERO, BlockVector3.at(2 * size, 2 * size, 2 * size)));
+    }
+
+    /**
+     * Paste anchor inside {@link #target(int)}.
+     *
+     * @param size grave edge length
+     * @return anchor
+     */
+    static BlockVector3 pasteAnchor(int size) {
+        return BlockVector3.at(size, 1, size);
+    }
+}
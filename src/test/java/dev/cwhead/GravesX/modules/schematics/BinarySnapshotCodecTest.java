@@ -0,0 +1,173 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.world.block.BaseBlock;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips of {@link BinarySnapshotCodec}: delta snapshots decode to the blocks and anchor they were
+ * written with, moved payloads decode at their new origin, and damaged input is rejected.
+ */
+class BinarySnapshotCodecTest {
+
+    /** Anchor the test snapshot was captured at. */
+    private static final BlockVector3 ANCHOR = BlockVector3.at(100, 64, -200);
+
+    /** Registers the stand-in platform so block states parse. */
+    @BeforeAll
+    static void platform() {
+        BenchPlatform.start();
+    }
+
+    /**
+     * A delta snapshot decodes to what was encoded, with and without compression.
+     *
+     * @throws Exception if encoding or decoding fails
+     */
+    @Test
+    void sparseRoundTrip() throws Exception {
+        for (boolean compress : new boolean[]{false, true}) {
+            BinarySnapshotCodec codec = new BinarySnapshotCodec(compress);
+            SparseSnapshot in = sparse();
+
+            SparseSnapshot out = (SparseSnapshot) codec.decode(new ByteArrayInputStream(encode(codec, in)));
+
+            assertEquals(ANCHOR, out.anchor());
+            assertSameBlocks(in, out);
+        }
+    }
+
+    /**
+     * A payload framed by {@link BinarySnapshotCodec#frame} decodes like the output of encode.
+     *
+     * @throws Exception if encoding or decoding fails
+     */
+    @Test
+    void framedBodyDecodesLikeEncode() throws Exception {
+        BinarySnapshotCodec codec = new BinarySnapshotCodec(true);
+        SparseSnapshot in = sparse();
+
+        byte[] framed = codec.frame(codec.body(in), ANCHOR);
+        SparseSnapshot out = (SparseSnapshot) codec.decode(new ByteArrayInputStream(framed));
+
+        assertEquals(ANCHOR, out.anchor());
+        assertSameBlocks(in, out);
+    }
+
+    /**
+     * The same terrain captured at two places has the same payload.
+     *
+     * @throws Exception if encoding fails
+     */
+    @Test
+    void bodyIgnoresPosition() throws Exception {
+        BinarySnapshotCodec codec = new BinarySnapshotCodec(true);
+        SparseSnapshot here = sparse();
+        SparseSnapshot there = new SparseSnapshot(BlockVector3.at(-5, 10, 7), here.offsets(), here.blocks());
+
+        assertArrayEquals(codec.body(here), codec.body(there));
+    }
+
+    /**
+     * A relocated header moves the decoded snapshot without touching its payload.
+     *
+     * @throws Exception if encoding or decoding fails
+     */
+    @Test
+    void relocateMovesOrigin() throws Exception {
+        BinarySnapshotCodec codec = new BinarySnapshotCodec(true);
+        byte[] bytes = codec.frame(codec.body(sparse()), BlockVector3.ZERO);
+        BlockVector3 moved = BlockVector3.at(12, -40, 3000);
+
+        BinarySnapshotCodec.relocate(bytes, moved);
+        SparseSnapshot out = (SparseSnapshot) codec.decode(new ByteArrayInputStream(bytes));
+
+        assertEquals(moved, out.anchor());
+    }
+
+    /**
+     * A snapshot cut short fails to decode instead of yielding partial terrain.
+     *
+     * @throws Exception if encoding fails
+     */
+    @Test
+    void truncatedSnapshotIsRejected() throws Exception {
+        for (boolean compress : new boolean[]{false, true}) {
+            BinarySnapshotCodec codec = new BinarySnapshotCodec(compress);
+            byte[] bytes = encode(codec, sparse());
+            byte[] torn = Arrays.copyOf(bytes, bytes.length - 3);
+
+            assertThrows(IOException.class, () -> codec.decode(new ByteArrayInputStream(torn)));
+        }
+    }
+
+    /**
+     * A header with another format version is refused.
+     *
+     * @throws Exception if encoding fails
+     */
+    @Test
+    void unknownVersionIsRejected() throws Exception {
+        BinarySnapshotCodec codec = new BinarySnapshotCodec(false);
+        byte[] bytes = encode(codec, sparse());
+        bytes[4] = 1;
+
+        IOException e = assertThrows(IOException.class, () -> codec.decode(new ByteArrayInputStream(bytes)));
+        assertTrue(e.getMessage().contains("version"));
+    }
+
+    /**
+     * Builds a small delta snapshot with a repeated and a unique block.
+     *
+     * @return snapshot at {@link #ANCHOR}
+     */
+    private static SparseSnapshot sparse() {
+        int[] offsets = {0, 0, 0, 1, 0, 0, 0, 1, 0, -1, 2, -3};
+        BaseBlock[] blocks = {
+                BenchPlatform.state("minecraft:stone").toBaseBlock(),
+                BenchPlatform.state("minecraft:stone").toBaseBlock(),
+                BenchPlatform.state("minecraft:dirt").toBaseBlock(),
+                BenchPlatform.state("minecraft:air").toBaseBlock()
+        };
+        return new SparseSnapshot(ANCHOR, offsets, blocks);
+    }
+
+    /**
+     * Encodes a snapshot to bytes.
+     *
+     * @param codec    codec
+     * @param snapshot snapshot
+     * @return encoded snapshot
+     * @throws Exception if encoding fails
+     */
+    private static byte[] encode(BinarySnapshotCodec codec, GraveSnapshot snapshot) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(snapshot, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Asserts that two delta snapshots hold the same blocks at the same offsets.
+     *
+     * @param expected written snapshot
+     * @param actual   decoded snapshot
+     */
+    private static void assertSameBlocks(SparseSnapshot expected, SparseSnapshot actual) {
+        assertArrayEquals(expected.offsets(), actual.offsets());
+        assertEquals(expected.blocks().length, actual.blocks().length);
+        for (int i = 0; i < expected.blocks().length; i++) {
+            assertEquals(expected.blocks()[i].toImmutableState(), actual.blocks()[i].toImmutableState());
+        }
+    }
+}
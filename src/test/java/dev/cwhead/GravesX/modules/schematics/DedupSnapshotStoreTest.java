@@ -0,0 +1,324 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import com.sk89q.worldedit.math.BlockVector3;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips of {@link DedupSnapshotStore}: identical content is stored once and read back at each grave's
+ * own origin, concurrent writers of the same content share one write, and the reference log recovers from a
+ * crash, torn tail included.
+ * <p>Payloads are opaque bytes framed by {@link BinarySnapshotCodec#frame}; the store never decodes them.
+ * A crash is simulated by copying the store's files while it is still open.</p>
+ */
+class DedupSnapshotStoreTest {
+
+    /** Logger for the stores under test. */
+    private static final Logger LOGGER = Logger.getLogger("DedupSnapshotStoreTest");
+    /** Frames payloads without compression, so they read back verbatim. */
+    private static final BinarySnapshotCodec CODEC = new BinarySnapshotCodec(false);
+
+    /** Test root; the live store and crash copies are subdirectories. */
+    @TempDir
+    File dir;
+
+    /**
+     * A second grave with the same content links to the stored blob, and each grave reads its own origin.
+     *
+     * @throws IOException if the store fails
+     */
+    @Test
+    void identicalContentStoredOnce() throws IOException {
+        byte[] body = bytes("terrain");
+        UUID key = DedupSnapshotStore.key(body);
+        UUID a = UUID.randomUUID(), b = UUID.randomUUID();
+        BlockVector3 atA = BlockVector3.at(10, 64, 10), atB = BlockVector3.at(-300, 12, 45);
+
+        DedupSnapshotStore store = open(live());
+        try {
+            assertFalse(store.link(a, key, atA, body.length));
+            store.put(a, key, atA, CODEC.frame(body, BlockVector3.ZERO));
+            assertTrue(store.link(b, key, atB, body.length));
+
+            assertEquals(1L, store.written());
+            assertEquals(1L, store.hits());
+            assertEquals(1, store.blobCount());
+            assertEquals(2, store.refCount());
+            assertSnapshot(store, a, atA, body);
+            assertSnapshot(store, b, atB, body);
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * The blob stays while any grave references it and goes with the last reference.
+     *
+     * @throws IOException if the store fails
+     */
+    @Test
+    void lastReferenceDeletesBlob() throws IOException {
+        byte[] body = bytes("shared");
+        UUID key = DedupSnapshotStore.key(body);
+        UUID a = UUID.randomUUID(), b = UUID.randomUUID();
+
+        DedupSnapshotStore store = open(live());
+        try {
+            store.put(a, key, BlockVector3.ZERO, CODEC.frame(body, BlockVector3.ZERO));
+            assertTrue(store.link(b, key, BlockVector3.ZERO, body.length));
+
+            assertTrue(store.delete(a));
+            assertEquals(1, store.blobCount());
+            assertSnapshot(store, b, BlockVector3.ZERO, body);
+
+            assertTrue(store.delete(b));
+            assertFalse(store.contains(b));
+            assertEquals(0, store.blobCount());
+            assertEquals(0, blobFiles(live()).length);
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Graves putting the same new content at the same time write the blob once and all end up linked.
+     *
+     * @throws Exception if a writer fails
+     */
+    @Test
+    void concurrentPutsWriteOnce() throws Exception {
+        byte[] body = bytes("same content");
+        UUID key = DedupSnapshotStore.key(body);
+        byte[] framed = CODEC.frame(body, BlockVector3.ZERO);
+        int writers = 4;
+        CountDownLatch started = new CountDownLatch(writers);
+        CountDownLatch go = new CountDownLatch(1);
+        AtomicInteger blobWrites = new AtomicInteger();
+
+        SnapshotStore files = new FileSnapshotStore(new File(live(), "blobs"), new String[]{"gsnap"});
+        SnapshotStore slowBlobs = new DelegatingStore(files) {
+            @Override
+            public void put(UUID id, String extension, byte[] data) throws IOException {
+                blobWrites.incrementAndGet();
+                try {
+                    go.await(5L, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.put(id, extension, data);
+            }
+        };
+        DedupSnapshotStore store = new DedupSnapshotStore(LOGGER, live(), slowBlobs,
+                new FileSnapshotStore(live(), new String[]{"gsnap"}), 1 << 20, false);
+        try {
+            List<UUID> ids = new ArrayList<>();
+            List<Thread> threads = new ArrayList<>();
+            Throwable[] failure = new Throwable[1];
+            for (int i = 0; i < writers; i++) {
+                UUID id = UUID.randomUUID();
+                ids.add(id);
+                Thread t = new Thread(() -> {
+                    started.countDown();
+                    try {
+                        store.put(id, key, BlockVector3.at(id.hashCode() & 0xFFF, 64, 0), framed);
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    }
+                });
+                threads.add(t);
+                t.start();
+            }
+            assertTrue(started.await(5L, TimeUnit.SECONDS));
+            Thread.sleep(100L);
+            go.countDown();
+            for (Thread t : threads) t.join(10_000L);
+
+            if (failure[0] != null) throw new AssertionError(failure[0]);
+            assertEquals(1, blobWrites.get());
+            assertEquals(1L, store.written());
+            assertEquals(1, store.blobCount());
+            assertEquals(writers, store.refCount());
+            for (UUID id : ids) assertSnapshot(store, id, BlockVector3.at(id.hashCode() & 0xFFF, 64, 0), body);
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * References come back after a crash; a torn last record is dropped, and a blob only that record
+     * pointed at is deleted as unreferenced.
+     *
+     * @throws IOException if the store fails
+     */
+    @Test
+    void replayCutsTornTail() throws IOException {
+        byte[] kept = bytes("kept"), lost = bytes("lost");
+        UUID a = UUID.randomUUID(), b = UUID.randomUUID(), c = UUID.randomUUID();
+        BlockVector3 atB = BlockVector3.at(5, 70, -5);
+
+        DedupSnapshotStore store = open(live());
+        store.put(a, DedupSnapshotStore.key(kept), BlockVector3.ZERO, CODEC.frame(kept, BlockVector3.ZERO));
+        assertTrue(store.link(b, DedupSnapshotStore.key(kept), atB, kept.length));
+        store.put(c, DedupSnapshotStore.key(lost), BlockVector3.ZERO, CODEC.frame(lost, BlockVector3.ZERO));
+        File crash = crashCopy();
+        store.close();
+
+        try (RandomAccessFile log = new RandomAccessFile(new File(crash, "refs.log"), "rw")) {
+            log.setLength(log.length() - 3);
+        }
+
+        DedupSnapshotStore recovered = open(crash);
+        try {
+            assertEquals(2, recovered.refCount());
+            assertFalse(recovered.contains(c));
+            assertEquals(1, recovered.blobCount());
+            assertEquals(1, blobFiles(crash).length);
+            assertSnapshot(recovered, a, BlockVector3.ZERO, kept);
+            assertSnapshot(recovered, b, atB, kept);
+        } finally {
+            recovered.close();
+        }
+    }
+
+    /** @return directory of the live store */
+    private File live() {
+        return new File(dir, "live");
+    }
+
+    /**
+     * Opens a store laid out like the provider's: references and legacy files in {@code root}, blobs in
+     * its <code>blobs</code> subdirectory.
+     *
+     * @param root store directory
+     * @return store
+     * @throws IOException if it cannot be opened
+     */
+    private static DedupSnapshotStore open(File root) throws IOException {
+        String[] ext = {"gsnap"};
+        return new DedupSnapshotStore(LOGGER, root, new FileSnapshotStore(new File(root, "blobs"), ext),
+                new FileSnapshotStore(root, ext), 1 << 20, false);
+    }
+
+    /**
+     * @param root store directory
+     * @return blob files
+     */
+    private static File[] blobFiles(File root) {
+        File[] files = new File(root, "blobs").listFiles((d, n) -> n.endsWith(".gsnap"));
+        assertNotNull(files);
+        return files;
+    }
+
+    /**
+     * Copies the live store's files as they are on disk right now, as a crash would leave them.
+     *
+     * @return the copy
+     * @throws IOException if copying fails
+     */
+    private File crashCopy() throws IOException {
+        File out = new File(dir, "crash");
+        Files.createDirectories(new File(out, "blobs").toPath());
+        for (String f : new String[]{"refs.log", "refs.ckpt"}) {
+            File src = new File(live(), f);
+            if (src.exists()) Files.copy(src.toPath(), new File(out, f).toPath());
+        }
+        for (File blob : blobFiles(live())) Files.copy(blob.toPath(), new File(new File(out, "blobs"), blob.getName()).toPath());
+        return out;
+    }
+
+    /**
+     * Asserts that a grave reads back as the payload framed at its own origin.
+     *
+     * @param store  store
+     * @param id     grave UUID
+     * @param origin expected origin in the header
+     * @param body   expected payload
+     * @throws IOException if the read fails
+     */
+    private static void assertSnapshot(SnapshotStore store, UUID id, BlockVector3 origin, byte[] body) throws IOException {
+        byte[] read;
+        try (InputStream in = store.open(id)) {
+            assertNotNull(in);
+            read = in.readAllBytes();
+        }
+        ByteBuffer header = ByteBuffer.wrap(read);
+        assertEquals(BinarySnapshotCodec.MAGIC, header.getInt(0));
+        assertEquals(origin, BlockVector3.at(header.getInt(6), header.getInt(10), header.getInt(14)));
+        assertArrayEquals(body, Arrays.copyOfRange(read, BinarySnapshotCodec.HEADER, read.length));
+    }
+
+    /**
+     * @param s text
+     * @return its UTF-8 bytes
+     */
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Store that forwards every call, for overriding one of them. */
+    private static class DelegatingStore implements SnapshotStore {
+        /** Store calls go to. */
+        private final SnapshotStore target;
+
+        DelegatingStore(SnapshotStore target) {
+            this.target = target;
+        }
+
+        /** {@inheritDoc} */
+        @Override public String name() {
+            return target.name();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void put(UUID id, String extension, byte[] data) throws IOException {
+            target.put(id, extension, data);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public InputStream open(UUID id) throws IOException {
+            return target.open(id);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean contains(UUID id) {
+            return target.contains(id);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean delete(UUID id) {
+            return target.delete(id);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public List<Stored> list() {
+            return target.list();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Recovery of {@link OperationJournal}: operations left open by a crash come back with every field, finished
+ * ones do not, and a torn record at the end of the log loses only that record.
+ * <p>A crash is simulated by copying the journal files while the journal is still open.</p>
+ */
+class OperationJournalTest {
+
+    /** Logger for the journals under test. */
+    private static final Logger LOGGER = Logger.getLogger("OperationJournalTest");
+    /** World of every test intent. */
+    private static final UUID WORLD = UUID.randomUUID();
+
+    /** Journal directory; crash copies go into subdirectories. */
+    @TempDir
+    File dir;
+
+    /**
+     * Open places and removals survive a crash with all their fields; finished ones are dropped.
+     *
+     * @throws IOException if the journal fails
+     */
+    @Test
+    void recoversOpenOperations() throws IOException {
+        UUID placed = UUID.randomUUID(), removed = UUID.randomUUID(), finished = UUID.randomUUID();
+        UUID key = UUID.randomUUID();
+        OperationJournal journal = open(dir, 1 << 20);
+        journal.begin(place(placed, new int[]{1, 2, 3, 4, 5, 6}, 3));
+        journal.captured(placed);
+        journal.begin(new OperationJournal.Intent(OperationJournal.Op.REMOVE, removed, WORLD, new int[]{7, 8, 9},
+                new int[]{7, 9, 9}, null, 1, Arrays.asList(removed, key), true));
+        journal.begin(place(finished, null, 0));
+        journal.done(OperationJournal.Op.PLACE, finished);
+        File crash = crashCopy("crash");
+        journal.close();
+
+        OperationJournal recovered = open(crash, 1 << 20);
+        try {
+            List<OperationJournal.Intent> open = recovered.recovered();
+            assertEquals(2, open.size());
+
+            OperationJournal.Intent r = open.get(0);
+            assertEquals(OperationJournal.Op.REMOVE, r.op);
+            assertEquals(removed, r.id);
+            assertEquals(WORLD, r.world);
+            assertArrayEquals(new int[]{7, 8, 9}, r.paste);
+            assertArrayEquals(new int[]{7, 9, 9}, r.anchor);
+            assertNull(r.region);
+            assertEquals(1, r.turns);
+            assertEquals(Arrays.asList(removed, key), r.keys);
+            assertTrue(r.shared);
+
+            OperationJournal.Intent p = open.get(1);
+            assertEquals(OperationJournal.Op.PLACE, p.op);
+            assertEquals(placed, p.id);
+            assertArrayEquals(new int[]{1, 2, 3, 4, 5, 6}, p.region);
+            assertEquals(3, p.turns);
+            assertTrue(p.captured);
+            assertFalse(p.shared);
+        } finally {
+            recovered.close();
+        }
+    }
+
+    /**
+     * A record cut short at the end of the log is dropped; the records before it are kept.
+     *
+     * @throws IOException if the journal fails
+     */
+    @Test
+    void tornTailLosesOnlyLastRecord() throws IOException {
+        UUID first = UUID.randomUUID(), second = UUID.randomUUID();
+        OperationJournal journal = open(dir, 1 << 20);
+        journal.begin(place(first, null, 0));
+        journal.begin(place(second, null, 0));
+        File crash = crashCopy("crash");
+        journal.close();
+
+        try (RandomAccessFile log = new RandomAccessFile(new File(crash, "journal.log"), "rw")) {
+            log.setLength(log.length() - 5);
+        }
+
+        OperationJournal recovered = open(crash, 1 << 20);
+        try {
+            List<OperationJournal.Intent> open = recovered.recovered();
+            assertEquals(1, open.size());
+            assertEquals(first, open.get(0).id);
+            assertFalse(open.get(0).captured);
+        } finally {
+            recovered.close();
+        }
+    }
+
+    /**
+     * Operations survive checkpoints taken while the log grows, and the log tail written after the last
+     * checkpoint is applied on top of it.
+     *
+     * @throws IOException if the journal fails
+     */
+    @Test
+    void recoversAcrossCheckpoints() throws IOException {
+        UUID[] ids = new UUID[20];
+        OperationJournal journal = open(dir, 256);
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = UUID.randomUUID();
+            journal.begin(place(ids[i], null, 0));
+            if (i % 2 == 0) journal.done(OperationJournal.Op.PLACE, ids[i]);
+        }
+        File crash = crashCopy("crash");
+        journal.close();
+
+        OperationJournal recovered = open(crash, 256);
+        try {
+            List<OperationJournal.Intent> open = recovered.recovered();
+            assertEquals(ids.length / 2, open.size());
+            for (int i = 0; i < open.size(); i++) assertEquals(ids[2 * i + 1], open.get(i).id);
+        } finally {
+            recovered.close();
+        }
+    }
+
+    /**
+     * A clean close keeps open operations in the checkpoint alone.
+     *
+     * @throws IOException if the journal fails
+     */
+    @Test
+    void reopenAfterClose() throws IOException {
+        UUID id = UUID.randomUUID();
+        OperationJournal journal = open(dir, 1 << 20);
+        journal.begin(place(id, null, 2));
+        journal.close();
+        assertEquals(0L, new File(dir, "journal.log").length());
+
+        journal = open(dir, 1 << 20);
+        assertEquals(1, journal.recovered().size());
+        assertEquals(2, journal.recovered().get(0).turns);
+        journal.done(OperationJournal.Op.PLACE, id);
+        journal.close();
+
+        journal = open(dir, 1 << 20);
+        try {
+            assertTrue(journal.recovered().isEmpty());
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Opens a journal without fsync.
+     *
+     * @param in              directory
+     * @param checkpointBytes log size that triggers a checkpoint
+     * @return journal
+     * @throws IOException if it cannot be opened
+     */
+    private static OperationJournal open(File in, long checkpointBytes) throws IOException {
+        return new OperationJournal(LOGGER, in, checkpointBytes, false);
+    }
+
+    /**
+     * Builds a place intent.
+     *
+     * @param id     grave UUID
+     * @param region pasted region or {@code null}
+     * @param turns  quarter turns
+     * @return intent
+     */
+    private static OperationJournal.Intent place(UUID id, int[] region, int turns) {
+        return new OperationJournal.Intent(OperationJournal.Op.PLACE, id, WORLD, new int[]{10, 64, 10},
+                new int[]{10, 65, 10}, region, turns, Collections.emptyList(), false);
+    }
+
+    /**
+     * Copies the journal files as they are on disk right now, as a crash would leave them.
+     *
+     * @param name subdirectory to copy into
+     * @return the copy
+     * @throws IOException if copying fails
+     */
+    private File crashCopy(String name) throws IOException {
+        File out = new File(dir, name);
+        Files.createDirectories(out.toPath());
+        for (String f : new String[]{"journal.log", "journal.ckpt"}) {
+            File src = new File(dir, f);
+            if (src.exists()) Files.copy(src.toPath(), new File(out, f).toPath());
+        }
+        return out;
+    }
+}
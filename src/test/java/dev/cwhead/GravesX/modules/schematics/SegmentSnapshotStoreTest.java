@@ -0,0 +1,162 @@
+package dev.cwhead.GravesX.modules.schematics;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips of {@link SegmentSnapshotStore} across reopen: from the index checkpoint, by replaying the
+ * segments when the checkpoint is gone, and with a torn record at the end of the active segment.
+ */
+class SegmentSnapshotStoreTest {
+
+    /** Logger for the stores under test. */
+    private static final Logger LOGGER = Logger.getLogger("SegmentSnapshotStoreTest");
+
+    /** Segment directory. */
+    @TempDir
+    File dir;
+
+    /**
+     * Stored payloads read back as written, and deleted ones are gone.
+     *
+     * @throws IOException if the store fails
+     */
+    @Test
+    void putOpenDelete() throws IOException {
+        UUID a = UUID.randomUUID(), b = UUID.randomUUID();
+        SegmentSnapshotStore store = open(1 << 20);
+        try {
+            store.put(a, "gsnap", bytes("first"));
+            store.put(b, "gsnap", bytes("second"));
+            store.delete(a);
+
+            assertFalse(store.contains(a));
+            assertNull(store.open(a));
+            assertArrayEquals(bytes("second"), read(store, b));
+            assertEquals(1, store.list().size());
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Payloads survive a clean close and reopen, including ones in sealed segments.
+     *
+     * @throws IOException if the store fails
+     */
+    @Test
+    void reopenFromCheckpoint() throws IOException {
+        UUID[] ids = new UUID[8];
+        SegmentSnapshotStore store = open(64);
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = UUID.randomUUID();
+            store.put(ids[i], "gsnap", bytes("payload " + i));
+        }
+        store.close();
+        assertTrue(segments().length > 1);
+
+        store = open(64);
+        try {
+            for (int i = 0; i < ids.length; i++) assertArrayEquals(bytes("payload " + i), read(store, ids[i]));
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Without a checkpoint the segments are replayed in order, and a torn record at the tail is cut off
+     * without losing the records before it.
+     *
+     * @throws IOException if the store fails
+     */
+    @Test
+    void replayCutsTornTail() throws IOException {
+        UUID a = UUID.randomUUID(), b = UUID.randomUUID(), c = UUID.randomUUID();
+        SegmentSnapshotStore store = open(1 << 20);
+        store.put(a, "gsnap", bytes("gone"));
+        store.put(b, "gsnap", bytes("old"));
+        store.delete(a);
+        store.put(b, "gsnap", bytes("new"));
+        store.put(c, "gsnap", bytes("kept"));
+        store.close();
+
+        assertTrue(new File(dir, "index.dat").delete());
+        File seg = segments()[0];
+        long intact = seg.length();
+        byte[] torn = Arrays.copyOf(Files.readAllBytes(seg.toPath()), 20);
+        Files.write(seg.toPath(), torn, StandardOpenOption.APPEND);
+
+        store = open(1 << 20);
+        try {
+            assertEquals(intact, seg.length());
+            assertFalse(store.contains(a));
+            assertArrayEquals(bytes("new"), read(store, b));
+            assertArrayEquals(bytes("kept"), read(store, c));
+
+            UUID d = UUID.randomUUID();
+            store.put(d, "gsnap", bytes("after"));
+            assertArrayEquals(bytes("after"), read(store, d));
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Opens a store on {@link #dir} without a legacy store.
+     *
+     * @param segmentSize bytes per segment
+     * @return store
+     * @throws IOException if it cannot be opened
+     */
+    private SegmentSnapshotStore open(long segmentSize) throws IOException {
+        return new SegmentSnapshotStore(LOGGER, dir, segmentSize, 0.5D, 60L, false, null);
+    }
+
+    /** @return segment files, oldest first */
+    private File[] segments() {
+        File[] files = dir.listFiles((d, n) -> n.startsWith("seg-") && n.endsWith(".dat"));
+        assertNotNull(files);
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Reads a stored payload.
+     *
+     * @param store store
+     * @param id    grave UUID
+     * @return payload
+     * @throws IOException if the read fails
+     */
+    private static byte[] read(SnapshotStore store, UUID id) throws IOException {
+        try (InputStream in = store.open(id)) {
+            assertNotNull(in);
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * @param s text
+     * @return its UTF-8 bytes
+     */
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}